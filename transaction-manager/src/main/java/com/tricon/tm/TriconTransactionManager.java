@@ -1,8 +1,11 @@
 package com.tricon.tm;
 
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.naming.NamingException;
@@ -37,9 +40,9 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 	// Thread specific transaction context
 	private final ThreadLocal<TransactionContext> threadTransactionContext = new ThreadLocal<TransactionContext>();
 
-	// Map holds hex string of global transaction id as key and transaction as value
-	private final Map<String, TransactionImpl> activeTransactions =
-			Collections.synchronizedMap(new HashMap<String, TransactionImpl>());
+	// Transactions keyed by their global transaction id, as wrapped by their SyncTransactionKey
+	private final Map<SyncTransactionKey, TransactionImpl> activeTransactions =
+			new ConcurrentHashMap<SyncTransactionKey, TransactionImpl>();
 
 	private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
 
@@ -54,7 +57,11 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		configurationHelper.buildTMVendorNameByteArray();
 		configurationHelper.buildServerIdByteArray();
 
-		// TODO: Schedule recovery task
+		// Open the journal before the first transaction needs it
+		TriconTransactionManagerServices.getJournal();
+
+		// Resolve the in-doubt branches left by a previous run, resources registered later trigger their own run
+		TriconTransactionManagerServices.getRecoverer().scheduleRecovery(new Date());
 
 		logger.info("TriconTransactionManager is started{}", ".");
 	}
@@ -116,7 +123,13 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		if (transaction == null) {
 			throw new IllegalStateException("No transaction started on this thread");
 		}
-		transaction.commit();
+		try {
+			transaction.commit();
+			// afterCompletion() of a commit going on in the background runs on another thread
+			disassociateTransaction(transaction);
+		} finally {
+			disassociateRolledBackOnTimeout(transaction);
+		}
 	}
 
 	public void rollback() throws IllegalStateException, SecurityException, SystemException {
@@ -125,7 +138,40 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		if (transaction == null) {
 			throw new IllegalStateException("No transaction started on this thread");
 		}
-		transaction.rollback();
+		try {
+			transaction.rollback();
+		} finally {
+			disassociateRolledBackOnTimeout(transaction);
+		}
+	}
+
+	/**
+	 * Commits the current transaction without waiting for the 2PC round trips. The transaction is disassociated
+	 * from the calling thread before returning, which can start a new transaction right away.
+	 */
+	public CompletionStage<Void> commitAsync() throws IllegalStateException {
+		TransactionImpl transaction = getCurrentTransaction();
+		logger.debug("Inside commitAsync() - transaction: {}", transaction);
+		if (transaction == null) {
+			throw new IllegalStateException("No transaction started on this thread");
+		}
+		CompletionStage<Void> completion = transaction.commitAsync();
+		disassociateTransaction(transaction);
+		return completion;
+	}
+
+	/**
+	 * Rolls back the current transaction without waiting for the resources, see commitAsync().
+	 */
+	public CompletionStage<Void> rollbackAsync() throws IllegalStateException {
+		TransactionImpl transaction = getCurrentTransaction();
+		logger.debug("Inside rollbackAsync() - transaction: {}", transaction);
+		if (transaction == null) {
+			throw new IllegalStateException("No transaction started on this thread");
+		}
+		CompletionStage<Void> completion = transaction.rollbackAsync();
+		disassociateTransaction(transaction);
+		return completion;
 	}
 
 	public void setRollbackOnly() throws IllegalStateException, SystemException {
@@ -186,8 +232,28 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		return getOrCreateTransactionContext().getTransaction();
 	}
 
+	/**
+	 * Read-only view of the transactions begun and not completed yet. Iterating it does not block begin or
+	 * completion and never throws ConcurrentModificationException, it sees the transactions active when the
+	 * iteration started and may or may not see the ones begun or completed meanwhile.
+	 */
+	public Map<SyncTransactionKey, TransactionImpl> getActiveTransactionsByGtrid() {
+		return Collections.unmodifiableMap(activeTransactions);
+	}
+
+	/**
+	 * Copy of the transactions begun and not completed yet, keyed by the hex string of their global transaction
+	 * id. Changing it does not change the transactions known to the transaction manager anymore.
+	 *
+	 * @deprecated encodes every key on each call, use getActiveTransactionsByGtrid()
+	 */
+	@Deprecated
 	public Map<String, TransactionImpl> getActiveTransactions() {
-		return activeTransactions;
+		Map<String, TransactionImpl> transactions = new HashMap<String, TransactionImpl>();
+		for (Map.Entry<SyncTransactionKey, TransactionImpl> entry : activeTransactions.entrySet()) {
+			transactions.put(EncodingUtil.convertBytesToHex(entry.getKey().getGlobalTransactionId()), entry.getValue());
+		}
+		return transactions;
 	}
 
 	public boolean isShuttingDown() {
@@ -199,7 +265,10 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		internalShutdown();
 
 		TriconTransactionManagerServices.getTaskScheduler().shutdown();
+		TriconTransactionManagerServices.shutdownRecoverer();
+		TriconTransactionManagerServices.shutdownBranchRetryScheduler();
 		TriconTransactionManagerServices.shutdownExecutorService();
+		TriconTransactionManagerServices.shutdownJournal();
 
 		TriconTransactionManagerServices.dispose();
 		logger.info("TriconTransactionManager is shutdown{}", "..");
@@ -209,7 +278,7 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		shuttingDown.set(true);
 		long shutdownIntervalSeconds = TriconTransactionManagerServices.getConfigurationHelper().getShutdownInterval();
 		logger.debug("shutdownIntervalSeconds: {} seconds", shutdownIntervalSeconds);
-		int txCount = activeTransactions != null ? activeTransactions.size() : 0;
+		int txCount = getPendingTransactionCount();
 		while (shutdownIntervalSeconds > 0 && txCount > 0) {
 			try {
 				Thread.sleep(1000l);
@@ -217,10 +286,17 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 				// Ignore
 			}
 			shutdownIntervalSeconds--;
-			txCount = activeTransactions != null ? activeTransactions.size() : 0;
+			txCount = getPendingTransactionCount();
 		}
 	}
 
+	private int getPendingTransactionCount() {
+		int txCount = activeTransactions.size();
+		// Background commits and retries only finish their transactions if the executors are still up
+		return txCount + TriconTransactionManagerServices.getCommitPhaseExecutor().getBackgroundCommitCount()
+				+ TriconTransactionManagerServices.getBranchRetryScheduler().getPendingCount();
+	}
+
 	public Reference getReference() throws NamingException {
 		logger.debug("Inside getReference() {}", "..");
 		return new Reference(TriconTransactionManager.class.getName(),
@@ -239,8 +315,7 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		final TransactionImpl transaction = new TransactionImpl();
 		getOrCreateTransactionContext().setTransaction(transaction);
 
-		String gtridString = EncodingUtil.convertBytesToHex(transaction.getXAResourceManager().getGlobalTransactionId());
-		activeTransactions.put(gtridString, transaction);
+		activeTransactions.put(transaction.getSyncTransactionkey(), transaction);
 		return transaction;
 	}
 
@@ -260,6 +335,21 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 		return transactionContext;
 	}
 
+	private void disassociateTransaction(TransactionImpl transaction) {
+		// afterCompletion() runs on another thread, it cannot clear the context of this one
+		final TransactionContext txContext = threadTransactionContext.get();
+		if (txContext != null && txContext.getTransaction() == transaction) {
+			clearCurrentTransactionContext();
+		}
+	}
+
+	private void disassociateRolledBackOnTimeout(TransactionImpl transaction) {
+		// afterCompletion() of a transaction rolled back by the timeout policy ran on a worker thread
+		if (transaction.isRolledBackOnTimeout()) {
+			disassociateTransaction(transaction);
+		}
+	}
+
 	private void clearCurrentTransactionContext() {
 		logger.debug("Inside clearCurrentTransactionContext() - clearing thread transaction context{}", "..");
 		threadTransactionContext.set(null);
@@ -287,8 +377,7 @@ public class TriconTransactionManager implements TransactionManager, UserTransac
 				threadTransactionContext.set(null);
 			}
 
-			String gtridString = EncodingUtil.convertBytesToHex(currentTx.getXAResourceManager().getGlobalTransactionId());
-			activeTransactions.remove(gtridString);
+			activeTransactions.remove(currentTx.getSyncTransactionkey());
 		}
 
 		public String toString() {
@@ -1,14 +1,40 @@
 package com.tricon.tm;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.UserTransaction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.tricon.tm.internal.ResourceManagerIdentifier;
+import com.tricon.tm.internal.ResourceNameRegistry;
+import com.tricon.tm.internal.ResourceTimeoutCache;
+import com.tricon.tm.journal.DiskJournal;
+import com.tricon.tm.journal.Journal;
+import com.tricon.tm.journal.MappedJournal;
+import com.tricon.tm.journal.NullJournal;
+import com.tricon.tm.recovery.Recoverer;
 import com.tricon.tm.timer.TaskScheduler;
+import com.tricon.tm.twopc.BranchRetryScheduler;
+import com.tricon.tm.twopc.CallerRunsExecutorService;
+import com.tricon.tm.twopc.CommitPhaseExecutor;
+import com.tricon.tm.twopc.JobThreadFactory;
+import com.tricon.tm.twopc.PreparePhaseExecutor;
+import com.tricon.tm.twopc.ResourceManagerBulkheads;
+import com.tricon.tm.twopc.RollbackPhaseExecutor;
+import com.tricon.tm.util.XidFactory;
 
 public class TriconTransactionManagerServices {
 	private static Logger logger = LoggerFactory.getLogger(TriconTransactionManagerServices.class);
@@ -17,7 +43,21 @@ public class TriconTransactionManagerServices {
 	private static ConfigurationHelper configurationHelper;
 	private static TaskScheduler taskScheduler;
 	private static ExecutorService executorService;
+	private static ExecutorService completionExecutorService;
 	private static TriconTransactionSynchronizationRegistry transactionSynchronizationRegistry;
+	private static Journal journal;
+	private static Recoverer recoverer;
+	private static BranchRetryScheduler branchRetryScheduler;
+	private static ResourceManagerBulkheads resourceManagerBulkheads;
+	// Read on every commit/rollback, so these are looked up without taking the class lock once created
+	private static volatile PreparePhaseExecutor preparePhaseExecutor;
+	private static volatile CommitPhaseExecutor commitPhaseExecutor;
+	private static volatile RollbackPhaseExecutor rollbackPhaseExecutor;
+	private static volatile ResourceManagerIdentifier resourceManagerIdentifier;
+	private static volatile ResourceTimeoutCache resourceTimeoutCache;
+	private static volatile XidFactory xidFactory;
+	// Not disposed, the registered resources belong to connection pools outliving a shutdown
+	private static final ResourceNameRegistry resourceNameRegistry = new ResourceNameRegistry();
 
 	public synchronized static TriconTransactionManager getTransactionManager() {
 		if (transactionManager == null) {
@@ -49,15 +89,243 @@ public class TriconTransactionManagerServices {
 
 	public synchronized static ExecutorService getExecutorService() {
 		if (executorService == null) {
-			if (getConfigurationHelper().isAsynchronous2pc()) {
-				executorService = Executors.newCachedThreadPool();
+			String jobExecutor = getConfigurationHelper().getJobExecutor();
+			if ("virtual".equals(jobExecutor)) {
+				executorService = createVirtualThreadExecutorService();
+			} else if ("bounded".equals(jobExecutor)) {
+				executorService = createBoundedExecutorService(getConfigurationHelper().getJobExecutorMaxThreads());
+			} else if ("single".equals(jobExecutor)) {
+				executorService = createBoundedExecutorService(1);
+			} else if ("caller".equals(jobExecutor)) {
+				executorService = new CallerRunsExecutorService();
 			} else {
-				executorService = Executors.newSingleThreadExecutor();
+				throw new InitializationException("Invalid 2pc executor: " + jobExecutor
+						+ " (virtual, bounded, single or caller expected)");
 			}
+			logger.info("Using {} executor for 2pc jobs", jobExecutor);
 		}
 		return executorService;
 	}
 
+	/**
+	 * Runs the steps of commitAsync() and rollbackAsync(). These block while waiting for the 2pc jobs, so they do
+	 * not share the bounded 2pc executor, which they could otherwise starve. The pool is bounded as well: once its
+	 * threads are busy and its queue is full, a step runs in the thread submitting it, which slows down the
+	 * callers of commitAsync() instead of piling up threads.
+	 */
+	public synchronized static ExecutorService getCompletionExecutorService() {
+		if (completionExecutorService == null) {
+			if ("virtual".equals(getConfigurationHelper().getJobExecutor())) {
+				completionExecutorService = createVirtualThreadExecutorService();
+			} else {
+				int maxThreads = Math.max(1, getConfigurationHelper().getCompletionMaxThreads());
+				int maxQueued = Math.max(1, getConfigurationHelper().getCompletionMaxQueued());
+				ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L,
+						TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueued),
+						new JobThreadFactory("tricon-tm-completion-"), new RejectedExecutionHandler() {
+							public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+								if (executor.isShutdown()) {
+									throw new RejectedExecutionException("Completion executor is shut down");
+								}
+								task.run();
+							}
+						});
+				threadPoolExecutor.allowCoreThreadTimeOut(true);
+				completionExecutorService = threadPoolExecutor;
+			}
+		}
+		return completionExecutorService;
+	}
+
+	/**
+	 * The queue is not bounded: every queued job has a thread waiting for it, the committing thread or a
+	 * completion thread, so the queue holds no more than the branches of the transactions being completed. The
+	 * bulkheads bound the jobs queued per resource manager, and rejecting a commit job would leave its branch in
+	 * doubt until recovery.
+	 */
+	private static ExecutorService createBoundedExecutorService(int maxThreads) {
+		maxThreads = Math.max(1, maxThreads);
+		ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new JobThreadFactory("tricon-tm-2pc-"));
+		threadPoolExecutor.allowCoreThreadTimeOut(true);
+		return threadPoolExecutor;
+	}
+
+	/**
+	 * Virtual threads need Java 21, they are looked up reflectively so the transaction manager still runs on
+	 * older JVMs, where the bounded executor is used instead.
+	 */
+	private static ExecutorService createVirtualThreadExecutorService() {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "tricon-tm-2pc-virtual-", 1L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+		} catch (Exception ex) {
+			logger.warn("Virtual threads are not available on Java {}, falling back to the bounded 2pc executor",
+					System.getProperty("java.version"));
+			return createBoundedExecutorService(getConfigurationHelper().getJobExecutorMaxThreads());
+		}
+	}
+
+	public static PreparePhaseExecutor getPreparePhaseExecutor() {
+		PreparePhaseExecutor executor = preparePhaseExecutor;
+		if (executor == null) {
+			synchronized (TriconTransactionManagerServices.class) {
+				executor = preparePhaseExecutor;
+				if (executor == null) {
+					executor = new PreparePhaseExecutor(getExecutorService(), getResourceManagerBulkheads());
+					preparePhaseExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	public static CommitPhaseExecutor getCommitPhaseExecutor() {
+		CommitPhaseExecutor executor = commitPhaseExecutor;
+		if (executor == null) {
+			synchronized (TriconTransactionManagerServices.class) {
+				executor = commitPhaseExecutor;
+				if (executor == null) {
+					executor = new CommitPhaseExecutor(getExecutorService(), getResourceManagerBulkheads());
+					commitPhaseExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	public static RollbackPhaseExecutor getRollbackPhaseExecutor() {
+		RollbackPhaseExecutor executor = rollbackPhaseExecutor;
+		if (executor == null) {
+			synchronized (TriconTransactionManagerServices.class) {
+				executor = rollbackPhaseExecutor;
+				if (executor == null) {
+					executor = new RollbackPhaseExecutor(getExecutorService(), getResourceManagerBulkheads());
+					rollbackPhaseExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Shared by the three phase executors, so the limit applies to all jobs running against a resource manager.
+	 *
+	 * @return null when bulkheads are disabled or the 2pc jobs run in the calling thread
+	 */
+	public synchronized static ResourceManagerBulkheads getResourceManagerBulkheads() {
+		if (resourceManagerBulkheads == null) {
+			int maxConcurrent = getConfigurationHelper().getBulkheadMaxConcurrent();
+			ExecutorService executorService = getExecutorService();
+			if (maxConcurrent <= 0 || executorService instanceof CallerRunsExecutorService) {
+				return null;
+			}
+			resourceManagerBulkheads = new ResourceManagerBulkheads(executorService, maxConcurrent,
+					getConfigurationHelper().getBulkheadMaxQueued());
+		}
+		return resourceManagerBulkheads;
+	}
+
+	public static ResourceManagerIdentifier getResourceManagerIdentifier() {
+		ResourceManagerIdentifier identifier = resourceManagerIdentifier;
+		if (identifier == null) {
+			synchronized (TriconTransactionManagerServices.class) {
+				identifier = resourceManagerIdentifier;
+				if (identifier == null) {
+					identifier = new ResourceManagerIdentifier();
+					resourceManagerIdentifier = identifier;
+				}
+			}
+		}
+		return identifier;
+	}
+
+	public static ResourceNameRegistry getResourceNameRegistry() {
+		return resourceNameRegistry;
+	}
+
+	public static ResourceTimeoutCache getResourceTimeoutCache() {
+		ResourceTimeoutCache cache = resourceTimeoutCache;
+		if (cache == null) {
+			synchronized (TriconTransactionManagerServices.class) {
+				cache = resourceTimeoutCache;
+				if (cache == null) {
+					cache = new ResourceTimeoutCache(getConfigurationHelper().isResourceTimeoutCacheEnabled());
+					resourceTimeoutCache = cache;
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Called for every global transaction id and branch qualifier.
+	 */
+	public static XidFactory getXidFactory() {
+		XidFactory factory = xidFactory;
+		if (factory == null) {
+			synchronized (TriconTransactionManagerServices.class) {
+				factory = xidFactory;
+				if (factory == null) {
+					ConfigurationHelper configurationHelper = getConfigurationHelper();
+					factory = new XidFactory(configurationHelper.buildTMVendorNameByteArray(),
+							configurationHelper.buildServerIdByteArray(), configurationHelper.isXidCompact(),
+							configurationHelper.getXidSequenceBlockSize());
+					xidFactory = factory;
+				}
+			}
+		}
+		return factory;
+	}
+
+	public synchronized static Journal getJournal() {
+		if (journal == null) {
+			ConfigurationHelper configurationHelper = getConfigurationHelper();
+			String journalType = configurationHelper.getJournal();
+			Journal newJournal;
+			if ("disk".equals(journalType)) {
+				newJournal = new DiskJournal(new File(configurationHelper.getJournalDirectory()),
+						configurationHelper.getJournalMaxFileSizeInMB() * 1024L * 1024L,
+						configurationHelper.isForcedWriteEnabled());
+			} else if ("mapped".equals(journalType)) {
+				newJournal = new MappedJournal(new File(configurationHelper.getJournalDirectory()),
+						configurationHelper.getJournalMaxFileSizeInMB() * 1024L * 1024L,
+						configurationHelper.getJournalSegmentCount(),
+						configurationHelper.isForcedWriteEnabled());
+			} else if ("null".equals(journalType)) {
+				logger.warn("Journal is disabled, transactions will not be recoverable after a crash{}", "!");
+				newJournal = new NullJournal();
+			} else {
+				throw new InitializationException("Invalid journal type: " + journalType + " (disk, mapped or null expected)");
+			}
+			try {
+				newJournal.open();
+			} catch (IOException ex) {
+				throw new InitializationException("Cannot open journal of type: " + journalType, ex);
+			}
+			journal = newJournal;
+		}
+		return journal;
+	}
+
+	public synchronized static Recoverer getRecoverer() {
+		if (recoverer == null) {
+			recoverer = new Recoverer();
+		}
+		return recoverer;
+	}
+
+	public synchronized static BranchRetryScheduler getBranchRetryScheduler() {
+		if (branchRetryScheduler == null) {
+			branchRetryScheduler = new BranchRetryScheduler();
+		}
+		return branchRetryScheduler;
+	}
+
 	public synchronized static TriconTransactionSynchronizationRegistry getTransactionSynchronizationRegistry() {
 		if (transactionSynchronizationRegistry == null) {
 			transactionSynchronizationRegistry = new TriconTransactionSynchronizationRegistry();
@@ -74,16 +342,54 @@ public class TriconTransactionManagerServices {
 		if (executorService != null && !executorService.isShutdown()) {
 			executorService.shutdown();
 		}
+		if (completionExecutorService != null && !completionExecutorService.isShutdown()) {
+			completionExecutorService.shutdown();
+		}
 		logger.info("ExecutorService is shutdown{}", ".");
 	}
 	
+	protected synchronized static void shutdownRecoverer() {
+		if (recoverer != null) {
+			recoverer.shutdown();
+		}
+	}
+
+	protected synchronized static void shutdownBranchRetryScheduler() {
+		if (branchRetryScheduler != null) {
+			branchRetryScheduler.shutdown();
+		}
+	}
+
+	protected synchronized static void shutdownJournal() {
+		logger.info("Shutting down Journal{}", "..");
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException ex) {
+				logger.error("Error while closing the journal - ex: ", ex);
+			}
+		}
+		logger.info("Journal is shutdown{}", ".");
+	}
+
 	protected synchronized static void dispose() {
 		logger.info("Disposing transaction manager related all references{}", "..");
 		transactionManager = null;
 		configurationHelper = null;
 		taskScheduler = null;
 		executorService = null;
+		completionExecutorService = null;
+		preparePhaseExecutor = null;
+		commitPhaseExecutor = null;
+		rollbackPhaseExecutor = null;
 		transactionSynchronizationRegistry = null;
+		journal = null;
+		recoverer = null;
+		branchRetryScheduler = null;
+		resourceManagerBulkheads = null;
+		resourceManagerIdentifier = null;
+		resourceTimeoutCache = null;
+		xidFactory = null;
 		logger.info("Disposed transaction manager related all references{}", ".");
 	}
 
@@ -0,0 +1,88 @@
+package com.tricon.tm.internal;
+
+import javax.transaction.xa.XAResource;
+
+import com.tricon.tm.ConfigurationHelper;
+import com.tricon.tm.TriconTransactionManagerServices;
+
+/**
+ * Group of XAResources talking to the same resource manager, as found by the ResourceManagerIdentifier.
+ * Instances are compared by identity.
+ */
+public class ResourceManager {
+	private final int id;
+	private volatile String name;
+	// Most recently identified member, newcomers are compared against it with isSameRM()
+	private volatile XAResource representative;
+	private final CircuitBreaker circuitBreaker;
+	private volatile long lastUsed;
+	// Set once the identifier forgot this resource manager, new resources only join it again if it is readmitted
+	private volatile boolean evicted;
+
+	ResourceManager(int id, XAResource representative) {
+		this.id = id;
+		this.name = "rm-" + id;
+		this.representative = representative;
+		this.lastUsed = System.nanoTime();
+		ConfigurationHelper configurationHelper = TriconTransactionManagerServices.getConfigurationHelper();
+		this.circuitBreaker = new CircuitBreaker(this, configurationHelper.getCircuitBreakerFailureThreshold(),
+				configurationHelper.getCircuitBreakerOpenDuration());
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * The unique name of the recoverable resource of this resource manager once recovery scanned it, "rm-id"
+	 * until then.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	void setName(String name) {
+		this.name = name;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void touch() {
+		lastUsed = System.nanoTime();
+	}
+
+	public boolean isEvicted() {
+		return evicted;
+	}
+
+	void evict() {
+		evicted = true;
+	}
+
+	void readmit() {
+		evicted = false;
+	}
+
+	XAResource getRepresentative() {
+		return representative;
+	}
+
+	void setRepresentative(XAResource representative) {
+		this.representative = representative;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("id=").append(id)
+				.append(", name=").append(name)
+				.append("]").toString();
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.tricon.tm.internal;
+
+import javax.transaction.xa.XAResource;
+
+import com.tricon.tm.util.WeakIdentityHashMap;
+
+/**
+ * Unique names of the XAResources handed out by the resource adapters, the same names their recoverable
+ * resources are registered under (see NamedXADataSource). The name of a branch tells which recoverable resource
+ * can reach it: the journal records it with the commit decision, so recovery knows which resources must be
+ * scanned before the decision can be forgotten, and the BranchRetryScheduler retries through that resource.
+ * Resources are held weakly and compared by identity, so closed connections are forgotten.
+ */
+public class ResourceNameRegistry {
+	// Guarded by itself
+	private final WeakIdentityHashMap<XAResource, String> uniqueNames = new WeakIdentityHashMap<XAResource, String>();
+
+	public void register(String uniqueName, XAResource xaResource) {
+		if (uniqueName == null || xaResource == null) {
+			throw new IllegalArgumentException("Cannot register resource " + xaResource + " with name " + uniqueName);
+		}
+		synchronized (uniqueNames) {
+			uniqueNames.put(xaResource, uniqueName);
+		}
+	}
+
+	public void unregister(XAResource xaResource) {
+		synchronized (uniqueNames) {
+			uniqueNames.remove(xaResource);
+		}
+	}
+
+	/**
+	 * @return the unique name the resource was registered with, null if it was not
+	 */
+	public String getUniqueName(XAResource xaResource) {
+		synchronized (uniqueNames) {
+			return uniqueNames.get(xaResource);
+		}
+	}
+
+	public int getRegisteredCount() {
+		synchronized (uniqueNames) {
+			return uniqueNames.size();
+		}
+	}
+
+}
@@ -1,9 +1,14 @@
 package com.tricon.tm.internal;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -17,11 +22,24 @@ import com.tricon.tm.internal.exception.TriconSystemException;
 import com.tricon.tm.internal.exception.TriconXAException;
 import com.tricon.tm.util.XidUtil;
 
+/**
+ * Branches of one transaction. Every branch carries the gtrid of this manager, lookups by gtrid compare it once
+ * instead of once per branch. Batch jobs enlist hundreds of connections in one transaction, so branches are
+ * found through identity indexes rather than list scans:
+ *
+ * <pre>
+ * resourceIndexes  XAResource -> position of its branch in resources
+ * joinCandidates   resource manager -> branches ended by delist(), most recent last; a candidate which was
+ *                  suspended, restarted or replaced since is dropped when it comes up
+ * </pre>
+ */
 public class XAResourceManager {
 	private static Logger logger = LoggerFactory.getLogger(XAResourceManager.class);
 
 	private byte[] globalTransacationId;
-	private final List<XAResourceInfo> resources = new ArrayList<XAResourceInfo>();
+	private List<XAResourceInfo> resources = new ArrayList<XAResourceInfo>();
+	private Map<XAResource, Integer> resourceIndexes = new IdentityHashMap<XAResource, Integer>();
+	private Map<ResourceManager, Deque<XAResourceInfo>> joinCandidates;
 
 	public XAResourceManager(byte[] globalTransacationId) {
 		this.globalTransacationId = globalTransacationId;
@@ -51,23 +69,39 @@ public class XAResourceManager {
 
 	private XAResourceInfo getEnlistedXAResourceInfoToBeJoined(final XAResourceInfo xaResourceInfo) throws XAException {
 		boolean isUseTMJoin = TriconTransactionManagerServices.getConfigurationHelper().isUseTMJoin();
-		if (isUseTMJoin) {
+		if (isUseTMJoin && joinCandidates != null) {
 			logger.debug("Checking for existing transaction branch joinability {}", "..");
-			Iterator<XAResourceInfo> iter = resources.iterator();
-			while (iter.hasNext()) {
-				XAResourceInfo enlistedXAResourceInfo = iter.next();
-				if (enlistedXAResourceInfo.isEnded() && !enlistedXAResourceInfo.isSuspended() &&
-						xaResourceInfo.getXAResource().isSameRM(enlistedXAResourceInfo.getXAResource())) {
-					logger.debug("Joinable (enlisted, ended and belongs to the same RM) enlistedXAResourceInfo: {}",
-							enlistedXAResourceInfo);
-					return enlistedXAResourceInfo;
+			Deque<XAResourceInfo> candidates = joinCandidates.get(xaResourceInfo.getResourceManager());
+			while (candidates != null && !candidates.isEmpty()) {
+				XAResourceInfo enlistedXAResourceInfo = candidates.peekLast();
+				if (!enlistedXAResourceInfo.isEnded() || enlistedXAResourceInfo.isSuspended()
+						|| findEnlistedXAResourceInfo(enlistedXAResourceInfo.getXAResource()) != enlistedXAResourceInfo) {
+					candidates.pollLast();
+					continue;
 				}
+				// both resources were matched to the same resource manager with isSameRM() already
+				logger.debug("Joinable (enlisted, ended and belongs to the same RM) enlistedXAResourceInfo: {}",
+						enlistedXAResourceInfo);
+				return enlistedXAResourceInfo;
 			}
 			logger.debug("Joinable (enlisted, ended and belongs to the same RM) enlistedXAResourceInfo: {}", "null");
 		}
 		return null;
 	}
 
+	private void addJoinCandidate(final XAResourceInfo xaResourceInfo) {
+		if (joinCandidates == null) {
+			joinCandidates = new IdentityHashMap<ResourceManager, Deque<XAResourceInfo>>();
+		}
+		ResourceManager resourceManager = xaResourceInfo.getResourceManager();
+		Deque<XAResourceInfo> candidates = joinCandidates.get(resourceManager);
+		if (candidates == null) {
+			candidates = new ArrayDeque<XAResourceInfo>();
+			joinCandidates.put(resourceManager, candidates);
+		}
+		candidates.addLast(xaResourceInfo);
+	}
+
 	private void startOrJoinTransactionBranch(final XAResourceInfo xaResourceInfo,
 			final XAResourceInfo toBeJoinedXAResourceInfo) throws XAException, TriconSystemException {
 		XidImpl xid;
@@ -85,14 +119,54 @@ public class XAResourceManager {
 		}
 
 		xaResourceInfo.setXid(xid);
-		xaResourceInfo.start(flag);
+		start(xaResourceInfo, flag);
 
-		// In case of a JOIN, the resource info is already in the list -> do not add it twice
+		// Add to list only after start() returned successfully; in case of a JOIN, the resource info takes the
+		// place of the joined one -> do not add it twice
+		int index;
 		if (toBeJoinedXAResourceInfo != null) {
-			resources.remove(toBeJoinedXAResourceInfo);
+			index = resourceIndexes.remove(toBeJoinedXAResourceInfo.getXAResource()).intValue();
+			resources.set(index, xaResourceInfo);
+			joinCandidates.get(toBeJoinedXAResourceInfo.getResourceManager()).removeLastOccurrence(toBeJoinedXAResourceInfo);
+		} else {
+			index = resources.size();
+			resources.add(xaResourceInfo);
+		}
+		resourceIndexes.put(xaResourceInfo.getXAResource(), Integer.valueOf(index));
+	}
+
+	/**
+	 * Starts the branch through the circuit breaker of its resource manager, so a resource manager which is down
+	 * fails the enlistment right away instead of after the network timeout of the driver.
+	 */
+	private void start(final XAResourceInfo xaResourceInfo, int flag) throws XAException {
+		if (TriconTransactionManagerServices.getConfigurationHelper().getCircuitBreakerFailureThreshold() <= 0) {
+			xaResourceInfo.start(flag);
+			return;
+		}
+		ResourceManager resourceManager = xaResourceInfo.getResourceManager();
+		CircuitBreaker circuitBreaker = resourceManager.getCircuitBreaker();
+		if (!circuitBreaker.allowRequest()) {
+			throw new TriconXAException("Resource manager " + resourceManager.getName() + " is unavailable after "
+					+ circuitBreaker.getConsecutiveFailures() + " consecutive failures, not starting " + xaResourceInfo
+					+ " until a probe succeeds", XAException.XAER_RMFAIL);
+		}
+		boolean reachable = false;
+		try {
+			xaResourceInfo.start(flag);
+			reachable = true;
+		} catch (XAException ex) {
+			// any other XA error is an answer, it shows the resource manager is reachable
+			reachable = (ex.errorCode != XAException.XAER_RMFAIL);
+			throw ex;
+		} finally {
+			// a runtime exception or an error thrown by the driver is no answer, it counts as a failure
+			if (reachable) {
+				circuitBreaker.recordSuccess();
+			} else {
+				circuitBreaker.recordFailure();
+			}
 		}
-		// Add to list only after start() returned successfully
-		resources.add(xaResourceInfo);
 	}
 
 	public boolean delist(XAResourceInfo xaResourceInfo, int flag) throws XAException, TriconSystemException {
@@ -100,6 +174,9 @@ public class XAResourceManager {
 		if (enlistedXAResourceInfo != null) {
 			logger.debug("Delisting resource: {} ..", xaResourceInfo);
 			xaResourceInfo.end(flag);
+			if (flag != XAResource.TMSUSPEND && TriconTransactionManagerServices.getConfigurationHelper().isUseTMJoin()) {
+				addJoinCandidate(xaResourceInfo);
+			}
 			return true;
 		}
 		logger.warn("Trying to delist resource that has not been previously enlisted: {}", xaResourceInfo);
@@ -118,7 +195,8 @@ public class XAResourceManager {
 	}
 
 	public void resume() throws XAException {
-		Iterator<XAResourceInfo> it = resources.iterator();
+		// re-enlisting may start new branches, iterate over the ones present before
+		Iterator<XAResourceInfo> it = getAllXAResourceInfoList().iterator();
 		while (it.hasNext()) {
 			XAResourceInfo xaResourceInfo = it.next();
 			if (xaResourceInfo.isSuspended()) {
@@ -145,62 +223,42 @@ public class XAResourceManager {
 	}
 
 	public List<XAResourceInfo> getAllXAResourceInfoList() {
-		final List<XAResourceInfo> enlistedXaResourceInfoList = new ArrayList<XAResourceInfo>();
-		Iterator<XAResourceInfo> iter = resources.iterator();
-		while (iter.hasNext()) {
-			XAResourceInfo xaResourceInfo = iter.next();
-			enlistedXaResourceInfoList.add(xaResourceInfo);
-		}
-		return enlistedXaResourceInfoList;
+		return new ArrayList<XAResourceInfo>(resources);
 	}
 
 	public XAResourceInfo findEnlistedXAResourceInfo(final XAResource xaResource) {
-		Iterator<XAResourceInfo> iter = resources.iterator();
-		while (iter.hasNext()) {
-			XAResourceInfo xaResourceInfo = iter.next();
-			if (xaResourceInfo.getXAResource() == xaResource) {
-				return xaResourceInfo;
-			}
+		Integer index = resourceIndexes.get(xaResource);
+		if (index == null) {
+			return null;
 		}
-		return null;
+		return resources.get(index.intValue());
 	}
 
 	public List<XAResourceInfo> findEnlistedXAResourceInfoListByGtrid(byte[] gtrid) {
-		final List<XAResourceInfo> enlistedXaResourceInfoList = new ArrayList<XAResourceInfo>();
-		Iterator<XAResourceInfo> iter = resources.iterator();
-		while (iter.hasNext()) {
-			XAResourceInfo xaResourceInfo = iter.next();
-			if (xaResourceInfo.getXid() != null && xaResourceInfo.getXid().getGlobalTransactionId() != null
-					&& Arrays.equals(xaResourceInfo.getXid().getGlobalTransactionId(), gtrid)) {
-				enlistedXaResourceInfoList.add(xaResourceInfo);
-			}
+		if (!Arrays.equals(globalTransacationId, gtrid)) {
+			return Collections.emptyList();
 		}
-		return enlistedXaResourceInfoList;
+		return getAllXAResourceInfoList();
 	}
 
 	public XAResourceInfo findEnlistedXAResourceInfo(final XAResource xaResource, byte[] gtrid) {
-		Iterator<XAResourceInfo> iter = resources.iterator();
-		while (iter.hasNext()) {
-			XAResourceInfo xaResourceInfo = iter.next();
-			if (xaResourceInfo.getXAResource() == xaResource
-					&& xaResourceInfo.getXid() != null && xaResourceInfo.getXid().getGlobalTransactionId() != null
-					&& Arrays.equals(xaResourceInfo.getXid().getGlobalTransactionId(), gtrid)) {
-				return xaResourceInfo;
-			}
+		if (!Arrays.equals(globalTransacationId, gtrid)) {
+			return null;
 		}
-		return null;
+		return findEnlistedXAResourceInfo(xaResource);
 	}
 
+	/**
+	 * Forgets all branches at once, the lists are dropped rather than emptied.
+	 */
 	public void clearXAResourceInfos(byte[] gtrid) {
-		Iterator<XAResourceInfo> iter = resources.iterator();
-		while (iter.hasNext()) {
-			XAResourceInfo xaResourceInfo = iter.next();
-			if (xaResourceInfo.getXid() != null && xaResourceInfo.getXid().getGlobalTransactionId() != null
-					&& Arrays.equals(xaResourceInfo.getXid().getGlobalTransactionId(), gtrid)) {
-
-				iter.remove();
-			}
+		if (!Arrays.equals(globalTransacationId, gtrid)) {
+			logger.debug("No resource enlisted in transaction {}", "..");
+			return;
 		}
+		resources = new ArrayList<XAResourceInfo>();
+		resourceIndexes = new IdentityHashMap<XAResource, Integer>();
+		joinCandidates = null;
 	}
 
 }
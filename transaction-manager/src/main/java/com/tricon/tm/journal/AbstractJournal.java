@@ -0,0 +1,118 @@
+package com.tricon.tm.journal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+
+import com.tricon.tm.SyncTransactionKey;
+
+/**
+ * Base class of the file based journals. It keeps track of the dangling (COMMITTING) records and implements
+ * group commit: the first thread calling force() flushes the disk on behalf of every record appended so far,
+ * threads arriving meanwhile wait for that flush (or the next one) instead of issuing their own.
+ */
+public abstract class AbstractJournal implements Journal {
+	// Guarded by 'this'
+	private final Map<SyncTransactionKey, JournalRecord> danglingRecords = new HashMap<SyncTransactionKey, JournalRecord>();
+	private long appendedSequence = 0;
+
+	// Guarded by forceMonitor
+	private final Object forceMonitor = new Object();
+	private long forcedSequence = 0;
+	private boolean forcing = false;
+
+	private long forceCount = 0;
+
+	public synchronized void log(int status, byte[] globalTransactionId, List<byte[]> branchQualifiers,
+			List<String> resourceNames) throws IOException {
+		JournalRecord record = new JournalRecord(status, System.currentTimeMillis(), globalTransactionId,
+				branchQualifiers, resourceNames);
+		append(record);
+		trackDanglingRecord(record);
+		appendedSequence++;
+	}
+
+	public void force() throws IOException {
+		long targetSequence = getAppendedSequence();
+		synchronized (forceMonitor) {
+			while (forcedSequence < targetSequence && forcing) {
+				try {
+					forceMonitor.wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for journal force");
+				}
+			}
+			if (forcedSequence >= targetSequence) {
+				return;
+			}
+			forcing = true;
+		}
+
+		// Everything appended up to here is covered by this flush, including records of the waiting threads
+		long forcingSequence = getAppendedSequence();
+		boolean forced = false;
+		try {
+			flush();
+			forced = true;
+		} finally {
+			synchronized (forceMonitor) {
+				if (forced) {
+					forcedSequence = Math.max(forcedSequence, forcingSequence);
+					forceCount++;
+				}
+				forcing = false;
+				forceMonitor.notifyAll();
+			}
+		}
+	}
+
+	public synchronized Map<SyncTransactionKey, JournalRecord> collectDanglingRecords() throws IOException {
+		return new HashMap<SyncTransactionKey, JournalRecord>(danglingRecords);
+	}
+
+	public long getForceCount() {
+		synchronized (forceMonitor) {
+			return forceCount;
+		}
+	}
+
+	protected synchronized long getAppendedSequence() {
+		return appendedSequence;
+	}
+
+	protected synchronized Map<SyncTransactionKey, JournalRecord> getDanglingRecords() {
+		return danglingRecords;
+	}
+
+	protected synchronized void resetDanglingRecords() {
+		danglingRecords.clear();
+	}
+
+	protected void trackDanglingRecord(JournalRecord record) {
+		SyncTransactionKey key = new SyncTransactionKey(record.getGlobalTransactionId());
+		switch (record.getStatus()) {
+			case Status.STATUS_COMMITTING:
+				danglingRecords.put(key, record);
+				break;
+			case Status.STATUS_COMMITTED:
+			case Status.STATUS_ROLLEDBACK:
+				danglingRecords.remove(key);
+				break;
+		}
+	}
+
+	/**
+	 * Writes the record to the log, called while holding the journal lock.
+	 */
+	protected abstract void append(JournalRecord record) throws IOException;
+
+	/**
+	 * Makes every appended record durable, called without holding the journal lock.
+	 */
+	protected abstract void flush() throws IOException;
+
+}
@@ -0,0 +1,40 @@
+package com.tricon.tm.journal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.tricon.tm.SyncTransactionKey;
+
+/**
+ * Write-ahead log of the transaction status transitions.
+ *
+ * <pre>
+ * log()   appends a record, it is not guaranteed to be durable before force() returns
+ * force() makes every record appended so far durable, concurrent callers share one disk flush
+ * </pre>
+ */
+public interface Journal {
+
+	void open() throws IOException;
+
+	/**
+	 * Appends a record of the status transition of a transaction.
+	 *
+	 * @param resourceNames unique name of the recoverable resource of each branch, in the order of the branch
+	 *            qualifiers; null for a resource not registered for recovery
+	 */
+	void log(int status, byte[] globalTransactionId, List<byte[]> branchQualifiers, List<String> resourceNames)
+			throws IOException;
+
+	void force() throws IOException;
+
+	void close() throws IOException;
+
+	/**
+	 * Returns the records of the transactions that logged COMMITTING but neither COMMITTED nor ROLLEDBACK yet,
+	 * keyed by their global transaction id.
+	 */
+	Map<SyncTransactionKey, JournalRecord> collectDanglingRecords() throws IOException;
+
+}
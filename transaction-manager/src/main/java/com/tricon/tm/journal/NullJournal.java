@@ -0,0 +1,32 @@
+package com.tricon.tm.journal;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.tricon.tm.SyncTransactionKey;
+
+/**
+ * Journal that does not log anything, transactions are not recoverable when it is used.
+ */
+public class NullJournal implements Journal {
+
+	public void open() throws IOException {
+	}
+
+	public void log(int status, byte[] globalTransactionId, List<byte[]> branchQualifiers, List<String> resourceNames)
+			throws IOException {
+	}
+
+	public void force() throws IOException {
+	}
+
+	public void close() throws IOException {
+	}
+
+	public Map<SyncTransactionKey, JournalRecord> collectDanglingRecords() throws IOException {
+		return Collections.emptyMap();
+	}
+
+}
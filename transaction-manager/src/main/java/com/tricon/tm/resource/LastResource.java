@@ -0,0 +1,16 @@
+package com.tricon.tm.resource;
+
+/**
+ * Non-XA participant using a local transaction, enlisted through TransactionImpl.enlistLastResource(). At most
+ * one last resource takes part in a transaction: it is committed once every XA resource has voted XA_OK, its
+ * outcome decides the outcome of the XA resources.
+ */
+public interface LastResource {
+
+	String getName();
+
+	void commit() throws Exception;
+
+	void rollback() throws Exception;
+
+}
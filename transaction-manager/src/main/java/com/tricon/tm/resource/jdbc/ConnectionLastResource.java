@@ -0,0 +1,47 @@
+package com.tricon.tm.resource.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import com.tricon.tm.resource.LastResource;
+
+/**
+ * Last resource adapter for a plain JDBC connection, its auto-commit is switched off when it is wrapped.
+ */
+public class ConnectionLastResource implements LastResource {
+	private final String name;
+	private final Connection connection;
+
+	public ConnectionLastResource(String name, Connection connection) throws SQLException {
+		this.name = name;
+		this.connection = connection;
+		if (connection.getAutoCommit()) {
+			connection.setAutoCommit(false);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	public void commit() throws SQLException {
+		connection.commit();
+	}
+
+	public void rollback() throws SQLException {
+		connection.rollback();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("name=").append(name)
+				.append(", connection=").append(connection)
+				.append("]").toString();
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.tricon.tm.resource.jdbc;
+
+import java.sql.SQLException;
+
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.recovery.RecoverableResource;
+
+public class XADataSourceRecoverableResource implements RecoverableResource {
+	private static Logger logger = LoggerFactory.getLogger(XADataSourceRecoverableResource.class);
+
+	private final String uniqueName;
+	private final XADataSource xaDataSource;
+	// Guarded by this, shared by the recoverer and the branch retries holding the resource
+	private XAConnection recoveryConnection;
+	private int holderCount;
+
+	public XADataSourceRecoverableResource(String uniqueName, XADataSource xaDataSource) {
+		this.uniqueName = uniqueName;
+		this.xaDataSource = xaDataSource;
+	}
+
+	public String getUniqueName() {
+		return uniqueName;
+	}
+
+	public synchronized XAResource getXAResource() throws SQLException {
+		if (recoveryConnection == null) {
+			recoveryConnection = xaDataSource.getXAConnection();
+		}
+		XAResource xaResource = recoveryConnection.getXAResource();
+		holderCount++;
+		return xaResource;
+	}
+
+	public synchronized void release() {
+		if (holderCount > 0) {
+			holderCount--;
+		}
+		if (holderCount == 0 && recoveryConnection != null) {
+			try {
+				recoveryConnection.close();
+			} catch (SQLException ex) {
+				logger.warn("Error closing recovery connection of {} - ex: {}", uniqueName, ex);
+			} finally {
+				recoveryConnection = null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("uniqueName=").append(uniqueName)
+				.append(", xaDataSource=").append(xaDataSource)
+				.append("]").toString();
+	}
+
+}
@@ -1,20 +1,52 @@
 package com.tricon.tm.timer;
 
-import com.tricon.tm.TriconTransactionManagerServices;
-import com.tricon.tm.Service;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import com.tricon.tm.ConfigurationHelper;
+import com.tricon.tm.Service;
+import com.tricon.tm.TriconTransactionManagerServices;
 
+/**
+ * Hashed timing wheel. Scheduled tasks are hashed by their deadline into one of the wheel buckets, each tick
+ * only the tasks of the current bucket are looked at, so scheduling and expiry do not depend on the number of
+ * pending tasks. Tasks further away than one wheel revolution carry the number of remaining rounds.
+ *
+ * <pre>
+ * schedule()  O(1), lock free hand-off to the scheduler thread through a queue, returns a TaskHandle
+ * cancel      O(1), TaskHandle.cancel() flips the task state, the scheduler thread unlinks it on its next tick
+ * expiry      tasks fire at most one tick (tricon.tm.timer.tickDuration) after their execution time
+ * </pre>
+ */
 public class TaskScheduler extends Thread implements Service {
 	private static Logger logger = LoggerFactory.getLogger(TaskScheduler.class);
 
-	private final List tasks = Collections.synchronizedList(new ArrayList());
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	private final Queue<ScheduledTimeout> pendingTimeouts = new ConcurrentLinkedQueue<ScheduledTimeout>();
+	private final Queue<ScheduledTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<ScheduledTimeout>();
+	private final AtomicInteger tasksCount = new AtomicInteger(0);
 	private final AtomicBoolean active = new AtomicBoolean(true);
 
+	private final long startTime;
+	private long tick;
+
 	public TaskScheduler() {
+		ConfigurationHelper configurationHelper = TriconTransactionManagerServices.getConfigurationHelper();
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, configurationHelper.getTimerTickDuration()));
+		this.wheel = createWheel(configurationHelper.getTimerWheelSize());
+		this.mask = wheel.length - 1;
+		this.startTime = System.nanoTime();
+
 		setName("tricon-tm-task-scheduler");
 		setDaemon(true);
 		start();
@@ -29,15 +61,19 @@ public class TaskScheduler extends Thread implements Service {
 	}
 
 	public int getTasksCount() {
-		return tasks.size();
-	}
-
-	public void schedule(Task task) {
-		addTask(task);
+		return tasksCount.get();
 	}
 
-	public <T> boolean cancelByTaskTypeAndObject(Class<T> taskType, final Object object) {
-		return removeTaskByTypeAndObject(taskType, object);
+	public TaskHandle schedule(Task task) {
+		long delayNanos = 0;
+		if (task instanceof ScheduledTask) {
+			Date executionTime = ((ScheduledTask) task).getExecutionTime();
+			delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, executionTime.getTime() - System.currentTimeMillis()));
+		}
+		ScheduledTimeout timeout = new ScheduledTimeout(task, System.nanoTime() + delayNanos);
+		tasksCount.incrementAndGet();
+		pendingTimeouts.add(timeout);
+		return timeout;
 	}
 
 	public synchronized void shutdown() {
@@ -54,72 +90,192 @@ public class TaskScheduler extends Thread implements Service {
 
 	public void run() {
 		while (isActive()) {
+			if (waitForNextTick()) {
+				removeCancelledTimeouts();
+				transferPendingTimeouts();
+				wheel[(int) (tick & mask)].expireTimeouts();
+				tick++;
+			}
+		}
+	}
+
+	/**
+	 * Sleeps until the end of the current tick, returns false when the scheduler has been deactivated meanwhile.
+	 */
+	private boolean waitForNextTick() {
+		long deadline = tickNanos * (tick + 1);
+		while (true) {
+			long currentTime = System.nanoTime() - startTime;
+			long sleepNanos = deadline - currentTime;
+			if (sleepNanos <= 0) {
+				return true;
+			}
+			if (!isActive()) {
+				return false;
+			}
 			try {
-				executeTasks();
-				Thread.sleep(500l); // execute twice per second
+				TimeUnit.NANOSECONDS.sleep(sleepNanos);
 			} catch (InterruptedException ex) {
 				// ignore
 			}
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private boolean addTask(final Task task) {
-		synchronized (this.tasks) {
-			removeTaskByTypeAndObject(task.getClass(), task.getObject());
-			return this.tasks.add(task);
+	private void transferPendingTimeouts() {
+		ScheduledTimeout timeout;
+		while ((timeout = pendingTimeouts.poll()) != null) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			long calculatedTick = (timeout.deadline - startTime) / tickNanos;
+			timeout.remainingRounds = (calculatedTick - tick) / wheel.length;
+			// an already expired task goes into the current bucket
+			long bucketTick = Math.max(calculatedTick, tick);
+			wheel[(int) (bucketTick & mask)].add(timeout);
 		}
 	}
 
-	private <T> boolean removeTaskByTypeAndObject(Class<T> taskType, final Object obj) {
-		synchronized (this.tasks) {
-			for (int i = 0; i < this.tasks.size(); i++) {
-				Task task = (Task) this.tasks.get(i);
-				if (task.getClass() == taskType && task.getObject() == obj) {
-					this.tasks.remove(task);
-					return true;
-				}
+	private void removeCancelledTimeouts() {
+		ScheduledTimeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			// a timeout cancelled before being transferred is skipped by transferPendingTimeouts()
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
 			}
-			return false;
 		}
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private void executeTasks() {
-		if (this.tasks.size() == 0) {
+	private void executeTask(final ScheduledTimeout timeout) {
+		if (!timeout.expire()) {
 			return;
 		}
-		List allTasks;
-		synchronized (this.tasks) {
-			allTasks = new ArrayList(this.tasks);
+		tasksCount.decrementAndGet();
+		try {
+			timeout.task.execute();
+		} catch (TaskException ex) {
+			logger.error("Error running task: {}, ex: {}", timeout.task, ex);
+		} catch (RuntimeException ex) {
+			logger.error("Unexpected error running task: {}, ex: {}", timeout.task, ex);
 		}
+	}
 
-		Iterator it = allTasks.iterator();
-		boolean isExecuteTask = true;
-		while (it.hasNext()) {
-			final Task task = (Task) it.next();
-			if ((task instanceof ScheduledTask)
-					&& (!checkTimeoutElapsed(((ScheduledTask) task).getExecutionTime()))) {
-				isExecuteTask = false;
-			}
-			if (isExecuteTask) {
-				executeTask(task);
-			}
+	private Bucket[] createWheel(int wheelSize) {
+		int normalizedWheelSize = 1;
+		while (normalizedWheelSize < wheelSize) {
+			normalizedWheelSize <<= 1;
 		}
+		Bucket[] wheel = new Bucket[normalizedWheelSize];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+		return wheel;
 	}
 
-	private void executeTask(final Task task) {
-		try {
-			task.execute();
-		} catch (TaskException ex) {
-			logger.error("Error running task: {}, ex: {}", task, ex);
-		} finally {
-			this.tasks.remove(task);
+	private final class ScheduledTimeout implements TaskHandle {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final Task task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+		// Owned by the scheduler thread
+		private long remainingRounds;
+		private ScheduledTimeout next;
+		private ScheduledTimeout prev;
+		private Bucket bucket;
+
+		private ScheduledTimeout(Task task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public Task getTask() {
+			return task;
+		}
+
+		public boolean cancel() {
+			if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			tasksCount.decrementAndGet();
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == ST_EXPIRED;
+		}
+
+		private boolean expire() {
+			return state.compareAndSet(ST_INIT, ST_EXPIRED);
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuffer(this.getClass().getName()).append("[")
+					.append("task=").append(task)
+					.append(", state=").append(state.get())
+					.append("]").toString();
 		}
 	}
 
-	private boolean checkTimeoutElapsed(Date executionTime) {
-		return (executionTime.compareTo(new Date()) <= 0);
+	/**
+	 * Doubly linked list of timeouts, only accessed by the scheduler thread.
+	 */
+	private final class Bucket {
+		private ScheduledTimeout head;
+		private ScheduledTimeout tail;
+
+		private void add(ScheduledTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		private void expireTimeouts() {
+			ScheduledTimeout timeout = head;
+			while (timeout != null) {
+				ScheduledTimeout next = timeout.next;
+				if (timeout.isCancelled()) {
+					remove(timeout);
+				} else if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					executeTask(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		private void remove(ScheduledTimeout timeout) {
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = timeout.next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
 	}
 
 }
@@ -1,15 +1,23 @@
 package com.tricon.tm.twopc;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.transaction.xa.XAException;
 
-import com.tricon.tm.TriconTransactionManagerServices;
 import com.tricon.tm.internal.XAResourceInfo;
 
 public abstract class Job implements Runnable {
+	private static final int ST_RUNNING = 0;
+	private static final int ST_COMPLETED = 1;
+	private static final int ST_ABANDONED = 2;
+
 	private Future future;
 	private XAResourceInfo xaResourceInfo;
+	private CountDownLatch completionLatch;
+	private boolean failFast;
+	private final AtomicInteger state = new AtomicInteger(ST_RUNNING);
 
 	protected XAException xaException;
 	protected RuntimeException runtimeException;
@@ -46,19 +54,90 @@ public abstract class Job implements Runnable {
 		return runtimeException;
 	}
 
+	/**
+	 * @param failFast when true, a failing job releases the latch at once instead of counting down
+	 */
+	public void setCompletionLatch(CountDownLatch completionLatch, boolean failFast) {
+		this.completionLatch = completionLatch;
+		this.failFast = failFast;
+	}
+
+	public boolean isCompleted() {
+		return state.get() == ST_COMPLETED;
+	}
+
+	public boolean isFailed() {
+		return xaException != null || runtimeException != null;
+	}
+
+	/**
+	 * Called by the phase executor once it stops waiting for this job.
+	 *
+	 * @return true if the job had not completed yet, it then cleans up after itself through abandoned()
+	 */
+	public boolean abandon() {
+		return state.compareAndSet(ST_RUNNING, ST_ABANDONED);
+	}
+
+	/**
+	 * Completes a job which could not be run at all.
+	 */
+	public void reject(RuntimeException ex) {
+		runtimeException = ex;
+		complete();
+	}
+
+	/**
+	 * Completes a job which was not run as its resource could not take it, see ResourceManagerBulkheads.
+	 */
+	public void reject(XAException ex) {
+		xaException = ex;
+		complete();
+	}
+
 	public void setRuntimeException(RuntimeException runtimeException) {
 		this.runtimeException = runtimeException;
 	}
 
 	public final void run() {
-		if (TriconTransactionManagerServices.getConfigurationHelper().isAsynchronous2pc()) {
-			Thread.currentThread().setName("tricon-tm-2pc-async-" + Thread.currentThread().getId());
+		if (state.get() == ST_ABANDONED) {
+			// the phase is already over, do not start working on a branch nobody waits for
+			abandoned();
+			return;
+		}
+		try {
+			execute();
+		} catch (RuntimeException ex) {
+			runtimeException = ex;
+		} finally {
+			complete();
+		}
+	}
+
+	private void complete() {
+		if (!state.compareAndSet(ST_RUNNING, ST_COMPLETED)) {
+			abandoned();
+			return;
+		}
+		if (completionLatch == null) {
+			return;
+		}
+		if (failFast && isFailed()) {
+			// wake up the waiting thread right away, the jobs still running are abandoned
+			while (completionLatch.getCount() > 0) {
+				completionLatch.countDown();
+			}
 		} else {
-			Thread.currentThread().setName("tricon-tm-2pc-sync-" + Thread.currentThread().getId());
+			completionLatch.countDown();
 		}
-		execute();
 	}
 
 	protected abstract void execute();
 
+	/**
+	 * Called in the job thread when the phase executor stopped waiting for this job before it completed.
+	 */
+	protected void abandoned() {
+	}
+
 }
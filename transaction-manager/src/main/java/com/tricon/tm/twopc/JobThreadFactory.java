@@ -0,0 +1,23 @@
+package com.tricon.tm.twopc;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the daemon platform threads running the two-phase commit jobs.
+ */
+public class JobThreadFactory implements ThreadFactory {
+	private final String namePrefix;
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	public JobThreadFactory(String namePrefix) {
+		this.namePrefix = namePrefix;
+	}
+
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+}
@@ -1,7 +1,6 @@
 package com.tricon.tm.twopc;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -16,8 +15,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManagerServices;
 import com.tricon.tm.internal.exception.TriconRollbackException;
 import com.tricon.tm.internal.exception.TriconSystemException;
+import com.tricon.tm.internal.exception.TriconXAException;
 import com.tricon.tm.internal.XAResourceHelper;
 import com.tricon.tm.internal.XAResourceInfo;
 import com.tricon.tm.internal.XAResourceManager;
@@ -26,15 +27,15 @@ import com.tricon.tm.util.DecodingUtil;
 public class PreparePhaseExecutor extends AbstractPhaseExecutor {
 	private static Logger logger = LoggerFactory.getLogger(PreparePhaseExecutor.class);
 
-	private final List<XAResourceInfo> preparedResources = Collections.synchronizedList(new ArrayList<XAResourceInfo>());
-
-	public PreparePhaseExecutor(ExecutorService executorService) {
-		super(executorService);
+	public PreparePhaseExecutor(ExecutorService executorService, ResourceManagerBulkheads bulkheads) {
+		super(executorService, bulkheads);
 	}
 
 	public List<XAResourceInfo> prepare(final TransactionImpl transaction) throws RollbackException, TriconSystemException {
 		XAResourceManager xaResourceManager = transaction.getXAResourceManager();
 		transaction.setStatus(Status.STATUS_PREPARING);
+		PhaseContext context = new PhaseContext(transaction, null, false);
+		List<XAResourceInfo> preparedResources = context.getCompletedResources();
 
 		if (xaResourceManager.resourceCount() == 0) {
 			logger.warn("Executing transaction with 0 enlisted resource {}", "..");
@@ -42,8 +43,8 @@ public class PreparePhaseExecutor extends AbstractPhaseExecutor {
 			return preparedResources;
 		}
 
-		// 1PC optimization
-		if (xaResourceManager.resourceCount() == 1) {
+		// 1PC optimization, unless a last resource has to be committed between prepare and commit
+		if (xaResourceManager.resourceCount() == 1 && transaction.getLastResource() == null) {
 			XAResourceInfo xaResourceInfo = xaResourceManager.getAllXAResourceInfoList().get(0);
 			preparedResources.add(xaResourceInfo);
 			logger.debug("Only 1 resource is enlisted, so no prepare needed (1PC){}", ".");
@@ -52,7 +53,7 @@ public class PreparePhaseExecutor extends AbstractPhaseExecutor {
 		}
 
 		try {
-			executePhase(xaResourceManager);
+			executePhase(context);
 		} catch (PhaseException ex) {
 			logFailedResources(ex);
 			throwException("Transaction failed during prepare of " + transaction, ex);
@@ -63,17 +64,26 @@ public class PreparePhaseExecutor extends AbstractPhaseExecutor {
 		return preparedResources;
 	}
 
-	protected boolean isParticipating(XAResourceInfo xaResourceInfo) {
+	protected int getPhaseTimeout() {
+		return TriconTransactionManagerServices.getConfigurationHelper().getPrepareTimeout();
+	}
+
+	protected boolean isFailFast() {
+		// a single failing vote decides the outcome, the other branches should not hold their locks any longer
 		return true;
 	}
 
-	protected Job createJob(XAResourceInfo xaResourceInfo) {
-		return new PrepareJob(xaResourceInfo);
+	protected Job createJob(PhaseContext context, XAResourceInfo xaResourceInfo) {
+		return new PrepareJob(context, xaResourceInfo);
 	}
 
-	private class PrepareJob extends Job {
-		public PrepareJob(XAResourceInfo xaResourceInfo) {
+	private static class PrepareJob extends Job {
+		private final PhaseContext context;
+		private int vote = -1;
+
+		public PrepareJob(PhaseContext context, XAResourceInfo xaResourceInfo) {
 			super(xaResourceInfo);
+			this.context = context;
 		}
 
 		public void execute() {
@@ -81,10 +91,10 @@ public class PreparePhaseExecutor extends AbstractPhaseExecutor {
 				XAResourceInfo xaResourceInfo = getXAResourceInfo();
 				logger.debug("Preparing resource {} ..", xaResourceInfo);
 
-				int vote = xaResourceInfo.getXAResource().prepare(xaResourceInfo.getXid());
+				vote = xaResourceInfo.getXAResource().prepare(xaResourceInfo.getXid());
 				logger.debug("Voted: {} on resource: {}", DecodingUtil.decodePrepareVote(vote), xaResourceInfo);
 				if (vote == XAResource.XA_OK) {
-					preparedResources.add(xaResourceInfo);
+					context.getCompletedResources().add(xaResourceInfo);
 					logger.debug("Prepared resource (for commit): {}", xaResourceInfo);
 
 				} else if (vote == XAResource.XA_RDONLY) {
@@ -97,6 +107,24 @@ public class PreparePhaseExecutor extends AbstractPhaseExecutor {
 			}
 		}
 
+		protected void abandoned() {
+			XAResourceInfo xaResourceInfo = getXAResourceInfo();
+			if (vote == XAResource.XA_RDONLY
+					|| (xaException != null && TriconXAException.isUnilateralRollback(xaException))) {
+				return;
+			}
+			// the transaction is rolling back without this branch, roll it back here as soon as its prepare returned
+			try {
+				logger.debug("Rolling back abandoned resource {}", xaResourceInfo);
+				xaResourceInfo.getXAResource().rollback(xaResourceInfo.getXid());
+			} catch (XAException ex) {
+				logger.warn("Cannot rollback abandoned resource {}, error={} - it will be rolled back through recovery",
+						xaResourceInfo, DecodingUtil.decodeXAExceptionErrorCode(ex));
+			} catch (RuntimeException ex) {
+				logger.warn("Cannot rollback abandoned resource {} - ex: {}", xaResourceInfo, ex);
+			}
+		}
+
 		public String toString() {
 			return "PrepareJob with resource: " + getXAResourceInfo();
 		}
@@ -0,0 +1,209 @@
+package com.tricon.tm.twopc;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.xa.XAException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.internal.ResourceManager;
+import com.tricon.tm.internal.XAResourceInfo;
+import com.tricon.tm.internal.exception.TriconXAException;
+
+/**
+ * Bounds the 2pc jobs running at once against each resource manager, so a resource manager answering slowly
+ * cannot take over every thread of the shared 2pc executor. Jobs over the limit wait in a per resource manager
+ * queue without holding a thread, jobs arriving while that queue is full are rejected with XAER_RMFAIL: a
+ * prepare then fails fast, a commit or rollback is handed over to the BranchRetryScheduler.
+ * <p>
+ * A bulkhead is keyed by the unique name of the resource of its branches, which outlives the ResourceManager the
+ * identifier may evict and create again for the same database. Resources registered under no name fall back to
+ * their ResourceManager, such a bulkhead is dropped once its resource manager is evicted and it is idle.
+ */
+public class ResourceManagerBulkheads {
+	private static Logger logger = LoggerFactory.getLogger(ResourceManagerBulkheads.class);
+
+	private final ExecutorService executorService;
+	private final int maxConcurrent;
+	private final int maxQueued;
+	// Keyed by unique name, or by ResourceManager for resources without one
+	private final ConcurrentHashMap<Object, Bulkhead> bulkheads = new ConcurrentHashMap<Object, Bulkhead>();
+
+	public ResourceManagerBulkheads(ExecutorService executorService, int maxConcurrent, int maxQueued) {
+		this.executorService = executorService;
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * Runs the job on the 2pc executor as soon as the bulkhead of its resource manager has room for it.
+	 */
+	public void submit(Job job) {
+		getBulkhead(job).submit(job);
+	}
+
+	/**
+	 * Runs the job in the calling thread if the bulkhead of its resource manager has room for it right away.
+	 *
+	 * @return false if the job has not been run
+	 */
+	public boolean tryRun(Job job) {
+		Bulkhead bulkhead = getBulkhead(job);
+		if (!bulkhead.tryAcquire()) {
+			return false;
+		}
+		try {
+			job.run();
+		} finally {
+			bulkhead.release();
+		}
+		return true;
+	}
+
+	public int getBulkheadCount() {
+		return bulkheads.size();
+	}
+
+	private Bulkhead getBulkhead(Job job) {
+		XAResourceInfo xaResourceInfo = job.getXAResourceInfo();
+		String uniqueName = xaResourceInfo.getUniqueName();
+		Object key = uniqueName != null ? uniqueName : xaResourceInfo.getResourceManager();
+		Bulkhead bulkhead = bulkheads.get(key);
+		if (bulkhead == null) {
+			// a new resource manager may have evicted an old one
+			removeEvictedBulkheads();
+			Bulkhead newBulkhead = uniqueName != null ? new Bulkhead(uniqueName, null)
+					: new Bulkhead(xaResourceInfo.getResourceManager().getName(), xaResourceInfo.getResourceManager());
+			bulkhead = bulkheads.putIfAbsent(key, newBulkhead);
+			if (bulkhead == null) {
+				bulkhead = newBulkhead;
+			}
+		}
+		return bulkhead;
+	}
+
+	private void removeEvictedBulkheads() {
+		Iterator<Bulkhead> it = bulkheads.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().isEvictedAndIdle()) {
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("maxConcurrent=").append(maxConcurrent)
+				.append(", maxQueued=").append(maxQueued)
+				.append(", bulkheads=").append(bulkheads.values())
+				.append("]").toString();
+	}
+
+	private final class Bulkhead {
+		private final String name;
+		// Only set for a bulkhead keyed by its resource manager
+		private final ResourceManager resourceManager;
+		private final AtomicInteger running = new AtomicInteger(0);
+		private final AtomicInteger queued = new AtomicInteger(0);
+		private final Queue<Job> waiting = new ConcurrentLinkedQueue<Job>();
+
+		private Bulkhead(String name, ResourceManager resourceManager) {
+			this.name = name;
+			this.resourceManager = resourceManager;
+		}
+
+		private void submit(Job job) {
+			if (queued.incrementAndGet() > maxQueued) {
+				queued.decrementAndGet();
+				logger.warn("Bulkhead of resource manager {} is full, rejecting job: {}", name, job);
+				job.reject(new TriconXAException("Resource manager " + name + " has "
+						+ maxConcurrent + " job(s) running and " + maxQueued + " waiting", XAException.XAER_RMFAIL));
+				return;
+			}
+			waiting.add(job);
+			dispatch();
+		}
+
+		private boolean tryAcquire() {
+			while (true) {
+				int count = running.get();
+				if (count >= maxConcurrent) {
+					return false;
+				}
+				if (running.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		private void release() {
+			running.decrementAndGet();
+			dispatch();
+			if (isEvictedAndIdle()) {
+				bulkheads.remove(resourceManager, this);
+			}
+		}
+
+		/**
+		 * A job racing with the removal still runs through this bulkhead, only the branches already holding the
+		 * evicted resource manager can use it.
+		 */
+		private boolean isEvictedAndIdle() {
+			return resourceManager != null && resourceManager.isEvicted() && running.get() == 0 && queued.get() == 0;
+		}
+
+		/**
+		 * Starts waiting jobs as long as there is room. Called whenever a job is queued or a running one ends, so
+		 * no queued job is left behind.
+		 */
+		private void dispatch() {
+			while (!waiting.isEmpty()) {
+				if (!tryAcquire()) {
+					return;
+				}
+				Job job = waiting.poll();
+				if (job == null) {
+					running.decrementAndGet();
+					continue;
+				}
+				queued.decrementAndGet();
+				start(job);
+			}
+		}
+
+		private void start(final Job job) {
+			try {
+				job.setFuture(executorService.submit(new Runnable() {
+					public void run() {
+						try {
+							job.run();
+						} finally {
+							release();
+						}
+					}
+				}));
+			} catch (RejectedExecutionException ex) {
+				logger.error("Could not submit job: {} - ex: {}", job, ex);
+				running.decrementAndGet();
+				job.reject(ex);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuffer(name).append("[")
+					.append("running=").append(running.get())
+					.append(", queued=").append(queued.get())
+					.append("]").toString();
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.tricon.tm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.xa.XAException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * commitAsync() and rollbackAsync() on a completion pool of a single thread and a single queued task, the 2pc
+ * jobs running in the completion thread.
+ */
+public class AsyncCompletionTest {
+	private TriconTransactionManager transactionManager;
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "caller",
+				"tricon.tm.completion.maxThreads", "1", "tricon.tm.completion.maxQueued", "1");
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testCommitAsyncReturnsBeforeThePrepare() throws Exception {
+		FakeXAResource resource1 = new FakeXAResource("async-test-1");
+		FakeXAResource resource2 = new FakeXAResource("async-test-2");
+		resource1.block("prepare", release);
+		RecordingSynchronization synchronization = begin(resource1, resource2);
+
+		CompletableFuture<Void> completion = transactionManager.commitAsync().toCompletableFuture();
+		assertNull(transactionManager.getTransaction());
+		assertFalse(completion.isDone());
+
+		release.countDown();
+		completion.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), resource1.getCalls());
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), resource2.getCalls());
+		assertTrue(resource1.getCallThread("prepare").getName().startsWith("tricon-tm-completion-"));
+		// the synchronizations run before the stage completes
+		assertEquals(Status.STATUS_COMMITTED, synchronization.status);
+	}
+
+	@Test
+	public void testCommitAsyncCompletesWithTheRollback() throws Exception {
+		FakeXAResource resource1 = new FakeXAResource("async-test-1");
+		FakeXAResource resource2 = new FakeXAResource("async-test-2");
+		resource2.fail("prepare", XAException.XAER_RMERR, 1);
+		RecordingSynchronization synchronization = begin(resource1, resource2);
+
+		try {
+			transactionManager.commitAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+			fail("the stage must complete exceptionally when a resource fails to prepare");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof RollbackException);
+		}
+		assertEquals(1, resource1.countCalls("rollback"));
+		assertEquals(Status.STATUS_ROLLEDBACK, synchronization.status);
+	}
+
+	@Test
+	public void testRollbackAsyncReturnsBeforeTheRollback() throws Exception {
+		FakeXAResource resource1 = new FakeXAResource("async-test-1");
+		FakeXAResource resource2 = new FakeXAResource("async-test-2");
+		resource1.block("rollback", release);
+		RecordingSynchronization synchronization = begin(resource1, resource2);
+
+		CompletableFuture<Void> completion = transactionManager.rollbackAsync().toCompletableFuture();
+		assertNull(transactionManager.getTransaction());
+		assertFalse(completion.isDone());
+
+		release.countDown();
+		completion.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("start", "end", "rollback"), resource1.getCalls());
+		assertEquals(Arrays.asList("start", "end", "rollback"), resource2.getCalls());
+		assertEquals(Status.STATUS_ROLLEDBACK, synchronization.status);
+	}
+
+	@Test
+	public void testSaturatedPoolRunsTheStepsInTheCaller() throws Exception {
+		// the only completion thread waits for the prepare of the first transaction
+		FakeXAResource blocked = new FakeXAResource("async-test-blocked");
+		blocked.block("prepare", release);
+		begin(blocked, new FakeXAResource("async-test-2"));
+		CompletableFuture<Void> first = transactionManager.commitAsync().toCompletableFuture();
+		assertTrue(blocked.awaitBlocked("prepare", 5000));
+		// the second one takes the only place in the queue
+		begin(new FakeXAResource("async-test-3"), new FakeXAResource("async-test-4"));
+		CompletableFuture<Void> second = transactionManager.commitAsync().toCompletableFuture();
+
+		FakeXAResource resource5 = new FakeXAResource("async-test-5");
+		begin(resource5, new FakeXAResource("async-test-6"));
+		CompletableFuture<Void> third = transactionManager.commitAsync().toCompletableFuture();
+		assertTrue(third.isDone());
+		assertSame(Thread.currentThread(), resource5.getCallThread("prepare"));
+		assertFalse(second.isDone());
+
+		release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		second.get(5, TimeUnit.SECONDS);
+		third.get();
+	}
+
+	private RecordingSynchronization begin(FakeXAResource... resources) throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+		for (FakeXAResource resource : resources) {
+			transaction.enlistResource(resource);
+		}
+		RecordingSynchronization synchronization = new RecordingSynchronization();
+		transaction.registerSynchronization(synchronization);
+		return synchronization;
+	}
+
+	private static class RecordingSynchronization implements Synchronization {
+		private volatile int status = -1;
+
+		public void beforeCompletion() {
+		}
+
+		public void afterCompletion(int status) {
+			this.status = status;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.tricon.tm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Starts the transaction manager of a test with a few settings changed from tricon-tm-test.properties. The
+ * configuration is only read when the services are created, so the transaction manager must be shut down
+ * before reset() is called.
+ */
+public final class TestConfiguration {
+	private static final String CONFIGURATION_PROPERTY = "tricon.tm.configuration";
+	private static String baseConfiguration;
+
+	private TestConfiguration() {
+	}
+
+	/**
+	 * @param settings key and value of every setting to change
+	 */
+	public static TriconTransactionManager start(String... settings) throws IOException {
+		if (baseConfiguration == null) {
+			baseConfiguration = System.getProperty(CONFIGURATION_PROPERTY);
+		}
+		Properties properties = new Properties();
+		if (baseConfiguration != null) {
+			InputStream inputStream = new FileInputStream(baseConfiguration);
+			try {
+				properties.load(inputStream);
+			} finally {
+				inputStream.close();
+			}
+		}
+		for (int i = 0; i + 1 < settings.length; i += 2) {
+			properties.setProperty(settings[i], settings[i + 1]);
+		}
+		File file = File.createTempFile("tricon-tm-test", ".properties");
+		file.deleteOnExit();
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			properties.store(outputStream, null);
+		} finally {
+			outputStream.close();
+		}
+		System.setProperty(CONFIGURATION_PROPERTY, file.getAbsolutePath());
+		return TriconTransactionManagerServices.getTransactionManager();
+	}
+
+	/**
+	 * Shuts the transaction manager down and restores tricon-tm-test.properties.
+	 */
+	public static void stop() {
+		TriconTransactionManagerServices.getTransactionManager().shutdown();
+		if (baseConfiguration != null) {
+			System.setProperty(CONFIGURATION_PROPERTY, baseConfiguration);
+		} else {
+			System.clearProperty(CONFIGURATION_PROPERTY);
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.tricon.tm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Transactions whose timeout expires, the timeout task being run by the test instead of the scheduler.
+ */
+public class TimeoutPolicyTest {
+	private TriconTransactionManager transactionManager;
+	private final FakeXAResource resource1 = new FakeXAResource("timeout-test-1");
+	private final FakeXAResource resource2 = new FakeXAResource("timeout-test-2");
+
+	@After
+	public void tearDown() {
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testMarkPolicyRollsBackOnCommit() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.timeoutPolicy", "mark");
+		TransactionImpl transaction = begin();
+
+		transaction.timeoutExpired();
+		assertEquals(Status.STATUS_MARKED_ROLLBACK, transaction.getStatus());
+		assertFalse(transaction.isRolledBackOnTimeout());
+		// nothing happens until the application completes the transaction
+		assertEquals(Arrays.asList("start"), resource1.getCalls());
+
+		try {
+			transactionManager.commit();
+			fail("commit must fail once the timeout expired");
+		} catch (RollbackException ex) {
+			// expected
+		}
+		assertEquals(Arrays.asList("start", "end", "rollback"), resource1.getCalls());
+		assertEquals(Arrays.asList("start", "end", "rollback"), resource2.getCalls());
+	}
+
+	@Test
+	public void testRollbackPolicyEndsTheBranchesRightAway() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.timeoutPolicy", "rollback");
+		TransactionImpl transaction = begin();
+
+		transaction.timeoutExpired();
+		assertTrue(transaction.isRolledBackOnTimeout());
+		assertTrue(resource1.awaitCalls("rollback", 1, 5000));
+		assertTrue(resource2.awaitCalls("rollback", 1, 5000));
+		assertEquals(Arrays.asList("start", "end", "rollback"), resource1.getCalls());
+
+		// closing a connection of the rolled back transaction does not fail
+		assertFalse(transaction.delistResource(resource1, XAResource.TMSUCCESS));
+		try {
+			transactionManager.commit();
+			fail("commit must fail once the transaction was rolled back on timeout");
+		} catch (RollbackException ex) {
+			// expected
+		}
+		assertEquals(1, resource1.countCalls("end"));
+		assertEquals(1, resource1.countCalls("rollback"));
+	}
+
+	@Test
+	public void testEnlistmentWaitsForTheTimeoutRollback() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.timeoutPolicy", "rollback");
+		final TransactionImpl transaction = begin();
+		CountDownLatch release = new CountDownLatch(1);
+		resource1.block("end", release);
+
+		transaction.timeoutExpired();
+		// the timeout rollback is ending resource1, the application enlists another resource meanwhile
+		assertTrue(resource1.awaitBlocked("end", 5000));
+		final FakeXAResource resource3 = new FakeXAResource("timeout-test-3");
+		final AtomicReference<Exception> enlistFailure = new AtomicReference<Exception>();
+		Thread owner = new Thread(new Runnable() {
+			public void run() {
+				try {
+					transaction.enlistResource(resource3);
+				} catch (Exception ex) {
+					enlistFailure.set(ex);
+				}
+			}
+		});
+		owner.start();
+		owner.join(200);
+		assertTrue(owner.isAlive());
+
+		release.countDown();
+		owner.join(5000);
+		assertFalse(owner.isAlive());
+		assertTrue(enlistFailure.get() instanceof RollbackException);
+		// the branch of resource3 was never started, so it cannot be left behind by the rollback
+		assertTrue(resource3.getCalls().isEmpty());
+		assertTrue(resource2.awaitCalls("rollback", 1, 5000));
+		transactionManager.rollback();
+	}
+
+	private TransactionImpl begin() throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+		transaction.enlistResource(resource1);
+		transaction.enlistResource(resource2);
+		return transaction;
+	}
+
+}
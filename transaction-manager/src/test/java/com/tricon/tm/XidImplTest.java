@@ -0,0 +1,146 @@
+package com.tricon.tm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+public class XidImplTest {
+	private static final byte[] GTRID = { 1, 2, 3, 4, 5, 6, 7, 8 };
+	private static final byte[] BQUAL = { 9, 10, 11, 12 };
+
+	@Test
+	public void testEqualContentIsEqual() {
+		XidImpl xid = new XidImpl(GTRID, BQUAL);
+		XidImpl copy = new XidImpl(GTRID.clone(), BQUAL.clone());
+
+		assertEquals(xid, copy);
+		assertEquals(xid.hashCode(), copy.hashCode());
+		assertEquals(xid.getFingerprint(), copy.getFingerprint());
+		assertEquals(XidImpl.TRICON_FORMAT_ID, xid.getFormatId());
+	}
+
+	@Test
+	public void testEveryComponentTakesPart() {
+		XidImpl xid = new XidImpl(GTRID, BQUAL);
+		byte[] otherBqual = BQUAL.clone();
+		otherBqual[otherBqual.length - 1]++;
+
+		assertNotEquals(xid, new XidImpl(XidImpl.TRICON_COMPACT_FORMAT_ID, GTRID, BQUAL));
+		assertNotEquals(xid, new XidImpl(GTRID, otherBqual));
+		assertNotEquals(xid, new XidImpl(BQUAL, GTRID));
+		assertNotEquals(xid.getFingerprint(), new XidImpl(GTRID, otherBqual).getFingerprint());
+		// the boundary between gtrid and bqual matters, not only their concatenation
+		assertNotEquals(new XidImpl(new byte[] { 1, 2 }, new byte[] { 3 }), new XidImpl(new byte[] { 1 },
+				new byte[] { 2, 3 }));
+		assertNotEquals(new XidImpl(new byte[] { 1, 2 }, new byte[] { 3 }).getFingerprint(), new XidImpl(
+				new byte[] { 1 }, new byte[] { 2, 3 }).getFingerprint());
+	}
+
+	@Test
+	public void testOnlyEqualToXidImpl() {
+		final XidImpl xid = new XidImpl(GTRID, BQUAL);
+		Xid other = new Xid() {
+			public int getFormatId() {
+				return xid.getFormatId();
+			}
+
+			public byte[] getGlobalTransactionId() {
+				return xid.getGlobalTransactionId();
+			}
+
+			public byte[] getBranchQualifier() {
+				return xid.getBranchQualifier();
+			}
+		};
+
+		assertFalse(xid.equals(other));
+		assertFalse(xid.equals(null));
+		assertTrue(xid.equals(new XidImpl(xid.getFormatId(), other.getGlobalTransactionId(),
+				other.getBranchQualifier())));
+	}
+
+	@Test
+	public void testNullComponents() {
+		XidImpl xid = new XidImpl(GTRID, null);
+
+		assertEquals(xid, new XidImpl(GTRID, null));
+		assertNotEquals(xid, new XidImpl(GTRID, new byte[0]));
+	}
+
+	@Test
+	public void testSerializationRestoresTheFingerprint() throws Exception {
+		XidImpl xid = new XidImpl(XidImpl.TRICON_COMPACT_FORMAT_ID, GTRID, BQUAL);
+
+		XidImpl deserialized = (XidImpl) deserialize(serialize(xid));
+		assertEquals(xid.getFingerprint(), deserialized.getFingerprint());
+		assertEquals(xid, deserialized);
+		assertEquals(xid.hashCode(), deserialized.hashCode());
+		assertEquals(xid.toString(), deserialized.toString());
+	}
+
+	@Test
+	public void testManyXidsAsHashKeys() {
+		Map<XidImpl, Integer> xids = new HashMap<XidImpl, Integer>();
+		for (int i = 0; i < 10000; i++) {
+			xids.put(new XidImpl(GTRID, bqual(i)), Integer.valueOf(i));
+		}
+		assertEquals(10000, xids.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(Integer.valueOf(i), xids.get(new XidImpl(GTRID, bqual(i))));
+		}
+	}
+
+	@Test
+	public void testSyncTransactionKeyEquality() throws Exception {
+		SyncTransactionKey key = new SyncTransactionKey(GTRID);
+		SyncTransactionKey copy = new SyncTransactionKey(GTRID.clone());
+
+		assertEquals(key, copy);
+		assertEquals(key.hashCode(), copy.hashCode());
+		assertNotEquals(key, new SyncTransactionKey(BQUAL));
+
+		SyncTransactionKey deserialized = (SyncTransactionKey) deserialize(serialize(key));
+		assertEquals(key.getFingerprint(), deserialized.getFingerprint());
+		assertEquals(key, deserialized);
+
+		Set<SyncTransactionKey> keys = new HashSet<SyncTransactionKey>();
+		keys.add(key);
+		assertTrue(keys.contains(deserialized));
+	}
+
+	private static byte[] bqual(int i) {
+		return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+	}
+
+	private static byte[] serialize(Object object) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws Exception {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.tricon.tm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+import com.tricon.tm.internal.exception.TriconSystemException;
+import com.tricon.tm.util.XidUtil;
+
+public class CircuitBreakerTest {
+	private static final int FAILURE_THRESHOLD = 3;
+	private static final long OPEN_DURATION = 100;
+
+	@Test
+	public void testOpensAfterConsecutiveFailures() {
+		CircuitBreaker circuitBreaker = createCircuitBreaker();
+		for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+			assertTrue(circuitBreaker.allowRequest());
+			circuitBreaker.recordFailure();
+		}
+		assertFalse(circuitBreaker.isOpen());
+
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.recordFailure();
+		assertTrue(circuitBreaker.isOpen());
+		assertEquals(FAILURE_THRESHOLD, circuitBreaker.getConsecutiveFailures());
+		assertFalse(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void testSuccessResetsTheFailures() {
+		CircuitBreaker circuitBreaker = createCircuitBreaker();
+		for (int i = 0; i < 10; i++) {
+			circuitBreaker.recordFailure();
+			circuitBreaker.recordFailure();
+			circuitBreaker.recordSuccess();
+		}
+		assertFalse(circuitBreaker.isOpen());
+		assertEquals(0, circuitBreaker.getConsecutiveFailures());
+	}
+
+	@Test
+	public void testSuccessfulProbeClosesTheBreaker() throws InterruptedException {
+		CircuitBreaker circuitBreaker = openCircuitBreaker();
+		Thread.sleep(OPEN_DURATION + 20);
+
+		// half-open, a single probe goes through
+		assertTrue(circuitBreaker.allowRequest());
+		assertFalse(circuitBreaker.allowRequest());
+		assertTrue(circuitBreaker.isOpen());
+
+		circuitBreaker.recordSuccess();
+		assertFalse(circuitBreaker.isOpen());
+		assertEquals(0, circuitBreaker.getConsecutiveFailures());
+		assertTrue(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void testFailedProbeOpensTheBreakerAgain() throws InterruptedException {
+		CircuitBreaker circuitBreaker = openCircuitBreaker();
+		Thread.sleep(OPEN_DURATION + 20);
+
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.recordFailure();
+		assertTrue(circuitBreaker.isOpen());
+		// the open duration starts over from the failed probe
+		assertFalse(circuitBreaker.allowRequest());
+
+		Thread.sleep(OPEN_DURATION + 20);
+		assertTrue(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void testSingleProbeAmongConcurrentRequests() throws InterruptedException {
+		final CircuitBreaker circuitBreaker = openCircuitBreaker();
+		Thread.sleep(OPEN_DURATION + 20);
+
+		final AtomicInteger allowed = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					if (circuitBreaker.allowRequest()) {
+						allowed.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, allowed.get());
+	}
+
+	@Test
+	public void testUnreachableResourceManagerFailsEnlistmentsAtOnce() throws Exception {
+		FailingXAResource xaResource = new FailingXAResource(new XAException(XAException.XAER_RMFAIL));
+		int threshold = enlistUntilOpen(xaResource);
+
+		int calls = xaResource.startCalls;
+		assertEquals(threshold, calls);
+		try {
+			enlist(xaResource);
+			fail("expected the enlistment to be refused");
+		} catch (XAException ex) {
+			assertEquals(XAException.XAER_RMFAIL, ex.errorCode);
+		}
+		assertEquals(calls, xaResource.startCalls);
+	}
+
+	@Test
+	public void testRuntimeFailuresOfTheDriverOpenTheBreaker() throws Exception {
+		FailingXAResource xaResource = new FailingXAResource(new IllegalStateException("connection reset"));
+		int threshold = enlistUntilOpen(xaResource);
+
+		assertEquals(threshold, xaResource.startCalls);
+	}
+
+	@Test
+	public void testOtherXAErrorsKeepTheBreakerClosed() throws Exception {
+		FailingXAResource xaResource = new FailingXAResource(new XAException(XAException.XAER_PROTO));
+		for (int i = 0; i < 20; i++) {
+			try {
+				enlist(xaResource);
+				fail("expected XAER_PROTO");
+			} catch (XAException ex) {
+				assertEquals(XAException.XAER_PROTO, ex.errorCode);
+			}
+		}
+		assertEquals(20, xaResource.startCalls);
+	}
+
+	private static CircuitBreaker createCircuitBreaker() {
+		return new CircuitBreaker(new ResourceManager(1, null), FAILURE_THRESHOLD, OPEN_DURATION);
+	}
+
+	private static CircuitBreaker openCircuitBreaker() {
+		CircuitBreaker circuitBreaker = createCircuitBreaker();
+		for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+			circuitBreaker.recordFailure();
+		}
+		assertTrue(circuitBreaker.isOpen());
+		return circuitBreaker;
+	}
+
+	/**
+	 * Enlists the resource until its circuit breaker opens, returns the number of enlistments it took.
+	 */
+	private static int enlistUntilOpen(XAResource xaResource) throws TriconSystemException {
+		XAResourceInfo xaResourceInfo = null;
+		for (int i = 1; i <= 100; i++) {
+			xaResourceInfo = new XAResourceInfo(xaResource);
+			try {
+				enlist(xaResourceInfo);
+				fail("expected the start to fail");
+			} catch (XAException ex) {
+				// expected
+			} catch (RuntimeException ex) {
+				// expected
+			}
+			if (xaResourceInfo.getResourceManager().getCircuitBreaker().isOpen()) {
+				return i;
+			}
+		}
+		fail("circuit breaker did not open: " + xaResourceInfo.getResourceManager().getCircuitBreaker());
+		return -1;
+	}
+
+	private static void enlist(XAResource xaResource) throws XAException, TriconSystemException {
+		enlist(new XAResourceInfo(xaResource));
+	}
+
+	private static void enlist(XAResourceInfo xaResourceInfo) throws XAException, TriconSystemException {
+		new XAResourceManager(XidUtil.generateUniqueXidDataComponent()).enlist(xaResourceInfo);
+	}
+
+	/**
+	 * Resource manager of its own, failing every start() with the given exception.
+	 */
+	private static class FailingXAResource implements XAResource {
+		private final Exception failure;
+		private int startCalls;
+
+		FailingXAResource(Exception failure) {
+			this.failure = failure;
+		}
+
+		public void start(Xid xid, int flags) throws XAException {
+			startCalls++;
+			if (failure instanceof XAException) {
+				throw (XAException) failure;
+			}
+			throw (RuntimeException) failure;
+		}
+
+		public void end(Xid xid, int flags) throws XAException {
+		}
+
+		public int prepare(Xid xid) throws XAException {
+			return XA_OK;
+		}
+
+		public void commit(Xid xid, boolean onePhase) throws XAException {
+		}
+
+		public void rollback(Xid xid) throws XAException {
+		}
+
+		public void forget(Xid xid) throws XAException {
+		}
+
+		public Xid[] recover(int flag) throws XAException {
+			return new Xid[0];
+		}
+
+		public int getTransactionTimeout() throws XAException {
+			return 0;
+		}
+
+		public boolean setTransactionTimeout(int seconds) throws XAException {
+			return true;
+		}
+
+		public boolean isSameRM(XAResource xaResource) throws XAException {
+			return xaResource == this;
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package com.tricon.tm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+
+public class ResourceManagerIdentifierTest {
+	private static final int FAILURE_THRESHOLD = 2;
+
+	private ResourceManagerIdentifier identifier;
+
+	@Before
+	public void setUp() throws Exception {
+		TestConfiguration.start("tricon.tm.resourceManager.maxCount", "2",
+				"tricon.tm.resourceManager.maxCachedResources", "3",
+				"tricon.tm.circuitBreaker.failureThreshold", String.valueOf(FAILURE_THRESHOLD));
+		identifier = new ResourceManagerIdentifier();
+	}
+
+	@After
+	public void tearDown() {
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testResourcesAreComparedByIdentity() {
+		EqualXAResource first = new EqualXAResource("identity-test-1");
+		EqualXAResource second = new EqualXAResource("identity-test-2");
+		assertTrue(first.equals(second));
+
+		ResourceManager resourceManager = identifier.identify(first);
+		assertNotSame(resourceManager, identifier.identify(second));
+		assertSame(resourceManager, identifier.identify(first));
+		assertEquals(2, identifier.getCachedResourceCount());
+	}
+
+	@Test
+	public void testKnownResourceIsNotCompared() {
+		EqualXAResource first = new EqualXAResource("cache-test");
+		EqualXAResource second = new EqualXAResource("cache-test");
+		ResourceManager resourceManager = identifier.identify(first);
+
+		assertSame(resourceManager, identifier.identify(second));
+		assertEquals(1, second.sameRMCalls);
+		for (int i = 0; i < 10; i++) {
+			assertSame(resourceManager, identifier.identify(second));
+		}
+		assertEquals(1, second.sameRMCalls);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedResourceIsForgotten() {
+		EqualXAResource[] xaResources = new EqualXAResource[4];
+		for (int i = 0; i < xaResources.length; i++) {
+			xaResources[i] = new EqualXAResource("lru-test");
+		}
+		for (int i = 0; i < 3; i++) {
+			identifier.identify(xaResources[i]);
+		}
+		// the first resource is used again, the second becomes the eldest
+		identifier.identify(xaResources[0]);
+		identifier.identify(xaResources[3]);
+		assertEquals(3, identifier.getCachedResourceCount());
+
+		int calls = xaResources[0].sameRMCalls;
+		identifier.identify(xaResources[0]);
+		assertEquals(calls, xaResources[0].sameRMCalls);
+		calls = xaResources[1].sameRMCalls;
+		identifier.identify(xaResources[1]);
+		assertEquals(calls + 1, xaResources[1].sameRMCalls);
+	}
+
+	@Test
+	public void testCollectedResourceIsForgotten() throws InterruptedException {
+		EqualXAResource representative = new EqualXAResource("gc-test");
+		identifier.identify(new EqualXAResource("gc-test"));
+		// the last resource identified is the one kept by the resource manager
+		identifier.identify(representative);
+		assertEquals(2, identifier.getCachedResourceCount());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (identifier.getCachedResourceCount() > 1) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertSame(identifier.identify(representative), identifier.getResourceManagers().get(0));
+	}
+
+	@Test
+	public void testEvictedResourceManagerKeepsItsCircuitBreaker() {
+		ResourceManager failing = identifier.identify(new EqualXAResource("failing"));
+		for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+			failing.getCircuitBreaker().recordFailure();
+		}
+		assertTrue(failing.getCircuitBreaker().isOpen());
+		ResourceManager healthy = identifier.identify(new EqualXAResource("healthy"));
+
+		// a third resource manager evicts the least recently used ones
+		identifier.identify(new EqualXAResource("other-1"));
+		assertTrue(failing.isEvicted());
+		assertEquals(1, identifier.getRetiredResourceManagerCount());
+		identifier.identify(new EqualXAResource("other-2"));
+		assertTrue(healthy.isEvicted());
+		assertEquals(1, identifier.getRetiredResourceManagerCount());
+
+		ResourceManager readmitted = identifier.identify(new EqualXAResource("failing"));
+		assertSame(failing, readmitted);
+		assertFalse(readmitted.isEvicted());
+		assertTrue(readmitted.getCircuitBreaker().isOpen());
+		assertEquals(0, identifier.getRetiredResourceManagerCount());
+		// a healthy resource manager starts over
+		assertNotSame(healthy, identifier.identify(new EqualXAResource("healthy")));
+	}
+
+	/**
+	 * Resource whose driver considers every other connection equal, counting its isSameRM() calls.
+	 */
+	private static class EqualXAResource extends FakeXAResource {
+		private int sameRMCalls;
+
+		EqualXAResource(String name) {
+			super(name);
+		}
+
+		@Override
+		public boolean isSameRM(XAResource xaResource) throws XAException {
+			sameRMCalls++;
+			return super.isSameRM(xaResource);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof EqualXAResource;
+		}
+
+		@Override
+		public int hashCode() {
+			return 1;
+		}
+	}
+
+}
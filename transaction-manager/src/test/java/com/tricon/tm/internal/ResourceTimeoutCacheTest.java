@@ -0,0 +1,167 @@
+package com.tricon.tm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+public class ResourceTimeoutCacheTest {
+
+	@Test
+	public void testResourcesAreComparedByIdentity() {
+		ResourceTimeoutCache cache = new ResourceTimeoutCache(true);
+		CountingXAResource first = new CountingXAResource();
+		CountingXAResource second = new CountingXAResource();
+		assertTrue(first.equals(second));
+
+		cache.applied(first, 60);
+		assertTrue(cache.isApplied(first, 60, 60));
+		assertFalse(cache.isApplied(second, 60, 60));
+		cache.applied(second, 30);
+		assertEquals(2, cache.size());
+		assertTrue(cache.isApplied(first, 60, 60));
+	}
+
+	@Test
+	public void testAppliedTimeoutMustLieWithinBounds() {
+		ResourceTimeoutCache cache = new ResourceTimeoutCache(true);
+		CountingXAResource xaResource = new CountingXAResource();
+		cache.applied(xaResource, 60);
+
+		assertTrue(cache.isApplied(xaResource, 59, 60));
+		assertTrue(cache.isApplied(xaResource, 60, 61));
+		assertFalse(cache.isApplied(xaResource, 61, 90));
+		assertFalse(cache.isApplied(xaResource, 30, 59));
+	}
+
+	@Test
+	public void testDisabledCacheNeverHits() {
+		ResourceTimeoutCache cache = new ResourceTimeoutCache(false);
+		CountingXAResource xaResource = new CountingXAResource();
+		cache.applied(xaResource, 60);
+
+		assertFalse(cache.isApplied(xaResource, 60, 60));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testPooledConnectionsGetTheTimeoutOnce() throws XAException {
+		List<CountingXAResource> pool = new ArrayList<CountingXAResource>();
+		for (int i = 0; i < 4; i++) {
+			pool.add(new CountingXAResource());
+		}
+		for (int i = 0; i < 1000; i++) {
+			CountingXAResource xaResource = pool.get(i % pool.size());
+			start(xaResource, TimeUnit.SECONDS.toNanos(60), 60);
+		}
+
+		int calls = 0;
+		for (CountingXAResource xaResource : pool) {
+			calls += xaResource.timeoutCalls;
+		}
+		assertEquals(4, calls);
+	}
+
+	@Test
+	public void testLateEnlistmentKeepsTheAppliedTimeout() throws XAException {
+		CountingXAResource xaResource = new CountingXAResource();
+		start(xaResource, TimeUnit.SECONDS.toNanos(60), 60);
+		// enlisted a second and a half into the next 60 seconds transaction, 59 seconds remain
+		start(xaResource, TimeUnit.MILLISECONDS.toNanos(58500), 60);
+
+		assertEquals(1, xaResource.timeoutCalls);
+		assertEquals(60, xaResource.timeout);
+	}
+
+	@Test
+	public void testLongerTransactionAppliesItsTimeout() throws XAException {
+		CountingXAResource xaResource = new CountingXAResource();
+		start(xaResource, TimeUnit.SECONDS.toNanos(30), 30);
+		start(xaResource, TimeUnit.SECONDS.toNanos(60), 60);
+
+		assertEquals(2, xaResource.timeoutCalls);
+		assertEquals(60, xaResource.timeout);
+	}
+
+	private static void start(XAResource xaResource, long remainingNanos, int transactionTimeout) throws XAException {
+		XAResourceInfo xaResourceInfo = new XAResourceInfo(xaResource, null,
+				Long.valueOf(System.nanoTime() + remainingNanos));
+		xaResourceInfo.setTransactionTimeout(transactionTimeout);
+		xaResourceInfo.start(XAResource.TMNOFLAGS);
+	}
+
+	/**
+	 * Counts the setTransactionTimeout() calls, equal to any other instance as some drivers' connections are.
+	 */
+	private static class CountingXAResource implements XAResource {
+		private int timeoutCalls;
+		private int timeout;
+
+		@Override
+		public boolean setTransactionTimeout(int seconds) throws XAException {
+			timeoutCalls++;
+			timeout = seconds;
+			return true;
+		}
+
+		@Override
+		public int getTransactionTimeout() throws XAException {
+			return timeout;
+		}
+
+		@Override
+		public void start(Xid xid, int flags) throws XAException {
+		}
+
+		@Override
+		public void end(Xid xid, int flags) throws XAException {
+		}
+
+		@Override
+		public int prepare(Xid xid) throws XAException {
+			return XA_OK;
+		}
+
+		@Override
+		public void commit(Xid xid, boolean onePhase) throws XAException {
+		}
+
+		@Override
+		public void rollback(Xid xid) throws XAException {
+		}
+
+		@Override
+		public void forget(Xid xid) throws XAException {
+		}
+
+		@Override
+		public Xid[] recover(int flag) throws XAException {
+			return new Xid[0];
+		}
+
+		@Override
+		public boolean isSameRM(XAResource xaResource) throws XAException {
+			return xaResource instanceof CountingXAResource;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CountingXAResource;
+		}
+
+		@Override
+		public int hashCode() {
+			return 1;
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.tricon.tm.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.SyncTransactionKey;
+
+
+public class DiskJournalTest {
+	private static final byte[] GTRID_1 = { 1, 1, 1, 1 };
+	private static final byte[] GTRID_2 = { 2, 2, 2, 2 };
+	private static final byte[] GTRID_3 = { 3, 3, 3, 3 };
+	private static final List<byte[]> BRANCH_QUALIFIERS = Arrays.asList(new byte[] { 1 }, new byte[] { 2 });
+	private static final List<String> RESOURCE_NAMES = Arrays.asList("resource-1", "resource-2");
+
+	private File directory;
+	private DiskJournal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("tricon-tm-journal").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (journal != null) {
+			journal.close();
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testDanglingRecordsSurviveReopen() throws IOException {
+		journal = open(1024 * 1024);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.log(Status.STATUS_COMMITTED, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+
+		journal = open(1024 * 1024);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(1, danglingRecords.size());
+		JournalRecord record = danglingRecords.get(new SyncTransactionKey(GTRID_2));
+		assertEquals(Status.STATUS_COMMITTING, record.getStatus());
+		assertEquals(RESOURCE_NAMES, record.getResourceNames());
+	}
+
+	@Test
+	public void testCorruptedTailIsDropped() throws IOException {
+		journal = open(1024 * 1024);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+		journal = null;
+
+		// a crash in the middle of the next record leaves half of it behind
+		File file = new File(directory, "tricon-tm1.tlog");
+		long validLength = file.length();
+		JournalRecord torn = new JournalRecord(Status.STATUS_COMMITTED, System.currentTimeMillis(), GTRID_1,
+				BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		ByteBuffer buffer = ByteBuffer.allocate(torn.getEncodedLength());
+		torn.encode(buffer);
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.seek(validLength);
+			randomAccessFile.write(buffer.array(), 0, buffer.capacity() / 2);
+		} finally {
+			randomAccessFile.close();
+		}
+
+		journal = open(1024 * 1024);
+		assertEquals(validLength, file.length());
+		assertTrue(journal.collectDanglingRecords().containsKey(new SyncTransactionKey(GTRID_1)));
+
+		// the records appended after the dropped tail are read back
+		journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.log(Status.STATUS_COMMITTED, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+		journal = open(1024 * 1024);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(1, danglingRecords.size());
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_2)));
+	}
+
+	@Test
+	public void testRolloverCarriesDanglingRecords() throws IOException {
+		int recordLength = new JournalRecord(Status.STATUS_COMMITTING, 0L, GTRID_1, BRANCH_QUALIFIERS,
+				RESOURCE_NAMES).getEncodedLength();
+		// room for the header and a few records only
+		journal = open(DiskJournal.HEADER_LENGTH + 4 * recordLength);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		for (int i = 0; i < 10; i++) {
+			journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+			journal.log(Status.STATUS_COMMITTED, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		}
+		journal.log(Status.STATUS_COMMITTING, GTRID_3, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+
+		journal = open(DiskJournal.HEADER_LENGTH + 4 * recordLength);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(2, danglingRecords.size());
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_1)));
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_3)));
+	}
+
+	@Test
+	public void testLowerMaxFileSizeKeepsTheRecords() throws IOException {
+		journal = open(1024 * 1024);
+		for (int i = 0; i < 10; i++) {
+			journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+			journal.log(Status.STATUS_COMMITTED, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		}
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+		File file = new File(directory, "tricon-tm1.tlog");
+		long length = file.length();
+
+		int recordLength = new JournalRecord(Status.STATUS_COMMITTING, 0L, GTRID_1, BRANCH_QUALIFIERS,
+				RESOURCE_NAMES).getEncodedLength();
+		long maxFileSize = DiskJournal.HEADER_LENGTH + 4 * recordLength;
+		journal = open(maxFileSize);
+		// the whole file is replayed, nothing is truncated
+		assertEquals(length, file.length());
+		assertTrue(journal.collectDanglingRecords().containsKey(new SyncTransactionKey(GTRID_1)));
+
+		// the next append rolls over to a file of the new size
+		journal.log(Status.STATUS_COMMITTING, GTRID_3, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+		assertTrue(new File(directory, "tricon-tm2.tlog").length() <= maxFileSize);
+		journal = open(maxFileSize);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(2, danglingRecords.size());
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_1)));
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_3)));
+	}
+
+	private DiskJournal open(long maxFileSize) throws IOException {
+		DiskJournal diskJournal = new DiskJournal(directory, maxFileSize, false);
+		diskJournal.open();
+		return diskJournal;
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.tricon.tm.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.transaction.Status;
+
+import org.junit.Test;
+
+public class JournalRecordTest {
+	private static final byte[] GTRID = { 1, 2, 3, 4 };
+	private static final byte[] BQUAL_1 = { 5, 6 };
+	private static final byte[] BQUAL_2 = { 7, 8, 9 };
+
+	@Test
+	public void testEncodeDecodeRoundTrip() {
+		JournalRecord record = new JournalRecord(Status.STATUS_COMMITTING, 123456789L, GTRID,
+				Arrays.asList(BQUAL_1, BQUAL_2), Arrays.asList("resource-1", (String) null));
+		ByteBuffer buffer = encode(record);
+
+		JournalRecord decoded = JournalRecord.decode(buffer);
+		assertNotNull(decoded);
+		assertEquals(record.getEncodedLength(), buffer.position());
+		assertEquals(Status.STATUS_COMMITTING, decoded.getStatus());
+		assertEquals(123456789L, decoded.getTime());
+		assertArrayEquals(GTRID, decoded.getGlobalTransactionId());
+		assertEquals(2, decoded.getBranchQualifiers().size());
+		assertArrayEquals(BQUAL_1, decoded.getBranchQualifiers().get(0));
+		assertArrayEquals(BQUAL_2, decoded.getBranchQualifiers().get(1));
+		assertEquals(Arrays.asList("resource-1", null), decoded.getResourceNames());
+	}
+
+	@Test
+	public void testRecordWithoutBranches() {
+		JournalRecord record = new JournalRecord(Status.STATUS_COMMITTED, 1L, GTRID,
+				Collections.<byte[]> emptyList(), Collections.<String> emptyList());
+
+		JournalRecord decoded = JournalRecord.decode(encode(record));
+		assertNotNull(decoded);
+		assertEquals(Status.STATUS_COMMITTED, decoded.getStatus());
+		assertEquals(0, decoded.getBranchQualifiers().size());
+	}
+
+	@Test
+	public void testDecodingStopsAtZeroedSpace() {
+		JournalRecord first = committing(GTRID);
+		JournalRecord second = committing(BQUAL_2);
+		ByteBuffer buffer = ByteBuffer.allocate(first.getEncodedLength() + second.getEncodedLength() + 64);
+		first.encode(buffer);
+		second.encode(buffer);
+		buffer.clear();
+
+		assertNotNull(JournalRecord.decode(buffer));
+		assertNotNull(JournalRecord.decode(buffer));
+		int end = buffer.position();
+		assertNull(JournalRecord.decode(buffer));
+		assertEquals(end, buffer.position());
+	}
+
+	@Test
+	public void testTornRecordIsNotDecoded() {
+		JournalRecord record = committing(GTRID);
+		ByteBuffer buffer = encode(record);
+		buffer.limit(record.getEncodedLength() - 1);
+
+		assertNull(JournalRecord.decode(buffer));
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void testCorruptedRecordIsNotDecoded() {
+		ByteBuffer buffer = encode(committing(GTRID));
+		// first byte of the gtrid, after record length, status, time and gtrid length
+		int offset = 4 + 4 + 8 + 4;
+		buffer.put(offset, (byte) (buffer.get(offset) ^ 0xff));
+
+		assertNull(JournalRecord.decode(buffer));
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void testInvalidLengthIsNotDecoded() {
+		ByteBuffer buffer = encode(committing(GTRID));
+		buffer.putInt(0, Integer.MAX_VALUE);
+
+		assertNull(JournalRecord.decode(buffer));
+		assertEquals(0, buffer.position());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResourceNamesMustMatchBranches() {
+		new JournalRecord(Status.STATUS_COMMITTING, 1L, GTRID, Arrays.asList(BQUAL_1, BQUAL_2),
+				Arrays.asList("resource-1"));
+	}
+
+	private static JournalRecord committing(byte[] globalTransactionId) {
+		return new JournalRecord(Status.STATUS_COMMITTING, System.currentTimeMillis(), globalTransactionId,
+				Arrays.asList(BQUAL_1), Arrays.asList("resource-1"));
+	}
+
+	private static ByteBuffer encode(JournalRecord record) {
+		ByteBuffer buffer = ByteBuffer.allocate(record.getEncodedLength());
+		record.encode(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+}
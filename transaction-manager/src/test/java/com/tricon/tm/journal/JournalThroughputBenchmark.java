@@ -0,0 +1,143 @@
+package com.tricon.tm.journal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.transaction.Status;
+
+/**
+ * Compares the transactions per second of DiskJournal, MappedJournal and a plain RandomAccessFile synced on every
+ * commit decision. Each transaction logs a forced COMMITTING record and a COMMITTED record, as a two-phase commit
+ * with a journaled decision does. Not a unit test, run it by hand against the disk to measure:
+ * 
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:&lt;slf4j-api and jta jars&gt; \
+ *     com.tricon.tm.journal.JournalThroughputBenchmark &lt;directory&gt; [threads] [transactions per thread]
+ * </pre>
+ * 
+ * The files are created in the given directory, which is emptied before each run. Every run is preceded by a
+ * warm-up of a quarter of the transactions.
+ */
+public class JournalThroughputBenchmark {
+	private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final List<byte[]> BRANCH_QUALIFIERS = Arrays.asList(new byte[64], new byte[64]);
+	private static final List<String> RESOURCE_NAMES = Arrays.asList("resource-1", "resource-2");
+
+	private interface Writer {
+		void logTransaction(byte[] globalTransactionId) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: JournalThroughputBenchmark <directory> [threads] [transactions per thread]");
+			System.exit(1);
+		}
+		File directory = new File(args[0]);
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int transactions = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+		clean(directory);
+		DiskJournal diskJournal = new DiskJournal(directory, SEGMENT_SIZE, true);
+		diskJournal.open();
+		double disk = measure(journalWriter(diskJournal), threads, transactions);
+		diskJournal.close();
+
+		clean(directory);
+		MappedJournal mappedJournal = new MappedJournal(directory, SEGMENT_SIZE, 4, true);
+		mappedJournal.open();
+		double mapped = measure(journalWriter(mappedJournal), threads, transactions);
+		mappedJournal.close();
+
+		clean(directory);
+		directory.mkdirs();
+		RandomAccessFile file = new RandomAccessFile(new File(directory, "plain.tlog"), "rw");
+		double plain = measure(plainWriter(file), threads, transactions);
+		file.close();
+		clean(directory);
+
+		System.out.println(String.format("threads=%d  disk=%.0f tx/s  mapped=%.0f tx/s  plain RandomAccessFile=%.0f tx/s",
+				threads, disk, mapped, plain));
+	}
+
+	private static Writer journalWriter(final Journal journal) {
+		return new Writer() {
+			public void logTransaction(byte[] globalTransactionId) throws Exception {
+				journal.log(Status.STATUS_COMMITTING, globalTransactionId, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+				journal.force();
+				journal.log(Status.STATUS_COMMITTED, globalTransactionId, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+			}
+		};
+	}
+
+	private static Writer plainWriter(final RandomAccessFile file) {
+		return new Writer() {
+			public void logTransaction(byte[] globalTransactionId) throws Exception {
+				synchronized (file) {
+					write(file, new JournalRecord(Status.STATUS_COMMITTING, System.currentTimeMillis(),
+							globalTransactionId, BRANCH_QUALIFIERS, RESOURCE_NAMES));
+					file.getFD().sync();
+					write(file, new JournalRecord(Status.STATUS_COMMITTED, System.currentTimeMillis(),
+							globalTransactionId, BRANCH_QUALIFIERS, RESOURCE_NAMES));
+				}
+			}
+		};
+	}
+
+	private static void write(RandomAccessFile file, JournalRecord record) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(record.getEncodedLength());
+		record.encode(buffer);
+		file.write(buffer.array());
+	}
+
+	private static double measure(Writer writer, int threads, int transactions) throws Exception {
+		run(writer, threads, transactions / 4, 0);
+		long start = System.nanoTime();
+		run(writer, threads, transactions, transactions / 4);
+		return threads * (double) transactions / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private static void run(final Writer writer, int threads, final int transactions, final int firstTransaction)
+			throws Exception {
+		final Exception[] failure = new Exception[1];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int thread = i;
+			workers[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = firstTransaction; j < firstTransaction + transactions; j++) {
+							byte[] globalTransactionId = new byte[64];
+							ByteBuffer.wrap(globalTransactionId).putInt(thread).putInt(j);
+							writer.logTransaction(globalTransactionId);
+						}
+					} catch (Exception ex) {
+						synchronized (failure) {
+							failure[0] = ex;
+						}
+					}
+				}
+			};
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	private static void clean(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+}
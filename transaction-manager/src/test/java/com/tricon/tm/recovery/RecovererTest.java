@@ -0,0 +1,254 @@
+package com.tricon.tm.recovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.SyncTransactionKey;
+import com.tricon.tm.TriconTransactionManagerServices;
+import com.tricon.tm.XidImpl;
+import com.tricon.tm.journal.JournalRecord;
+import com.tricon.tm.util.XidUtil;
+
+/**
+ * Runs the recovery against the journal configured by tricon-tm-test.properties and two fake resource managers.
+ */
+public class RecovererTest {
+	private Recoverer recoverer;
+	private FakeResource resource1;
+	private FakeResource resource2;
+
+	@Before
+	public void setUp() {
+		TriconTransactionManagerServices.getTransactionManager();
+		recoverer = TriconTransactionManagerServices.getRecoverer();
+		resource1 = new FakeResource("recoverer-test-1");
+		resource2 = new FakeResource("recoverer-test-2");
+	}
+
+	@After
+	public void tearDown() {
+		recoverer.unregisterResource(resource1.getUniqueName());
+		recoverer.unregisterResource(resource2.getUniqueName());
+		TriconTransactionManagerServices.getTransactionManager().shutdown();
+	}
+
+	@Test
+	public void testBranchesWithoutCommitDecisionAreRolledBack() throws Exception {
+		byte[] globalTransactionId = XidUtil.generateUniqueXidDataComponent();
+		XidImpl xid1 = resource1.prepare(globalTransactionId);
+		XidImpl xid2 = resource2.prepare(globalTransactionId);
+		// not generated by this transaction manager, left alone
+		XidImpl foreignXid = new XidImpl(0x1234, new byte[] { 1, 2, 3 }, new byte[] { 4 });
+		resource2.prepared.add(foreignXid);
+
+		register(resource1);
+		register(resource2);
+		recover();
+
+		assertEquals(Arrays.asList("rollback " + xid1), resource1.calls);
+		assertEquals(Arrays.asList("rollback " + xid2), resource2.calls);
+		assertEquals(Arrays.<Xid> asList(foreignXid), resource2.prepared);
+		assertEquals(2, recoverer.getRolledbackCount());
+		assertEquals(0, recoverer.getCommittedCount());
+	}
+
+	@Test
+	public void testCommitDecisionIsReplayedOnEveryResource() throws Exception {
+		byte[] globalTransactionId = XidUtil.generateUniqueXidDataComponent();
+		XidImpl xid1 = resource1.prepare(globalTransactionId);
+		XidImpl xid2 = resource2.prepare(globalTransactionId);
+		logCommitDecision(xid1, xid2);
+
+		register(resource1);
+		register(resource2);
+		recover();
+
+		assertEquals(Arrays.asList("commit " + xid1), resource1.calls);
+		assertEquals(Arrays.asList("commit " + xid2), resource2.calls);
+		assertEquals(2, recoverer.getCommittedCount());
+		assertFalse(isDangling(globalTransactionId));
+	}
+
+	@Test
+	public void testRecordStaysOpenUntilEveryResourceIsRecovered() throws Exception {
+		byte[] globalTransactionId = XidUtil.generateUniqueXidDataComponent();
+		XidImpl xid1 = resource1.prepare(globalTransactionId);
+		XidImpl xid2 = resource2.prepare(globalTransactionId);
+		logCommitDecision(xid1, xid2);
+
+		register(resource1);
+		recover();
+		assertEquals(Arrays.asList("commit " + xid1), resource1.calls);
+		// the second resource still has to learn the decision, a presumed abort would roll it back
+		assertTrue(isDangling(globalTransactionId));
+
+		register(resource2);
+		recover();
+		assertEquals(Arrays.asList("commit " + xid2), resource2.calls);
+		assertFalse(isDangling(globalTransactionId));
+	}
+
+	@Test
+	public void testRecordStaysOpenWhileAResourceFails() throws Exception {
+		byte[] globalTransactionId = XidUtil.generateUniqueXidDataComponent();
+		XidImpl xid1 = resource1.prepare(globalTransactionId);
+		XidImpl xid2 = resource2.prepare(globalTransactionId);
+		logCommitDecision(xid1, xid2);
+		resource2.unavailable = true;
+
+		register(resource1);
+		register(resource2);
+		recover();
+		assertEquals(Arrays.asList("commit " + xid1), resource1.calls);
+		assertTrue(isDangling(globalTransactionId));
+
+		resource2.unavailable = false;
+		recover();
+		assertEquals(Arrays.asList("commit " + xid2), resource2.calls);
+		assertFalse(isDangling(globalTransactionId));
+	}
+
+	@Test
+	public void testLastResourceDoesNotKeepTheRecordOpen() throws Exception {
+		byte[] globalTransactionId = XidUtil.generateUniqueXidDataComponent();
+		XidImpl xid1 = resource1.prepare(globalTransactionId);
+		TriconTransactionManagerServices.getJournal().log(Status.STATUS_COMMITTING, globalTransactionId,
+				Arrays.asList(xid1.getBranchQualifier(), JournalRecord.LAST_RESOURCE_BRANCH_QUALIFIER),
+				Arrays.asList(resource1.getUniqueName(), "last-resource"));
+
+		register(resource1);
+		recover();
+
+		assertEquals(Arrays.asList("commit " + xid1), resource1.calls);
+		assertFalse(isDangling(globalTransactionId));
+	}
+
+	private void register(FakeResource resource) {
+		recoverer.registerResource(resource);
+	}
+
+	/**
+	 * Runs the recovery, or waits for the one scheduled by a registration if it is already running.
+	 */
+	private void recover() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		recoverer.run();
+		Date lastRunDate = recoverer.getLastRunDate();
+		while (lastRunDate == null || lastRunDate.getTime() < start) {
+			Thread.sleep(10);
+			lastRunDate = recoverer.getLastRunDate();
+		}
+	}
+
+	private void logCommitDecision(XidImpl xid1, XidImpl xid2) throws Exception {
+		TriconTransactionManagerServices.getJournal().log(Status.STATUS_COMMITTING, xid1.getGlobalTransactionId(),
+				Arrays.asList(xid1.getBranchQualifier(), xid2.getBranchQualifier()),
+				Arrays.asList(resource1.getUniqueName(), resource2.getUniqueName()));
+		TriconTransactionManagerServices.getJournal().force();
+	}
+
+	private static boolean isDangling(byte[] globalTransactionId) throws Exception {
+		return TriconTransactionManagerServices.getJournal().collectDanglingRecords().containsKey(
+				new SyncTransactionKey(globalTransactionId));
+	}
+
+	/**
+	 * Resource manager holding prepared branches in memory, recording the commit and rollback calls.
+	 */
+	private static class FakeResource implements RecoverableResource, XAResource {
+		private final String uniqueName;
+		private final List<Xid> prepared = new ArrayList<Xid>();
+		private final List<String> calls = new ArrayList<String>();
+		private volatile boolean unavailable;
+
+		FakeResource(String uniqueName) {
+			this.uniqueName = uniqueName;
+		}
+
+		synchronized XidImpl prepare(byte[] globalTransactionId) {
+			XidImpl xid = new XidImpl(TriconTransactionManagerServices.getXidFactory().getFormatId(),
+					globalTransactionId, XidUtil.generateUniqueXidDataComponent());
+			prepared.add(xid);
+			return xid;
+		}
+
+		public String getUniqueName() {
+			return uniqueName;
+		}
+
+		public XAResource getXAResource() {
+			return this;
+		}
+
+		public void release() {
+		}
+
+		public synchronized Xid[] recover(int flag) throws XAException {
+			if (unavailable) {
+				throw new XAException(XAException.XAER_RMFAIL);
+			}
+			return flag == TMSTARTRSCAN ? prepared.toArray(new Xid[prepared.size()]) : new Xid[0];
+		}
+
+		public synchronized void commit(Xid xid, boolean onePhase) throws XAException {
+			complete("commit", xid);
+		}
+
+		public synchronized void rollback(Xid xid) throws XAException {
+			complete("rollback", xid);
+		}
+
+		private void complete(String call, Xid xid) throws XAException {
+			if (!prepared.remove(xid)) {
+				throw new XAException(XAException.XAER_NOTA);
+			}
+			calls.add(call + " " + xid);
+		}
+
+		public void forget(Xid xid) throws XAException {
+		}
+
+		public void start(Xid xid, int flags) throws XAException {
+		}
+
+		public void end(Xid xid, int flags) throws XAException {
+		}
+
+		public int prepare(Xid xid) throws XAException {
+			return XA_OK;
+		}
+
+		public int getTransactionTimeout() throws XAException {
+			return 0;
+		}
+
+		public boolean setTransactionTimeout(int seconds) throws XAException {
+			return false;
+		}
+
+		public boolean isSameRM(XAResource xaResource) throws XAException {
+			return xaResource == this;
+		}
+
+		@Override
+		public String toString() {
+			return uniqueName;
+		}
+	}
+
+}
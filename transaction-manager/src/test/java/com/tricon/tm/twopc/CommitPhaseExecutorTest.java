@@ -0,0 +1,139 @@
+package com.tricon.tm.twopc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManager;
+import com.tricon.tm.TriconTransactionManagerServices;
+
+/**
+ * Phase 2 going on in the background once the commit decision is durable, with tricon.tm.2pc.asyncCommit.
+ */
+public class CommitPhaseExecutorTest {
+	private TriconTransactionManager transactionManager;
+	private final CountDownLatch release = new CountDownLatch(1);
+	private FakeXAResource resource1;
+	private FakeXAResource resource2;
+
+	@Before
+	public void setUp() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.asyncCommit", "true");
+		resource1 = new FakeXAResource("commit-test-1").register();
+		resource2 = new FakeXAResource("commit-test-2").register();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		resource1.unregister();
+		resource2.unregister();
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testBackgroundCommitDefersAfterCompletion() throws Exception {
+		resource2.block("commit", release);
+		RecordingSynchronization synchronization = new RecordingSynchronization();
+		TransactionImpl transaction = begin(synchronization);
+
+		transactionManager.commit();
+
+		assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+		assertTrue(getCommitPhaseExecutor().getBackgroundCommitKeys().contains(transaction.getSyncTransactionkey()));
+		// the connections of the branches still committing are not handed back yet
+		assertEquals(0, synchronization.calls);
+		assertTrue(isDangling(transaction));
+
+		release.countDown();
+		synchronization.await();
+		assertEquals(1, synchronization.calls);
+		assertEquals(Status.STATUS_COMMITTED, synchronization.status);
+		assertEquals(1, resource2.countCalls("commit"));
+		assertEquals(0, getCommitPhaseExecutor().getBackgroundCommitCount());
+		assertFalse(isDangling(transaction));
+	}
+
+	@Test
+	public void testRecoveryKeepsOffBackgroundCommits() throws Exception {
+		resource2.block("commit", release);
+		RecordingSynchronization synchronization = new RecordingSynchronization();
+		TransactionImpl transaction = begin(synchronization);
+		transactionManager.commit();
+
+		TriconTransactionManagerServices.getRecoverer().run();
+		release.countDown();
+		synchronization.await();
+
+		// recovery found the prepared branch but left it to the background commit
+		assertEquals(1, resource2.countCalls("commit"));
+		assertEquals(0, resource2.getPreparedCount());
+		assertFalse(isDangling(transaction));
+	}
+
+	@Test
+	public void testSinglePreparedResourceIsNotCommittedInTheBackground() throws Exception {
+		// no commit decision is logged for a single prepared resource, the caller has to wait for it
+		resource1.setVote(XAResource.XA_RDONLY);
+		RecordingSynchronization synchronization = new RecordingSynchronization();
+		begin(synchronization);
+
+		transactionManager.commit();
+
+		assertEquals(1, synchronization.calls);
+		assertEquals(1, resource2.countCalls("commit"));
+		assertEquals(0, getCommitPhaseExecutor().getBackgroundCommitCount());
+	}
+
+	private TransactionImpl begin(Synchronization synchronization) throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+		transaction.enlistResource(resource1);
+		transaction.enlistResource(resource2);
+		transaction.registerSynchronization(synchronization);
+		return transaction;
+	}
+
+	private static CommitPhaseExecutor getCommitPhaseExecutor() {
+		return TriconTransactionManagerServices.getCommitPhaseExecutor();
+	}
+
+	private static boolean isDangling(TransactionImpl transaction) throws Exception {
+		return TriconTransactionManagerServices.getJournal().collectDanglingRecords().containsKey(
+				transaction.getSyncTransactionkey());
+	}
+
+	private static class RecordingSynchronization implements Synchronization {
+		private final CountDownLatch completed = new CountDownLatch(1);
+		private volatile int calls;
+		private volatile int status = -1;
+
+		public void beforeCompletion() {
+		}
+
+		public void afterCompletion(int status) {
+			this.status = status;
+			calls++;
+			completed.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue(completed.await(5, TimeUnit.SECONDS));
+		}
+	}
+
+}
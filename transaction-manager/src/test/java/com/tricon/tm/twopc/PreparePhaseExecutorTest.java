@@ -0,0 +1,133 @@
+package com.tricon.tm.twopc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import javax.transaction.RollbackException;
+import javax.transaction.xa.XAException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManager;
+
+/**
+ * Failing votes ending the prepare phase without waiting for the branches still preparing.
+ */
+public class PreparePhaseExecutorTest {
+	private TriconTransactionManager transactionManager;
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "bounded");
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testFailingVoteAbandonsTheBranchesStillPreparing() throws Exception {
+		FakeXAResource slow = new FakeXAResource("prepare-test-slow");
+		FakeXAResource failing = new FakeXAResource("prepare-test-failing");
+		FakeXAResource last = new FakeXAResource("prepare-test-last");
+		slow.block("prepare", release);
+		// the failing vote comes once the slow branch is preparing, which is then abandoned mid-prepare
+		CountDownLatch slowPreparing = new CountDownLatch(1);
+		failing.block("prepare", slowPreparing);
+		failing.fail("prepare", XAException.XA_RBROLLBACK, 1);
+		releaseWhenBlocked(slow, "prepare", slowPreparing);
+		begin(slow, failing, last);
+
+		commitAndExpectRollback();
+
+		// the last branch is prepared by the committing thread, which is not held up by the slow branch
+		assertSame(Thread.currentThread(), last.getCallThread("prepare"));
+		assertEquals(0, slow.countCalls("prepare"));
+		assertEquals(Arrays.asList("start", "end", "prepare", "rollback"), last.getCalls());
+		assertEquals(1, failing.countCalls("prepare"));
+
+		// the abandoned branch rolls itself back once its prepare returns
+		release.countDown();
+		assertTrue(slow.awaitCalls("rollback", 1, 5000));
+		assertEquals(Arrays.asList("start", "end", "prepare", "rollback"), slow.getCalls());
+		assertEquals(0, slow.getPreparedCount());
+	}
+
+	@Test
+	public void testFailingVoteOfTheCallingThreadAbandonsTheOthers() throws Exception {
+		FakeXAResource slow = new FakeXAResource("prepare-test-slow");
+		FakeXAResource last = new FakeXAResource("prepare-test-last");
+		slow.block("prepare", release);
+		last.fail("prepare", XAException.XAER_RMERR, 1);
+		begin(slow, last);
+
+		commitAndExpectRollback();
+
+		assertEquals(0, slow.countCalls("prepare"));
+		assertEquals(Arrays.asList("start", "end", "prepare", "rollback"), last.getCalls());
+		release.countDown();
+		assertTrue(slow.awaitCalls("rollback", 1, 5000));
+		assertEquals(0, slow.getPreparedCount());
+	}
+
+	@Test
+	public void testSuccessfulVotesAreAllAwaited() throws Exception {
+		FakeXAResource slow = new FakeXAResource("prepare-test-slow");
+		FakeXAResource last = new FakeXAResource("prepare-test-last");
+		CountDownLatch slowRelease = new CountDownLatch(1);
+		slow.block("prepare", slowRelease);
+		begin(slow, last);
+
+		slowRelease.countDown();
+		transactionManager.commit();
+
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), slow.getCalls());
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), last.getCalls());
+	}
+
+	private static void releaseWhenBlocked(final FakeXAResource resource, final String method,
+			final CountDownLatch latch) {
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					resource.awaitBlocked(method, 5000);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} finally {
+					latch.countDown();
+				}
+			}
+		}).start();
+	}
+
+	private void begin(FakeXAResource... resources) throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+		for (FakeXAResource resource : resources) {
+			transaction.enlistResource(resource);
+		}
+	}
+
+	private void commitAndExpectRollback() throws Exception {
+		try {
+			transactionManager.commit();
+			fail("commit must fail when a resource fails to prepare");
+		} catch (RollbackException ex) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.tricon.tm.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.tricon.tm.XidImpl;
+
+public class XidFactoryTest {
+	private static final byte[] TM_VENDOR_NAME = "Tricon".getBytes();
+	private static final byte[] SERVER_ID = "server-1".getBytes();
+
+	@Test
+	public void testStandardLayout() {
+		XidFactory xidFactory = new XidFactory(TM_VENDOR_NAME, SERVER_ID, false, 0);
+		long before = System.currentTimeMillis();
+		byte[] component = xidFactory.generateUniqueXidDataComponent();
+		long after = System.currentTimeMillis();
+
+		byte[] prefix = xidFactory.getGtridPrefix();
+		assertArrayEquals("Triconserver-1".getBytes(), prefix);
+		assertEquals(prefix.length + 16, component.length);
+		assertArrayEquals(prefix, Arrays.copyOf(component, prefix.length));
+		long timestamp = EncodingUtil.convertBytesToLong(component, prefix.length);
+		assertTrue(timestamp >= before && timestamp <= after);
+
+		long sequenceNumber = EncodingUtil.convertBytesToLong(component, prefix.length + 8);
+		byte[] next = xidFactory.generateUniqueXidDataComponent();
+		assertEquals(sequenceNumber + 1, EncodingUtil.convertBytesToLong(next, prefix.length + 8));
+	}
+
+	@Test
+	public void testCompactLayout() {
+		XidFactory xidFactory = new XidFactory(TM_VENDOR_NAME, SERVER_ID, true, 0);
+		byte[] component = xidFactory.generateUniqueXidDataComponent();
+
+		assertEquals(20, component.length);
+		assertArrayEquals(xidFactory.getCompactGtridPrefix(), Arrays.copyOf(component, 4));
+		assertEquals(XidImpl.TRICON_COMPACT_FORMAT_ID, xidFactory.getFormatId());
+
+		XidImpl xid = xidFactory.createXid(component);
+		assertEquals(XidImpl.TRICON_COMPACT_FORMAT_ID, xid.getFormatId());
+		assertEquals(20, xid.getBranchQualifier().length);
+	}
+
+	@Test
+	public void testCompactPrefixDependsOnTheServerId() {
+		XidFactory xidFactory = new XidFactory(TM_VENDOR_NAME, SERVER_ID, true, 0);
+		XidFactory otherXidFactory = new XidFactory(TM_VENDOR_NAME, "server-2".getBytes(), true, 0);
+
+		assertFalse(Arrays.equals(xidFactory.getCompactGtridPrefix(), otherXidFactory.getCompactGtridPrefix()));
+		assertArrayEquals(xidFactory.getCompactGtridPrefix(),
+				new XidFactory(TM_VENDOR_NAME, SERVER_ID, false, 0).getCompactGtridPrefix());
+	}
+
+	@Test
+	public void testRecoveryRecognizesBothLayouts() {
+		XidFactory standard = new XidFactory(TM_VENDOR_NAME, SERVER_ID, false, 0);
+		XidFactory compact = new XidFactory(TM_VENDOR_NAME, SERVER_ID, true, 0);
+		XidFactory otherServer = new XidFactory(TM_VENDOR_NAME, "server-2".getBytes(), true, 0);
+		byte[] gtridPrefix = compact.getGtridPrefix();
+		byte[] compactGtridPrefix = compact.getCompactGtridPrefix();
+
+		XidImpl standardXid = standard.createXid(standard.generateUniqueXidDataComponent());
+		XidImpl compactXid = compact.createXid(compact.generateUniqueXidDataComponent());
+		XidImpl otherServerXid = otherServer.createXid(otherServer.generateUniqueXidDataComponent());
+		// a compact Xid carrying the standard prefix is not one of ours
+		XidImpl foreignXid = new XidImpl(XidImpl.TRICON_COMPACT_FORMAT_ID, standardXid.getGlobalTransactionId(),
+				standardXid.getBranchQualifier());
+
+		assertTrue(XidImpl.isTriconXid(standardXid, gtridPrefix, compactGtridPrefix));
+		assertTrue(XidImpl.isTriconXid(compactXid, gtridPrefix, compactGtridPrefix));
+		assertFalse(XidImpl.isTriconXid(otherServerXid, gtridPrefix, compactGtridPrefix));
+		assertFalse(XidImpl.isTriconXid(foreignXid, gtridPrefix, compactGtridPrefix));
+		assertFalse(XidImpl.isTriconXid(compactXid, gtridPrefix));
+		assertFalse(XidImpl.isTriconXid(null, gtridPrefix, compactGtridPrefix));
+	}
+
+	@Test
+	public void testSequenceBlocksStayUnique() throws InterruptedException {
+		final XidFactory xidFactory = new XidFactory(TM_VENDOR_NAME, SERVER_ID, true, 64);
+		final Set<String> components = ConcurrentHashMap.newKeySet();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						components.add(EncodingUtil.convertBytesToHex(xidFactory.generateUniqueXidDataComponent()));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(40000, components.size());
+	}
+
+}
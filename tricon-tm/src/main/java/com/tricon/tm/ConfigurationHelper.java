@@ -26,6 +26,37 @@ public class ConfigurationHelper {
 	private boolean asynchronous2pc;
 	private boolean useTMJoin;
 	private int shutdownInterval;
+	private String journal;
+	private String journalDirectory;
+	private int journalMaxFileSizeInMB;
+	private int journalSegmentCount;
+	private boolean forcedWriteEnabled;
+	private int recoveryInterval;
+	private int recoveryParallelism;
+	private int timerTickDuration;
+	private String jobExecutor;
+	private int jobExecutorMaxThreads;
+	private int completionMaxThreads;
+	private int completionMaxQueued;
+	private int prepareTimeout;
+	private int commitTimeout;
+	private int rollbackTimeout;
+	private boolean asyncCommit;
+	private int retryInitialDelay;
+	private int retryMaxDelay;
+	private int retryMaxAttempts;
+	private int retryMaxConcurrentPerResource;
+	private String timeoutPolicy;
+	private int bulkheadMaxConcurrent;
+	private int bulkheadMaxQueued;
+	private int circuitBreakerFailureThreshold;
+	private int circuitBreakerOpenDuration;
+	private int resourceManagerMaxCount;
+	private int resourceManagerMaxCachedResources;
+	private boolean resourceTimeoutCacheEnabled;
+	private int xidSequenceBlockSize;
+	private boolean xidCompact;
+	private int timerWheelSize;
 
 	private byte[] tmVendorNameByteArray;
 	private byte[] serverIdByteArray;
@@ -41,6 +72,37 @@ public class ConfigurationHelper {
 			asynchronous2pc = getBoolean(properties, "tricon.tm.isAsynchronous2pc", false);
 			useTMJoin = getBoolean(properties, "tricon.tm.useTMJoin", false);
 			shutdownInterval = getInt(properties, "tricon.tm.shutdown.interval", 10);
+			journal = getString(properties, "tricon.tm.journal", "disk");
+			journalDirectory = getString(properties, "tricon.tm.journal.directory", "tricon-tm-journal");
+			journalMaxFileSizeInMB = getInt(properties, "tricon.tm.journal.maxFileSizeInMB", 16);
+			journalSegmentCount = getInt(properties, "tricon.tm.journal.segmentCount", 4);
+			forcedWriteEnabled = getBoolean(properties, "tricon.tm.journal.forcedWriteEnabled", true);
+			recoveryInterval = getInt(properties, "tricon.tm.recovery.interval", 60);
+			recoveryParallelism = getInt(properties, "tricon.tm.recovery.parallelism", 8);
+			timerTickDuration = getInt(properties, "tricon.tm.timer.tickDuration", 10);
+			timerWheelSize = getInt(properties, "tricon.tm.timer.wheelSize", 512);
+			jobExecutor = getString(properties, "tricon.tm.2pc.executor", asynchronous2pc ? "bounded" : "single");
+			jobExecutorMaxThreads = getInt(properties, "tricon.tm.2pc.executor.maxThreads", 64);
+			completionMaxThreads = getInt(properties, "tricon.tm.completion.maxThreads", 64);
+			completionMaxQueued = getInt(properties, "tricon.tm.completion.maxQueued", 1024);
+			prepareTimeout = getInt(properties, "tricon.tm.2pc.prepareTimeout", 60);
+			commitTimeout = getInt(properties, "tricon.tm.2pc.commitTimeout", 0);
+			rollbackTimeout = getInt(properties, "tricon.tm.2pc.rollbackTimeout", 0);
+			asyncCommit = getBoolean(properties, "tricon.tm.2pc.asyncCommit", false);
+			retryInitialDelay = getInt(properties, "tricon.tm.retry.initialDelay", 200);
+			retryMaxDelay = getInt(properties, "tricon.tm.retry.maxDelay", 30000);
+			retryMaxAttempts = getInt(properties, "tricon.tm.retry.maxAttempts", 10);
+			retryMaxConcurrentPerResource = getInt(properties, "tricon.tm.retry.maxConcurrentPerResource", 4);
+			timeoutPolicy = getString(properties, "tricon.tm.timeoutPolicy", "mark");
+			bulkheadMaxConcurrent = getInt(properties, "tricon.tm.2pc.bulkhead.maxConcurrent", 16);
+			bulkheadMaxQueued = getInt(properties, "tricon.tm.2pc.bulkhead.maxQueued", 256);
+			circuitBreakerFailureThreshold = getInt(properties, "tricon.tm.circuitBreaker.failureThreshold", 5);
+			circuitBreakerOpenDuration = getInt(properties, "tricon.tm.circuitBreaker.openDuration", 5000);
+			resourceManagerMaxCount = getInt(properties, "tricon.tm.resourceManager.maxCount", 64);
+			resourceManagerMaxCachedResources = getInt(properties, "tricon.tm.resourceManager.maxCachedResources", 1024);
+			resourceTimeoutCacheEnabled = getBoolean(properties, "tricon.tm.resourceTimeout.cache", true);
+			xidSequenceBlockSize = getInt(properties, "tricon.tm.xid.sequenceBlockSize", 0);
+			xidCompact = getBoolean(properties, "tricon.tm.xid.compact", false);
 			logger.debug("Loaded transaction configurations{}", ".");
 
 		} catch (Exception ex) {
@@ -116,6 +178,200 @@ public class ConfigurationHelper {
 		return shutdownInterval;
 	}
 
+	public String getJournal() {
+		return journal;
+	}
+
+	public String getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	public int getJournalMaxFileSizeInMB() {
+		return journalMaxFileSizeInMB;
+	}
+
+	public int getJournalSegmentCount() {
+		return journalSegmentCount;
+	}
+
+	public boolean isForcedWriteEnabled() {
+		return forcedWriteEnabled;
+	}
+
+	public int getRecoveryInterval() {
+		return recoveryInterval;
+	}
+
+	public int getRecoveryParallelism() {
+		return recoveryParallelism;
+	}
+
+	public int getTimerTickDuration() {
+		return timerTickDuration;
+	}
+
+	public int getTimerWheelSize() {
+		return timerWheelSize;
+	}
+
+	/**
+	 * Executor of the two-phase commit jobs: virtual, bounded, single or caller. Without a setting, bounded when
+	 * 2pc is asynchronous, otherwise single: one thread running the jobs of all transactions in turn.
+	 */
+	public String getJobExecutor() {
+		return jobExecutor;
+	}
+
+	public int getJobExecutorMaxThreads() {
+		return jobExecutorMaxThreads;
+	}
+
+	/**
+	 * Threads running commitAsync() and rollbackAsync(), each one is held for the whole 2PC of a transaction.
+	 */
+	public int getCompletionMaxThreads() {
+		return completionMaxThreads;
+	}
+
+	/**
+	 * Steps of commitAsync() and rollbackAsync() allowed to wait for a completion thread, further ones run in the
+	 * thread submitting them.
+	 */
+	public int getCompletionMaxQueued() {
+		return completionMaxQueued;
+	}
+
+	/**
+	 * Seconds to wait for all resources to answer prepare, 0 waits without deadline.
+	 */
+	public int getPrepareTimeout() {
+		return prepareTimeout;
+	}
+
+	/**
+	 * Seconds to wait for all resources to answer commit, 0 waits without deadline.
+	 */
+	public int getCommitTimeout() {
+		return commitTimeout;
+	}
+
+	/**
+	 * Seconds to wait for all resources to answer rollback, 0 waits without deadline.
+	 */
+	public int getRollbackTimeout() {
+		return rollbackTimeout;
+	}
+
+	/**
+	 * When true, commit() returns once the commit decision is journaled and phase 2 runs in the background.
+	 */
+	public boolean isAsyncCommit() {
+		return asyncCommit;
+	}
+
+	/**
+	 * Milliseconds before the first retry of a branch failing transiently in phase 2, doubled on every attempt.
+	 */
+	public int getRetryInitialDelay() {
+		return retryInitialDelay;
+	}
+
+	/**
+	 * Upper bound in milliseconds of the backoff between two retries of a branch.
+	 */
+	public int getRetryMaxDelay() {
+		return retryMaxDelay;
+	}
+
+	/**
+	 * Retries of a branch before its transaction is left to recovery.
+	 */
+	public int getRetryMaxAttempts() {
+		return retryMaxAttempts;
+	}
+
+	/**
+	 * Retries allowed to run at once against one resource.
+	 */
+	public int getRetryMaxConcurrentPerResource() {
+		return retryMaxConcurrentPerResource;
+	}
+
+	/**
+	 * What happens to a transaction when its timeout expires: "mark" only marks it for rollback, "rollback" ends
+	 * its branches with TMFAIL and rolls it back right away.
+	 */
+	public String getTimeoutPolicy() {
+		return timeoutPolicy;
+	}
+
+	/**
+	 * 2pc jobs allowed to run at once against one resource manager, 0 disables the bulkheads.
+	 */
+	public int getBulkheadMaxConcurrent() {
+		return bulkheadMaxConcurrent;
+	}
+
+	/**
+	 * 2pc jobs allowed to wait for a resource manager whose bulkhead is full, further jobs are rejected.
+	 */
+	public int getBulkheadMaxQueued() {
+		return bulkheadMaxQueued;
+	}
+
+	/**
+	 * Consecutive XAER_RMFAIL on start() after which enlistment in a resource manager fails without calling it,
+	 * 0 disables the circuit breakers.
+	 */
+	public int getCircuitBreakerFailureThreshold() {
+		return circuitBreakerFailureThreshold;
+	}
+
+	/**
+	 * Milliseconds an open circuit breaker waits before letting one enlistment probe the resource manager.
+	 */
+	public int getCircuitBreakerOpenDuration() {
+		return circuitBreakerOpenDuration;
+	}
+
+	/**
+	 * Resource managers new XAResources are compared against with isSameRM(), the least recently used is
+	 * forgotten beyond that.
+	 */
+	public int getResourceManagerMaxCount() {
+		return resourceManagerMaxCount;
+	}
+
+	/**
+	 * XAResources whose resource manager is remembered, so enlisting them again costs no isSameRM() call.
+	 */
+	public int getResourceManagerMaxCachedResources() {
+		return resourceManagerMaxCachedResources;
+	}
+
+	/**
+	 * When true, setTransactionTimeout() is skipped on a resource already given the same timeout.
+	 */
+	public boolean isResourceTimeoutCacheEnabled() {
+		return resourceTimeoutCacheEnabled;
+	}
+
+	/**
+	 * Xid sequence numbers each thread reserves at once, 0 or 1 takes every number from the shared counter.
+	 */
+	public int getXidSequenceBlockSize() {
+		return xidSequenceBlockSize;
+	}
+
+	/**
+	 * When true, gtrids and bquals are 20 bytes (a 4 bytes hash of TM vendor name and server id, timestamp and
+	 * sequence number) instead of carrying the full server id. Server ids of transaction managers sharing a
+	 * resource manager must then hash to different values, otherwise their recoveries see each other's Xids.
+	 */
+	public boolean isXidCompact() {
+		return xidCompact;
+	}
+
 	public byte[] buildTMVendorNameByteArray() {
 		// 6 bytes
 		if (tmVendorNameByteArray == null) {
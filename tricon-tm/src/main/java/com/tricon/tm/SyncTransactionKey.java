@@ -1,29 +1,35 @@
 package com.tricon.tm;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 
 import com.tricon.tm.util.EncodingUtil;
+import com.tricon.tm.util.XidUtil;
 
 public class SyncTransactionKey implements Serializable {
 	private static final long serialVersionUID = -7175830375492153165L;
 
 	private byte[] globalTransactionId;
+	private transient long fingerprint;
 
 	public SyncTransactionKey(byte[] globalTransactionId) {
 		this.globalTransactionId = globalTransactionId;
+		this.fingerprint = XidUtil.fingerprint(0, globalTransactionId);
 	}
 
 	public byte[] getGlobalTransactionId() {
 		return globalTransactionId;
 	}
 
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + Arrays.hashCode(globalTransactionId);
-		return result;
+		return (int) (fingerprint ^ (fingerprint >>> 32));
 	}
 
 	@Override
@@ -32,7 +38,13 @@ public class SyncTransactionKey implements Serializable {
 			return false;
 		}
 		SyncTransactionKey syncTransKey2 = (SyncTransactionKey) obj2;
-		return Arrays.equals(globalTransactionId, syncTransKey2.getGlobalTransactionId());
+		return fingerprint == syncTransKey2.fingerprint
+				&& Arrays.equals(globalTransactionId, syncTransKey2.getGlobalTransactionId());
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		fingerprint = XidUtil.fingerprint(0, globalTransactionId);
 	}
 
 	@Override
@@ -1,13 +1,22 @@
 package com.tricon.tm;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.transaction.HeuristicCommitException;
 import javax.transaction.HeuristicMixedException;
@@ -29,11 +38,12 @@ import com.tricon.tm.internal.exception.TriconXAException;
 import com.tricon.tm.internal.XAResourceHelper;
 import com.tricon.tm.internal.XAResourceInfo;
 import com.tricon.tm.internal.XAResourceManager;
+import com.tricon.tm.journal.Journal;
+import com.tricon.tm.journal.JournalRecord;
+import com.tricon.tm.resource.LastResource;
+import com.tricon.tm.timer.TaskHandle;
 import com.tricon.tm.timer.TransactionTimeoutTask;
-import com.tricon.tm.twopc.CommitPhaseExecutor;
 import com.tricon.tm.twopc.PhaseException;
-import com.tricon.tm.twopc.PreparePhaseExecutor;
-import com.tricon.tm.twopc.RollbackPhaseExecutor;
 import com.tricon.tm.util.DecodingUtil;
 import com.tricon.tm.util.EncodingUtil;
 import com.tricon.tm.util.XidUtil;
@@ -41,6 +51,10 @@ import com.tricon.tm.util.XidUtil;
 public class TransactionImpl implements Transaction {
 	private static Logger logger = LoggerFactory.getLogger(TransactionImpl.class);
 
+	private static final int COMPLETED_BY_NONE = 0;
+	private static final int COMPLETED_BY_APPLICATION = 1;
+	private static final int COMPLETED_BY_TIMEOUT = 2;
+
 	private byte[] globalTransacationId;
 	private XAResourceManager xaResourceManager;
 	private SyncTransactionKey syncTransactionkey;
@@ -49,13 +63,28 @@ public class TransactionImpl implements Transaction {
 	private volatile int status = Status.STATUS_NO_TRANSACTION;
 	private Date startDate;
 	private Date timeoutDate;
-	private boolean timeoutExpired = false;
+	private int timeoutInSeconds;
+	// Same instant as timeoutDate on the System.nanoTime() clock, which wall clock changes do not move
+	private long timeoutDeadline;
+	private TaskHandle timeoutTaskHandle;
+	private volatile boolean timeoutExpired = false;
+	// Who ends the transaction, the application or the timeout policy rolling it back on its behalf
+	private final AtomicInteger completedBy = new AtomicInteger(COMPLETED_BY_NONE);
+	// Set before completedBy switches to COMPLETED_BY_TIMEOUT
+	private volatile CompletableFuture<Void> timeoutRollback;
+	// Branches whose commit decision is in the journal, null while nothing is journaled (presumed abort)
+	private List<XAResourceInfo> journaledResources;
+	// True once the COMMITTING record of journaledResources is durable
+	private boolean commitDecisionLogged;
+	// Non-XA participant committed between the two phases (last resource commit optimization)
+	private LastResource lastResource;
+	// True while phase 2 goes on in the background, the afterCompletion synchronizations then run at its end
+	private volatile boolean afterCompletionDeferred;
 
 	private final List synchronizationList = Collections.synchronizedList(new ArrayList());
-
-	private PreparePhaseExecutor preparer = new PreparePhaseExecutor(TriconTransactionManagerServices.getExecutorService());
-	private CommitPhaseExecutor committer = new CommitPhaseExecutor(TriconTransactionManagerServices.getExecutorService());
-	private RollbackPhaseExecutor rollbacker = new RollbackPhaseExecutor(TriconTransactionManagerServices.getExecutorService());
+	// Serializes enlistment and delistment of the application thread with the rollback of the timeout policy,
+	// which runs on a completion thread
+	private final Object resourceLock = new Object();
 
 	public TransactionImpl() {
 		globalTransacationId = XidUtil.generateUniqueXidDataComponent();
@@ -73,6 +102,27 @@ public class TransactionImpl implements Transaction {
 		return xaResourceManager;
 	}
 
+	public boolean isCommitDecisionLogged() {
+		return commitDecisionLogged;
+	}
+
+	public LastResource getLastResource() {
+		return lastResource;
+	}
+
+	/**
+	 * Called when phase 2 goes on in the background once the commit decision is durable. The afterCompletion
+	 * synchronizations return the connections of the branches to their pool, so they must not run before
+	 * invokeDeferredAfterCompletion() is called at the end of phase 2.
+	 */
+	public void deferAfterCompletion() {
+		afterCompletionDeferred = true;
+	}
+
+	public void invokeDeferredAfterCompletion() {
+		invokeSyncronizationAfterCompletion();
+	}
+
 	public SyncTransactionKey getSyncTransactionkey() {
 		return syncTransactionkey;
 	}
@@ -107,35 +157,159 @@ public class TransactionImpl implements Transaction {
 		}
 		setStatusAndLogRecord(Status.STATUS_ACTIVE);
 		startDate = new Date();
+		timeoutInSeconds = timeout;
 		timeoutDate = new Date(System.currentTimeMillis() + (timeout * 1000L));
+		timeoutDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
 
 		scheduleTransactionTimeout();
 	}
 
 	public void timeoutExpired() {
 		timeoutExpired = true;
+		if (!"rollback".equals(TriconTransactionManagerServices.getConfigurationHelper().getTimeoutPolicy())) {
+			setStatus(Status.STATUS_MARKED_ROLLBACK);
+			logger.warn("Timeout expired! Marked transaction {} for rollback", this);
+			return;
+		}
+
+		final CompletableFuture<Void> rollback = new CompletableFuture<Void>();
+		timeoutRollback = rollback;
+		if (!completedBy.compareAndSet(COMPLETED_BY_NONE, COMPLETED_BY_TIMEOUT)) {
+			// commit() checks isTimeoutExpired() before starting 2PC, a started 2PC is left alone
+			logger.warn("Timeout expired while the application completes transaction {}", this);
+			return;
+		}
 		setStatus(Status.STATUS_MARKED_ROLLBACK);
-		logger.warn("Timeout expired! Marked transaction {} for rollback", this);
+		logger.warn("Timeout expired! Rolling back transaction {}", this);
+		try {
+			// Rollback does network round trips, keep it off the scheduler thread
+			TriconTransactionManagerServices.getCompletionExecutorService().execute(new Runnable() {
+				public void run() {
+					try {
+						rollbackOnTimeout();
+					} finally {
+						rollback.complete(null);
+					}
+				}
+			});
+		} catch (RuntimeException ex) {
+			logger.error("Could not submit rollback of timed out transaction {} - ex: ", this, ex);
+			rollback.complete(null);
+		}
+	}
+
+	/**
+	 * Ends the branches still in use by the application with TMFAIL and rolls back the transaction, so the
+	 * resources release their locks without waiting for the application to call commit() or rollback().
+	 */
+	private void rollbackOnTimeout() {
+		synchronized (resourceLock) {
+			try {
+				delistUnclosedResources(XAResource.TMFAIL);
+			} catch (TriconRollbackException ex) {
+				logger.warn("Some resource(s) failed during delistment - ex: ", ex);
+			}
+			try {
+				performRollback();
+				logger.info("Rolled back timed out transaction {}", this);
+			} catch (Exception ex) {
+				logger.error("Rollback of timed out transaction {} failed - ex: ", this, ex);
+			}
+		}
+	}
+
+	public boolean isRolledBackOnTimeout() {
+		return completedBy.get() == COMPLETED_BY_TIMEOUT;
 	}
 
 	public boolean isTimeoutExpired() {
 		return timeoutExpired;
 	}
 
-	private void setStatusAndLogRecord(int status) {
-		// int oldStatus = this.status;
+	public void setStatusAndLogRecord(int status) throws TriconSystemException {
 		this.status = status;
-		logTransactionRecord();
+		// Only the commit decision has to be durable, the outcome records can be lost (presumed abort)
+		logTransactionRecord(status, status == Status.STATUS_COMMITTING);
 	}
 
-	private void logTransactionRecord() {
-		// TODO: Need to implement logging transactional record
+	private void logTransactionRecord(int status, boolean force) throws TriconSystemException {
+		switch (status) {
+			case Status.STATUS_COMMITTING:
+			case Status.STATUS_COMMITTED:
+			case Status.STATUS_ROLLEDBACK:
+				// Presumed abort: only a journaled commit decision needs records, see logCommitDecision()
+				if (journaledResources == null) {
+					return;
+				}
+				break;
+			default:
+				return;
+		}
+		final List<byte[]> branchQualifiers = new ArrayList<byte[]>(journaledResources.size());
+		final List<String> resourceNames = new ArrayList<String>(journaledResources.size());
+		for (XAResourceInfo xaResourceInfo : journaledResources) {
+			if (xaResourceInfo.getXid() != null) {
+				branchQualifiers.add(xaResourceInfo.getXid().getBranchQualifier());
+				resourceNames.add(xaResourceInfo.getUniqueName());
+			}
+		}
+		if (lastResource != null) {
+			// Tells whoever reads a dangling record that a local transaction was committed on the same decision
+			branchQualifiers.add(JournalRecord.LAST_RESOURCE_BRANCH_QUALIFIER);
+			resourceNames.add(lastResource.getName());
+		}
+		try {
+			Journal journal = TriconTransactionManagerServices.getJournal();
+			journal.log(status, globalTransacationId, branchQualifiers, resourceNames);
+			if (force) {
+				journal.force();
+			}
+		} catch (IOException ex) {
+			throw new TriconSystemException("Cannot log " + DecodingUtil.decodeStatus(status)
+					+ " record of transaction " + this, ex);
+		}
 	}
 
 	public boolean enlistResource(XAResource xaResource) throws RollbackException, IllegalStateException, SystemException {
 		logger.debug("Inside enlistResource() - status: {}, isStartedOrFinished: {}, xaResource: {}",
 				new Object[] { DecodingUtil.decodeStatus(status), isStartedOrFinished(), xaResource });
 
+		synchronized (resourceLock) {
+			if (status == Status.STATUS_NO_TRANSACTION) {
+				throw new IllegalStateException("Transaction hasn't started yet");
+			}
+			if (status == Status.STATUS_MARKED_ROLLBACK) {
+				throw new RollbackException("Transaction has been marked as rollback only");
+			}
+			if (isRolledBackOnTimeout()) {
+				throw new TriconRollbackException("Transaction timed out and has been rolled back");
+			}
+			if (isStartedOrFinished()) {
+				throw new IllegalStateException("Transaction started or finished 2PC, cannot enlist any more resource");
+			}
+
+			XAResourceInfo xaResourceInfo = XAResourceHelper.createXAResourceInfo(xaResource, null, Long.valueOf(timeoutDeadline));
+			xaResourceInfo.setTransactionTimeout(timeoutInSeconds);
+			try {
+				xaResourceManager.enlist(xaResourceInfo);
+			} catch (XAException ex) {
+				if (TriconXAException.isUnilateralRollback(ex)) {
+					// Unilateral rollback found, so mark the transaction for rollback only
+					setStatus(Status.STATUS_MARKED_ROLLBACK);
+					throw new TriconRollbackException("Resource " + xaResourceInfo + " unilaterally rolled back, error="
+							+ DecodingUtil.decodeXAExceptionErrorCode(ex), ex);
+				}
+				throw new TriconSystemException("Cannot enlist " + xaResourceInfo + ", error="
+						+ DecodingUtil.decodeXAExceptionErrorCode(ex), ex);
+			}
+			return true;
+		}
+	}
+
+	public void enlistLastResource(LastResource lastResource) throws RollbackException, IllegalStateException, SystemException {
+		logger.debug("Inside enlistLastResource() - status: {}, isStartedOrFinished: {}, lastResource: {}",
+				new Object[] { DecodingUtil.decodeStatus(status), isStartedOrFinished(), lastResource });
+
 		if (status == Status.STATUS_NO_TRANSACTION) {
 			throw new IllegalStateException("Transaction hasn't started yet");
 		}
@@ -145,21 +319,11 @@ public class TransactionImpl implements Transaction {
 		if (isStartedOrFinished()) {
 			throw new IllegalStateException("Transaction started or finished 2PC, cannot enlist any more resource");
 		}
-
-		XAResourceInfo xaResourceInfo = XAResourceHelper.createXAResourceInfo(xaResource, null, timeoutDate);
-		try {
-			xaResourceManager.enlist(xaResourceInfo);
-		} catch (XAException ex) {
-			if (TriconXAException.isUnilateralRollback(ex)) {
-				// Unilateral rollback found, so mark the transaction for rollback only
-				setStatus(Status.STATUS_MARKED_ROLLBACK);
-				throw new TriconRollbackException("Resource " + xaResourceInfo + " unilaterally rolled back, error="
-						+ DecodingUtil.decodeXAExceptionErrorCode(ex), ex);
-			}
-			throw new TriconSystemException("Cannot enlist " + xaResourceInfo + ", error="
-					+ DecodingUtil.decodeXAExceptionErrorCode(ex), ex);
+		if (this.lastResource != null && this.lastResource != lastResource) {
+			throw new IllegalStateException("Transaction has already enlisted the last resource " + this.lastResource
+					+ ", cannot enlist " + lastResource);
 		}
-		return true;
+		this.lastResource = lastResource;
 	}
 
 	public boolean delistResource(XAResource xaResource, int flag) throws IllegalStateException, SystemException {
@@ -167,24 +331,31 @@ public class TransactionImpl implements Transaction {
 				new Object[] { DecodingUtil.decodeStatus(status), isInProgress(), xaResource,
 						DecodingUtil.decodeXAResourceFlag(flag) });
 
-		if (status == Status.STATUS_NO_TRANSACTION) {
-			throw new IllegalStateException("Transaction hasn't started yet");
-		}
-		if (flag != XAResource.TMSUCCESS && flag != XAResource.TMSUSPEND && flag != XAResource.TMFAIL) {
-			throw new TriconSystemException("Can only delist the resource with flag SUCCESS, SUSPEND, FAIL - but it is: "
-					+ DecodingUtil.decodeXAResourceFlag(flag));
-		}
-		if (isInProgress()) {
-			throw new IllegalStateException("Transaction is being committed or rolled back, cannot delist the resource now");
-		}
+		synchronized (resourceLock) {
+			if (status == Status.STATUS_NO_TRANSACTION) {
+				throw new IllegalStateException("Transaction hasn't started yet");
+			}
+			if (isRolledBackOnTimeout() && (status == Status.STATUS_ROLLING_BACK || status == Status.STATUS_ROLLEDBACK)) {
+				// the timeout policy ended the branches already, closing a connection must not fail
+				logger.debug("Transaction rolled back on timeout, ignoring delistment of {}", xaResource);
+				return false;
+			}
+			if (flag != XAResource.TMSUCCESS && flag != XAResource.TMSUSPEND && flag != XAResource.TMFAIL) {
+				throw new TriconSystemException("Can only delist the resource with flag SUCCESS, SUSPEND, FAIL - but it is: "
+						+ DecodingUtil.decodeXAResourceFlag(flag));
+			}
+			if (isInProgress()) {
+				throw new IllegalStateException("Transaction is being committed or rolled back, cannot delist the resource now");
+			}
 
-		XAResourceInfo enlistedXAResourceInfo = xaResourceManager.findEnlistedXAResourceInfo(xaResource);
-		if (enlistedXAResourceInfo == null) {
-			throw new TriconSystemException("Can't delist resource: " + xaResource
-					+ " as it is not enlisted for transaction with gtrid: "
-					+ EncodingUtil.convertBytesToHex(getGlobalTransacationId()));
+			XAResourceInfo enlistedXAResourceInfo = xaResourceManager.findEnlistedXAResourceInfo(xaResource);
+			if (enlistedXAResourceInfo == null) {
+				throw new TriconSystemException("Can't delist resource: " + xaResource
+						+ " as it is not enlisted for transaction with gtrid: "
+						+ EncodingUtil.convertBytesToHex(getGlobalTransacationId()));
+			}
+			return performDelistResource(enlistedXAResourceInfo, flag);
 		}
-		return performDelistResource(enlistedXAResourceInfo, flag);
 	}
 
 	private boolean performDelistResource(XAResourceInfo xaResourceInfo, int flag) throws TriconSystemException {
@@ -212,6 +383,56 @@ public class TransactionImpl implements Transaction {
 		logger.debug("Inside commit() - status: {}, isStartedOrFinished: {}",
 				DecodingUtil.decodeStatus(status), isStartedOrFinished());
 
+		beforeTwoPhaseCommit();
+
+		// Perform two phase commit
+		performTwoPhaseCommit();
+	}
+
+	/**
+	 * Same as commit(), except that only the steps bound to the calling thread (beforeCompletion synchronizations
+	 * and delistment) run before returning. Prepare, commit and the afterCompletion synchronizations run as a
+	 * chain of tasks, the returned stage completes with the outcome of commit(). Each task blocks a completion
+	 * thread while the resources answer, when all of them are busy the tasks may run in the calling thread, see
+	 * TriconTransactionManagerServices.getCompletionExecutorService().
+	 */
+	public CompletionStage<Void> commitAsync() {
+		logger.debug("Inside commitAsync() - status: {}, isStartedOrFinished: {}",
+				DecodingUtil.decodeStatus(status), isStartedOrFinished());
+		final CompletableFuture<Void> completion = new CompletableFuture<Void>();
+		try {
+			beforeTwoPhaseCommit();
+		} catch (Exception ex) {
+			completion.completeExceptionally(ex);
+			return completion;
+		}
+
+		final Executor executor = TriconTransactionManagerServices.getCompletionExecutorService();
+		CompletableFuture.supplyAsync(new Supplier<List<XAResourceInfo>>() {
+			public List<XAResourceInfo> get() {
+				try {
+					return prepareResources();
+				} catch (Exception ex) {
+					throw new CompletionException(ex);
+				}
+			}
+		}, executor).thenAcceptAsync(new Consumer<List<XAResourceInfo>>() {
+			public void accept(List<XAResourceInfo> preparedResources) {
+				try {
+					commitPreparedResources(preparedResources);
+				} catch (Exception ex) {
+					throw new CompletionException(ex);
+				}
+			}
+		}, executor).whenComplete(new CompletionCallback(completion, true));
+		return completion;
+	}
+
+	private void beforeTwoPhaseCommit() throws RollbackException, IllegalStateException, SystemException {
+		if (!claimCompletion()) {
+			awaitTimeoutRollback();
+			throw new TriconRollbackException("Transaction timed out and has been rolled back");
+		}
 		if (status == Status.STATUS_NO_TRANSACTION) {
 			throw new IllegalStateException("Transaction hasn't started yet");
 		}
@@ -246,39 +467,134 @@ public class TransactionImpl implements Transaction {
 			rollback();
 			throw new TriconRollbackException("Transaction was marked as rollback only and has been rolled back");
 		}
-
-		// Perform two phase commit
-		performTwoPhaseCommit();
-
 	}
 
 	private void performTwoPhaseCommit() throws RollbackException, HeuristicMixedException,
 			HeuristicRollbackException, SecurityException, IllegalStateException, SystemException {
 		try {
-			List<XAResourceInfo> preparedResources;
+			List<XAResourceInfo> preparedResources = prepareResources();
+			commitPreparedResources(preparedResources);
+		} finally {
+			// Invoke Synchronization.afterCompletion(), unless phase 2 goes on in the background
+			if (!afterCompletionDeferred) {
+				invokeSyncronizationAfterCompletion();
+			}
+		}
+	}
+
+	private List<XAResourceInfo> prepareResources() throws RollbackException, SystemException {
+		// Phase I - prepare
+		try {
+			logger.debug("Phase I - Issuing prepare for {} enlisted resource(s)", xaResourceManager.resourceCount());
+			return TriconTransactionManagerServices.getPreparePhaseExecutor().prepare(this);
+		} catch (RollbackException ex) {
+			logger.error("Caught rollback exception during prepare, trying to rollback: ", ex);
 
-			// Phase I - prepare
+			rollbackOnPrepareFailures(ex);
+			throw new TriconRollbackException("Rolled back the prepare failed transaction: " + this, ex);
+		} catch (TriconSystemException tse) {
+			logger.error("Caught system exception during prepare: ", tse);
+			throw tse;
+		}
+	}
+
+	private void commitPreparedResources(List<XAResourceInfo> preparedResources) throws RollbackException,
+			HeuristicMixedException, HeuristicRollbackException, SystemException {
+		// Commit decision, durable before the last resource commits as nothing could undo that commit
+		logCommitDecision(preparedResources);
+
+		// Last resource, its outcome decides the outcome of the prepared resources
+		commitLastResource(preparedResources);
+
+		// Phase II - commit
+		logger.debug("Phase II - Issuing commit for {} prepared resource(s)", preparedResources.size());
+		TriconTransactionManagerServices.getCommitPhaseExecutor().commit(this, preparedResources);
+
+		logger.debug("Successfully committed {}", this);
+	}
+
+	private void logCommitDecision(List<XAResourceInfo> preparedResources) throws TriconRollbackException,
+			TriconSystemException {
+		// With a last resource, a single prepared resource must be committed by recovery as well
+		int minimumPreparedResources = (lastResource == null) ? 2 : 1;
+		if (preparedResources.size() < minimumPreparedResources) {
+			// 1PC or a single XA_OK voter: nobody else can commit, recovery rolls it back if we crash (presumed abort)
+			logger.debug("No commit decision to log for {} prepared resource(s)", preparedResources.size());
+			return;
+		}
+		journaledResources = preparedResources;
+		try {
+			setStatusAndLogRecord(Status.STATUS_COMMITTING);
+			commitDecisionLogged = true;
+		} catch (TriconSystemException ex) {
+			// The record may still reach the disk, the rollback below logs ROLLEDBACK to cancel it. Failing to write
+			// that one as well does not fail the rollback: recovery would commit branches already rolled back, which
+			// answer XAER_NOTA, so the transaction is still reported rolled back rather than in doubt.
+			logger.error("Cannot log the commit decision, rolling back prepared resource(s) - ex: ", ex);
+			rollbackLastResource();
 			try {
-				logger.debug("Phase I - Issuing prepare for {} enlisted resource(s)", xaResourceManager.resourceCount());
-				preparedResources = preparer.prepare(this);
-			} catch (RollbackException ex) {
-				logger.error("Caught rollback exception during prepare, trying to rollback: ", ex);
-
-				rollbackOnPrepareFailures(ex);
-				throw new TriconRollbackException("Rolled back the prepare failed transaction: " + this, ex);
-			} catch (TriconSystemException tse) {
-				logger.error("Caught system exception during prepare: ", tse);
-				throw tse;
+				TriconTransactionManagerServices.getRollbackPhaseExecutor().rollback(this, preparedResources);
+			} catch (Exception rbEx) {
+				throw new TriconSystemException("Commit decision could not be logged and rollback of the prepared"
+						+ " resources failed. Some resources might be left in doubt!", rbEx);
 			}
+			throw new TriconRollbackException("Rolled back the transaction as its commit decision could not be logged: "
+					+ this, ex);
+		}
+	}
 
-			// Phase II - commit
-			logger.debug("Phase II - Issuing commit for {} prepared resource(s)", preparedResources.size());
-			committer.commit(this, preparedResources);
+	private void commitLastResource(List<XAResourceInfo> preparedResources) throws TriconRollbackException,
+			TriconSystemException {
+		if (lastResource == null) {
+			return;
+		}
+		try {
+			logger.debug("Committing last resource {}", lastResource);
+			lastResource.commit();
+			logger.debug("Committed last resource {}", lastResource);
+		} catch (Exception ex) {
+			logger.error("Last resource {} failed to commit, rolling back {} prepared resource(s) - ex: {}",
+					new Object[] { lastResource, preparedResources.size(), ex });
+			cancelCommitDecision();
+			try {
+				TriconTransactionManagerServices.getRollbackPhaseExecutor().rollback(this, preparedResources);
+			} catch (Exception rbEx) {
+				throw new TriconSystemException("Last resource failed to commit and rollback of the prepared"
+						+ " resources failed. Some resources might be left in doubt!", rbEx);
+			}
+			throw new TriconRollbackException("Rolled back the transaction as its last resource failed to commit: "
+					+ this, ex);
+		}
+	}
 
-			logger.debug("Successfully committed {}", this);
-		} finally {
-			// Invoke Synchronization.afterCompletion()
-			invokeSyncronizationAfterCompletion();
+	/**
+	 * Logs ROLLEDBACK over the commit decision once the last resource failed to commit, so recovery does not commit
+	 * the prepared resources after a crash. Failing to write it does not stop their rollback: recovery would then
+	 * commit branches already rolled back, which answer XAER_NOTA.
+	 */
+	private void cancelCommitDecision() {
+		if (!commitDecisionLogged) {
+			return;
+		}
+		try {
+			logTransactionRecord(Status.STATUS_ROLLEDBACK, true);
+		} catch (TriconSystemException ex) {
+			logger.error("Cannot cancel the commit decision of {} - ex: ", this, ex);
+		}
+		// The rollback below must not log its outcome again
+		journaledResources = null;
+		commitDecisionLogged = false;
+	}
+
+	private void rollbackLastResource() {
+		if (lastResource == null) {
+			return;
+		}
+		try {
+			logger.debug("Rolling back last resource {}", lastResource);
+			lastResource.rollback();
+		} catch (Exception ex) {
+			logger.error("Cannot rollback last resource {} - ex: {}", lastResource, ex);
 		}
 	}
 
@@ -328,9 +644,14 @@ public class TransactionImpl implements Transaction {
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private void rollbackOnPrepareFailures(RollbackException rbEx) throws TriconSystemException {
 		logger.debug("Inside rollbackOnPrepareFailures() {}", "..");
-		List<XAResourceInfo> resources = xaResourceManager.getAllXAResourceInfoList();
+		// Branches still preparing roll themselves back once their prepare returns
+		List<XAResourceInfo> resources = new ArrayList<XAResourceInfo>(xaResourceManager.getAllXAResourceInfoList());
+		if (rbEx.getCause() instanceof PhaseException) {
+			resources.removeAll(((PhaseException) rbEx.getCause()).getAbandonedResources());
+		}
+		rollbackLastResource();
 		try {
-			rollbacker.rollback(this, resources);
+			TriconTransactionManagerServices.getRollbackPhaseExecutor().rollback(this, resources);
 			logger.debug("Rollback after prepare failure succeeded{}", ".");
 		} catch (Exception ex) {
 			logger.debug("Rollback failed (after prepare failure) - ex: ", ex);
@@ -349,6 +670,54 @@ public class TransactionImpl implements Transaction {
 	public void rollback() throws IllegalStateException, SystemException {
 		logger.debug("Inside rollback() - status: {}, isStartedOrFinished: {}",
 				DecodingUtil.decodeStatus(status), isStartedOrFinished());
+
+		if (!beforeRollback()) {
+			return;
+		}
+
+		// Perform rollback
+		performRollback();
+	}
+
+	/**
+	 * Same as rollback(), except that the rollback of the resources and the afterCompletion synchronizations run
+	 * after returning, the returned stage completes with the outcome of rollback().
+	 */
+	public CompletionStage<Void> rollbackAsync() {
+		logger.debug("Inside rollbackAsync() - status: {}, isStartedOrFinished: {}",
+				DecodingUtil.decodeStatus(status), isStartedOrFinished());
+		final CompletableFuture<Void> completion = new CompletableFuture<Void>();
+		try {
+			if (!beforeRollback()) {
+				completion.complete(null);
+				return completion;
+			}
+		} catch (Exception ex) {
+			completion.completeExceptionally(ex);
+			return completion;
+		}
+
+		CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				try {
+					performRollback();
+				} catch (Exception ex) {
+					throw new CompletionException(ex);
+				}
+			}
+		}, TriconTransactionManagerServices.getCompletionExecutorService()).whenComplete(new CompletionCallback(completion, false));
+		return completion;
+	}
+
+	/**
+	 * @return false if the transaction has already been rolled back by the timeout policy
+	 */
+	private boolean beforeRollback() throws IllegalStateException, SystemException {
+		if (!claimCompletion()) {
+			awaitTimeoutRollback();
+			logger.debug("Transaction {} has already been rolled back on timeout", this);
+			return false;
+		}
 		if (status == Status.STATUS_NO_TRANSACTION) {
 			throw new IllegalStateException("Transaction hasn't started yet");
 		}
@@ -365,15 +734,30 @@ public class TransactionImpl implements Transaction {
 		} catch (TriconRollbackException ex) {
 			logger.warn("Some resource(s) failed during delistment - ex: ", ex);
 		}
+		return true;
+	}
 
-		// Perform rollback
-		performRollback();
+	/**
+	 * @return false if the timeout policy already took over the completion of this transaction
+	 */
+	private boolean claimCompletion() {
+		return completedBy.compareAndSet(COMPLETED_BY_NONE, COMPLETED_BY_APPLICATION)
+				|| completedBy.get() == COMPLETED_BY_APPLICATION;
+	}
+
+	private void awaitTimeoutRollback() {
+		try {
+			timeoutRollback.join();
+		} catch (RuntimeException ex) {
+			// the rollback task logs its own failures
+		}
 	}
 
 	private void performRollback() throws IllegalStateException, SystemException {
 		logger.debug("Rolling back {} enlisted resource(s)", xaResourceManager.resourceCount());
+		rollbackLastResource();
 		try {
-			rollbacker.rollback(this, getEligibleResourcesForRollback());
+			TriconTransactionManagerServices.getRollbackPhaseExecutor().rollback(this, getEligibleResourcesForRollback());
 			logger.debug("Successfully rolled back {}", this);
 		} catch (HeuristicMixedException ex) {
 			throw new TriconSystemException("Transaction partially committed and rolled back. Resources are now inconsistent!", ex);
@@ -437,7 +821,7 @@ public class TransactionImpl implements Transaction {
 
 	@Override
 	public int hashCode() {
-		return xaResourceManager.getGlobalTransactionId().hashCode();
+		return syncTransactionkey.hashCode();
 	}
 
 	@Override
@@ -446,8 +830,7 @@ public class TransactionImpl implements Transaction {
 			return false;
 		}
 		TransactionImpl transaction = (TransactionImpl) obj;
-		return Arrays.equals(xaResourceManager.getGlobalTransactionId(),
-				transaction.xaResourceManager.getGlobalTransactionId());
+		return syncTransactionkey.equals(transaction.syncTransactionkey);
 	}
 
 	@Override
@@ -460,17 +843,47 @@ public class TransactionImpl implements Transaction {
 				.append("]").toString();
 	}
 
+	/**
+	 * Ends an asynchronous chain: runs the afterCompletion synchronizations unless the chain already did or phase 2
+	 * goes on in the background, then completes the stage returned to the caller.
+	 */
+	private final class CompletionCallback implements BiConsumer<Void, Throwable> {
+		private final CompletableFuture<Void> completion;
+		private final boolean invokeAfterCompletion;
+
+		private CompletionCallback(CompletableFuture<Void> completion, boolean invokeAfterCompletion) {
+			this.completion = completion;
+			this.invokeAfterCompletion = invokeAfterCompletion;
+		}
+
+		public void accept(Void result, Throwable throwable) {
+			if (invokeAfterCompletion && !afterCompletionDeferred) {
+				try {
+					invokeSyncronizationAfterCompletion();
+				} catch (RuntimeException ex) {
+					logger.error("Error invoking afterCompletion synchronizations of {} - ex: {}", TransactionImpl.this, ex);
+				}
+			}
+			if (throwable == null) {
+				completion.complete(null);
+			} else if (throwable instanceof CompletionException && throwable.getCause() != null) {
+				completion.completeExceptionally(throwable.getCause());
+			} else {
+				completion.completeExceptionally(throwable);
+			}
+		}
+	}
+
 	private void scheduleTransactionTimeout() {
 		logger.debug("Scheduling transaction timeout{}", "..");
-		TriconTransactionManagerServices.getTaskScheduler()
+		timeoutTaskHandle = TriconTransactionManagerServices.getTaskScheduler()
 				.schedule(new TransactionTimeoutTask(this, this.getTimeoutDate()));
 	}
 
 	private void cancelTransactionTimeout() {
 		logger.debug("Cancelling transaction timeout{}", "..");
-		if (!TriconTransactionManagerServices.getTaskScheduler()
-				.cancelByTaskTypeAndObject(TransactionTimeoutTask.class, this)) {
-			logger.warn("No TransactionTimeoutTask found based on object {} for cancel. So ignoring ..", this);
+		if (timeoutTaskHandle == null || !timeoutTaskHandle.cancel()) {
+			logger.warn("No pending TransactionTimeoutTask found for {} to cancel. So ignoring ..", this);
 		}
 	}
 
@@ -1,11 +1,14 @@
 package com.tricon.tm;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 
 import javax.transaction.xa.Xid;
 
 import com.tricon.tm.util.EncodingUtil;
+import com.tricon.tm.util.XidUtil;
 
 /**
  * Xid implementation for JTA
@@ -35,11 +38,17 @@ public class XidImpl implements Xid, Serializable {
 	 */
 	public static final int TRICON_FORMAT_ID = 0x5472636e;
 
+	/**
+	 * Constant to hold the int-encoded "Trcc" string, format id of the compact Tricon XIDs
+	 */
+	public static final int TRICON_COMPACT_FORMAT_ID = 0x54726363;
+
 	private int formatId;
 	private byte[] globalTransactionId;
 	private int globalTransactionIdLength;
 	private byte[] branchQualifier;
 	private int branchQualifierLength;
+	private transient long fingerprint;
 
 	public XidImpl(byte[] globalTransactionId, byte[] branchQualifier) {
 		this(TRICON_FORMAT_ID, globalTransactionId, branchQualifier);
@@ -51,6 +60,7 @@ public class XidImpl implements Xid, Serializable {
 		this.globalTransactionIdLength = globalTransactionId != null ? globalTransactionId.length : 0;
 		this.branchQualifier = branchQualifier;
 		this.branchQualifierLength = branchQualifier != null ? branchQualifier.length : 0;
+		this.fingerprint = XidUtil.fingerprint(formatId, globalTransactionId, branchQualifier);
 	}
 
 	public int getFormatId() {
@@ -65,14 +75,52 @@ public class XidImpl implements Xid, Serializable {
 		return branchQualifier;
 	}
 
+	/**
+	 * 64 bits hash of the format id, gtrid and bqual computed at construction: Xids with different
+	 * fingerprints are different.
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Tells whether the Xid has been generated by a Tricon transaction manager whose global transaction ids
+	 * start with the given prefix (TM vendor name and server id). Used to filter the Xids returned by
+	 * XAResource.recover().
+	 */
+	public static boolean isTriconXid(Xid xid, byte[] gtridPrefix) {
+		if (xid == null || xid.getFormatId() != TRICON_FORMAT_ID) {
+			return false;
+		}
+		return startsWith(xid.getGlobalTransactionId(), gtridPrefix);
+	}
+
+	/**
+	 * Same as isTriconXid(Xid, byte[]), also accepting compact Xids whose global transaction ids start with the
+	 * given hash of the TM vendor name and server id, whichever layout the transaction manager uses now.
+	 */
+	public static boolean isTriconXid(Xid xid, byte[] gtridPrefix, byte[] compactGtridPrefix) {
+		if (xid != null && xid.getFormatId() == TRICON_COMPACT_FORMAT_ID) {
+			return startsWith(xid.getGlobalTransactionId(), compactGtridPrefix);
+		}
+		return isTriconXid(xid, gtridPrefix);
+	}
+
+	private static boolean startsWith(byte[] gtrid, byte[] gtridPrefix) {
+		if (gtrid == null || gtrid.length < gtridPrefix.length) {
+			return false;
+		}
+		for (int i = 0; i < gtridPrefix.length; i++) {
+			if (gtrid[i] != gtridPrefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + formatId;
-		result = prime * result + Arrays.hashCode(globalTransactionId);
-		result = prime * result + Arrays.hashCode(branchQualifier);
-		return result;
+		return (int) (fingerprint ^ (fingerprint >>> 32));
 	}
 
 	@Override
@@ -81,7 +129,8 @@ public class XidImpl implements Xid, Serializable {
 			return false;
 		}
 		XidImpl xid2 = (XidImpl) obj2;
-		if (formatId == xid2.getFormatId()
+		if (fingerprint == xid2.fingerprint
+				&& formatId == xid2.getFormatId()
 				&& Arrays.equals(globalTransactionId, xid2.getGlobalTransactionId())
 				&& Arrays.equals(branchQualifier, xid2.getBranchQualifier())) {
 			return true;
@@ -89,6 +138,11 @@ public class XidImpl implements Xid, Serializable {
 		return false;
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		fingerprint = XidUtil.fingerprint(formatId, globalTransactionId, branchQualifier);
+	}
+
 	@Override
 	public String toString() {
 		return new StringBuffer(this.getClass().getName()).append("[")
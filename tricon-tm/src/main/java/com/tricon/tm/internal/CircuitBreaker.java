@@ -0,0 +1,105 @@
+package com.tricon.tm.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calling start() on a resource manager which keeps failing with XAER_RMFAIL, so that enlistments fail at
+ * once instead of each waiting for the network timeout of the driver.
+ *
+ * <pre>
+ * closed     every enlistment goes through, failureThreshold consecutive failures open the breaker
+ * open       enlistments are refused until openDuration elapsed
+ * half-open  a single enlistment probes the resource manager, success closes the breaker, a failure opens it
+ *            again; the other enlistments are refused meanwhile
+ * </pre>
+ *
+ * A start() returning or failing with any XA error code but XAER_RMFAIL is a success: the resource manager
+ * answered. XAER_RMFAIL and a runtime exception or error thrown by the driver are failures.
+ */
+public class CircuitBreaker {
+	private static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	private static final int ST_CLOSED = 0;
+	private static final int ST_OPEN = 1;
+	private static final int ST_HALF_OPEN = 2;
+
+	private final ResourceManager resourceManager;
+	private final int failureThreshold;
+	private final long openDurationNanos;
+	private final AtomicInteger state = new AtomicInteger(ST_CLOSED);
+	private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+	private volatile long openedAt;
+
+	public CircuitBreaker(ResourceManager resourceManager, int failureThreshold, long openDurationMillis) {
+		this.resourceManager = resourceManager;
+		this.failureThreshold = failureThreshold;
+		this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+	}
+
+	/**
+	 * @return false if the call must not be made; when true, the outcome must be reported with recordSuccess()
+	 *         or recordFailure()
+	 */
+	public boolean allowRequest() {
+		int current = state.get();
+		if (current == ST_CLOSED) {
+			return true;
+		}
+		if (current == ST_OPEN && System.nanoTime() - openedAt >= openDurationNanos
+				&& state.compareAndSet(ST_OPEN, ST_HALF_OPEN)) {
+			logger.info("Circuit breaker of {} half-open, probing the resource manager{}", resourceManager.getName(), "..");
+			return true;
+		}
+		return false;
+	}
+
+	public void recordSuccess() {
+		consecutiveFailures.set(0);
+		if (state.getAndSet(ST_CLOSED) != ST_CLOSED) {
+			logger.info("Circuit breaker of {} closed, the resource manager answers again{}", resourceManager.getName(), ".");
+		}
+	}
+
+	public void recordFailure() {
+		if (state.get() == ST_HALF_OPEN) {
+			openedAt = System.nanoTime();
+			state.set(ST_OPEN);
+			logger.warn("Circuit breaker of {} opened again, the probe failed{}", resourceManager.getName(), ".");
+			return;
+		}
+		if (consecutiveFailures.incrementAndGet() >= failureThreshold && state.get() == ST_CLOSED) {
+			openedAt = System.nanoTime();
+			if (state.compareAndSet(ST_CLOSED, ST_OPEN)) {
+				logger.warn("Circuit breaker of {} opened after {} consecutive failures, refusing enlistments for {} ms",
+						new Object[] { resourceManager.getName(), consecutiveFailures.get(), getOpenDuration() });
+			}
+		}
+	}
+
+	public boolean isOpen() {
+		return state.get() != ST_CLOSED;
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures.get();
+	}
+
+	public long getOpenDuration() {
+		return TimeUnit.NANOSECONDS.toMillis(openDurationNanos);
+	}
+
+	@Override
+	public String toString() {
+		int current = state.get();
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("resourceManager=").append(resourceManager.getName())
+				.append(", state=").append(current == ST_CLOSED ? "closed" : current == ST_OPEN ? "open" : "half-open")
+				.append(", consecutiveFailures=").append(consecutiveFailures.get())
+				.append("]").toString();
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.tricon.tm.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.ConfigurationHelper;
+import com.tricon.tm.TriconTransactionManagerServices;
+import com.tricon.tm.util.WeakIdentityHashMap;
+
+/**
+ * Tells which resource manager an XAResource talks to. A resource seen for the first time is compared with
+ * isSameRM() against one member of every known resource manager, the answer is then cached across transactions,
+ * so enlisting a pooled connection again, or deciding to join its branch, costs a hash lookup and no driver call.
+ * Resources are remembered by identity and weakly, a driver's equals() may consider two connections the same and
+ * a closed connection must not be kept from the garbage collector.
+ * <p>
+ * A forgotten resource manager whose circuit breaker counts failures is kept aside, a resource of it seen again
+ * readmits it so the breaker does not start over closed.
+ *
+ * <pre>
+ * tricon.tm.resourceManager.maxCachedResources  resources remembered, the least recently enlisted is forgotten first
+ * tricon.tm.resourceManager.maxCount            resource managers compared against, bounds the isSameRM() calls
+ *                                                for a new resource with drivers answering false to every other
+ *                                                connection; the least recently used is forgotten first
+ * </pre>
+ */
+public class ResourceManagerIdentifier {
+	private static Logger logger = LoggerFactory.getLogger(ResourceManagerIdentifier.class);
+
+	private final int maxResourceManagers;
+	private final List<ResourceManager> resourceManagers = new CopyOnWriteArrayList<ResourceManager>();
+	private final AtomicInteger lastId = new AtomicInteger(0);
+	// Bumped whenever a resource manager is added, guarded by this
+	private volatile int generation;
+	// Guarded by itself, access ordered
+	private final WeakIdentityHashMap<XAResource, ResourceManager> identifiedResources;
+	// Evicted resource managers with a failing circuit breaker, oldest first, guarded by this
+	private final List<ResourceManager> retiredResourceManagers = new ArrayList<ResourceManager>();
+
+	public ResourceManagerIdentifier() {
+		ConfigurationHelper configurationHelper = TriconTransactionManagerServices.getConfigurationHelper();
+		this.maxResourceManagers = Math.max(1, configurationHelper.getResourceManagerMaxCount());
+		int maxCachedResources = Math.max(1, configurationHelper.getResourceManagerMaxCachedResources());
+		this.identifiedResources = new WeakIdentityHashMap<XAResource, ResourceManager>(maxCachedResources);
+	}
+
+	public ResourceManager identify(XAResource xaResource) {
+		ResourceManager resourceManager;
+		synchronized (identifiedResources) {
+			resourceManager = identifiedResources.get(xaResource);
+		}
+		if (resourceManager != null) {
+			resourceManager.touch();
+			return resourceManager;
+		}
+
+		int knownGeneration = generation;
+		resourceManager = findSameResourceManager(xaResource);
+		if (resourceManager == null) {
+			synchronized (this) {
+				// another thread may have added it meanwhile
+				if (knownGeneration != generation) {
+					resourceManager = findSameResourceManager(xaResource);
+				}
+				if (resourceManager == null) {
+					if (resourceManagers.size() >= maxResourceManagers) {
+						evictLeastRecentlyUsed();
+					}
+					resourceManager = readmitRetiredResourceManager(xaResource);
+					if (resourceManager == null) {
+						resourceManager = new ResourceManager(lastId.incrementAndGet(), xaResource);
+						logger.info("Identified new resource manager {} with resource {}", resourceManager.getName(), xaResource);
+					}
+					resourceManagers.add(resourceManager);
+					generation++;
+				}
+			}
+		}
+		synchronized (identifiedResources) {
+			identifiedResources.put(xaResource, resourceManager);
+		}
+		return resourceManager;
+	}
+
+	/**
+	 * Identifies the resource manager of a resource known under a unique name, typically the XAResource of a
+	 * recoverable resource, and names the resource manager after it.
+	 */
+	public ResourceManager identify(String uniqueName, XAResource xaResource) {
+		ResourceManager resourceManager = identify(xaResource);
+		if (!uniqueName.equals(resourceManager.getName())) {
+			logger.debug("Naming resource manager {} after resource {}", resourceManager.getName(), uniqueName);
+			resourceManager.setName(uniqueName);
+		}
+		return resourceManager;
+	}
+
+	public List<ResourceManager> getResourceManagers() {
+		return Collections.unmodifiableList(resourceManagers);
+	}
+
+	public int getCachedResourceCount() {
+		synchronized (identifiedResources) {
+			return identifiedResources.size();
+		}
+	}
+
+	public int getRetiredResourceManagerCount() {
+		synchronized (this) {
+			return retiredResourceManagers.size();
+		}
+	}
+
+	private ResourceManager findSameResourceManager(XAResource xaResource) {
+		for (ResourceManager resourceManager : resourceManagers) {
+			if (isSameResourceManager(resourceManager, xaResource)) {
+				return resourceManager;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Must be called while holding this.
+	 */
+	private ResourceManager readmitRetiredResourceManager(XAResource xaResource) {
+		Iterator<ResourceManager> it = retiredResourceManagers.iterator();
+		while (it.hasNext()) {
+			ResourceManager resourceManager = it.next();
+			if (isSameResourceManager(resourceManager, xaResource)) {
+				it.remove();
+				resourceManager.readmit();
+				logger.info("Readmitted resource manager {} with resource {}, circuit breaker {}",
+						new Object[] { resourceManager.getName(), xaResource, resourceManager.getCircuitBreaker() });
+				return resourceManager;
+			}
+		}
+		return null;
+	}
+
+	private boolean isSameResourceManager(ResourceManager resourceManager, XAResource xaResource) {
+		XAResource representative = resourceManager.getRepresentative();
+		try {
+			if (representative == xaResource || xaResource.isSameRM(representative)) {
+				// keep comparing against a live resource, the old one may be a closed connection by now
+				resourceManager.setRepresentative(xaResource);
+				resourceManager.touch();
+				return true;
+			}
+		} catch (XAException ex) {
+			logger.debug("Cannot compare {} with resource manager {} - ex: {}",
+					new Object[] { xaResource, resourceManager.getName(), ex });
+		} catch (RuntimeException ex) {
+			logger.debug("Cannot compare {} with resource manager {} - ex: {}",
+					new Object[] { xaResource, resourceManager.getName(), ex });
+		}
+		return false;
+	}
+
+	/**
+	 * Stops comparing new resources against the resource manager used the longest time ago. Branches already
+	 * holding it keep it, a resource of that resource manager seen afterwards starts a new one, unless its circuit
+	 * breaker counts failures: it is then retired and readmitted with its breaker. Must be called while holding
+	 * this.
+	 */
+	private void evictLeastRecentlyUsed() {
+		ResourceManager leastRecentlyUsed = null;
+		for (ResourceManager resourceManager : resourceManagers) {
+			if (leastRecentlyUsed == null || resourceManager.getLastUsed() - leastRecentlyUsed.getLastUsed() < 0) {
+				leastRecentlyUsed = resourceManager;
+			}
+		}
+		resourceManagers.remove(leastRecentlyUsed);
+		leastRecentlyUsed.evict();
+		synchronized (identifiedResources) {
+			Iterator<ResourceManager> it = identifiedResources.values().iterator();
+			while (it.hasNext()) {
+				if (it.next() == leastRecentlyUsed) {
+					it.remove();
+				}
+			}
+		}
+		CircuitBreaker circuitBreaker = leastRecentlyUsed.getCircuitBreaker();
+		if (circuitBreaker.isOpen() || circuitBreaker.getConsecutiveFailures() > 0) {
+			retiredResourceManagers.add(leastRecentlyUsed);
+			if (retiredResourceManagers.size() > maxResourceManagers) {
+				retiredResourceManagers.remove(0);
+			}
+		}
+		logger.debug("Forgot resource manager {}, more than {} in use", leastRecentlyUsed.getName(), maxResourceManagers);
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.tricon.tm.internal;
+
+import javax.transaction.xa.XAResource;
+
+import com.tricon.tm.util.WeakIdentityHashMap;
+
+/**
+ * Remembers the transaction timeout last applied on each XAResource, so that a pooled connection enlisted again
+ * with a timeout that still fits does not get another setTransactionTimeout() call, a round trip with some drivers.
+ * Disabled with tricon.tm.resourceTimeout.cache=false for drivers resetting the timeout between transactions.
+ */
+public class ResourceTimeoutCache {
+	private final boolean enabled;
+	// Guarded by itself, weak keys so the timeouts of closed connections go away with them; compared by identity,
+	// a driver's equals() may consider two connections the same
+	private final WeakIdentityHashMap<XAResource, Integer> appliedTimeouts = new WeakIdentityHashMap<XAResource, Integer>();
+
+	public ResourceTimeoutCache(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return true if the timeout applied on the resource lies between the given bounds, in seconds
+	 */
+	public boolean isApplied(XAResource xaResource, int minTimeoutInSeconds, int maxTimeoutInSeconds) {
+		if (!enabled) {
+			return false;
+		}
+		Integer appliedTimeout;
+		synchronized (appliedTimeouts) {
+			appliedTimeout = appliedTimeouts.get(xaResource);
+		}
+		return appliedTimeout != null && appliedTimeout.intValue() >= minTimeoutInSeconds
+				&& appliedTimeout.intValue() <= maxTimeoutInSeconds;
+	}
+
+	public void applied(XAResource xaResource, int timeoutInSeconds) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (appliedTimeouts) {
+			appliedTimeouts.put(xaResource, Integer.valueOf(timeoutInSeconds));
+		}
+	}
+
+	public int size() {
+		synchronized (appliedTimeouts) {
+			return appliedTimeouts.size();
+		}
+	}
+
+}
@@ -1,6 +1,5 @@
 package com.tricon.tm.internal;
 
-import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
@@ -11,8 +10,8 @@ import com.tricon.tm.XidImpl;
 public final class XAResourceHelper {
 
 	public static XAResourceInfo createXAResourceInfo(XAResource xaResource,
-			XidImpl xid, Date transactionTimeoutDate) {
-		XAResourceInfo xaResourceInfo = new XAResourceInfo(xaResource, xid, transactionTimeoutDate);
+			XidImpl xid, Long transactionDeadline) {
+		XAResourceInfo xaResourceInfo = new XAResourceInfo(xaResource, xid, transactionDeadline);
 
 		return xaResourceInfo;
 	}
@@ -1,7 +1,7 @@
 package com.tricon.tm.internal;
 
 import java.io.Serializable;
-import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -9,6 +9,7 @@ import javax.transaction.xa.XAResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.tricon.tm.TriconTransactionManagerServices;
 import com.tricon.tm.XidImpl;
 import com.tricon.tm.internal.exception.TriconXAException;
 import com.tricon.tm.util.DecodingUtil;
@@ -20,7 +21,14 @@ public class XAResourceInfo implements Serializable {
 
 	private XidImpl xid;
 	private XAResource xaResource;
-	private Date transactionTimeoutDate;
+	// Looked up on first use, the identifier is not serializable
+	private transient ResourceManager resourceManager;
+	// Unique name of the recoverable resource of this branch, looked up on first use, null if not registered
+	private String uniqueName;
+	// System.nanoTime() at which the transaction times out, null without timeout
+	private Long transactionDeadline;
+	// Full timeout of the transaction in seconds, the longest resource timeout it may leave on the resource
+	private int transactionTimeout;
 	private boolean isTimeoutAlreadySet;
 
 	private boolean started;
@@ -36,10 +44,10 @@ public class XAResourceInfo implements Serializable {
 		this(xaResource, xid, null);
 	}
 
-	public XAResourceInfo(XAResource xaResource, XidImpl xid, Date transactionTimeoutDate) {
+	public XAResourceInfo(XAResource xaResource, XidImpl xid, Long transactionDeadline) {
 		this.xaResource = xaResource;
 		this.xid = xid;
-		this.transactionTimeoutDate = transactionTimeoutDate;
+		this.transactionDeadline = transactionDeadline;
 		isTimeoutAlreadySet = false;
 
 		started = false;
@@ -62,14 +70,41 @@ public class XAResourceInfo implements Serializable {
 
 	public void setXAResource(XAResource xaResource) {
 		this.xaResource = xaResource;
+		this.resourceManager = null;
+		this.uniqueName = null;
 	}
 
-	public Date getTransactionTimeoutDate() {
-		return transactionTimeoutDate;
+	public ResourceManager getResourceManager() {
+		if (resourceManager == null) {
+			resourceManager = TriconTransactionManagerServices.getResourceManagerIdentifier().identify(xaResource);
+		}
+		return resourceManager;
+	}
+
+	/**
+	 * @return the unique name the resource adapter registered this resource with, null if it did not
+	 */
+	public String getUniqueName() {
+		if (uniqueName == null) {
+			uniqueName = TriconTransactionManagerServices.getResourceNameRegistry().getUniqueName(xaResource);
+		}
+		return uniqueName;
+	}
+
+	public Long getTransactionDeadline() {
+		return transactionDeadline;
 	}
 
-	public void setTransactionTimeoutDate(Date transactionTimeoutDate) {
-		this.transactionTimeoutDate = transactionTimeoutDate;
+	public void setTransactionDeadline(Long transactionDeadline) {
+		this.transactionDeadline = transactionDeadline;
+	}
+
+	public int getTransactionTimeout() {
+		return transactionTimeout;
+	}
+
+	public void setTransactionTimeout(int transactionTimeout) {
+		this.transactionTimeout = transactionTimeout;
 	}
 
 	public boolean isTimeoutAlreadySet() {
@@ -143,12 +178,22 @@ public class XAResourceInfo implements Serializable {
 		}
 
 		boolean applyTransactionTimeout = true; // Need to take dynamically
-		if (!isTimeoutAlreadySet && transactionTimeoutDate != null && applyTransactionTimeout) {
-			int timeoutInSeconds = (int) ((transactionTimeoutDate.getTime() - System.currentTimeMillis() + 999L) / 1000L);
+		if (!isTimeoutAlreadySet && transactionDeadline != null && applyTransactionTimeout) {
+			long remainingNanos = transactionDeadline.longValue() - System.nanoTime();
+			int timeoutInSeconds = (int) ((remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
 			// setting a timeout of 0 means resetting -> set it to at least 1
 			timeoutInSeconds = Math.max(1, timeoutInSeconds);
-			logger.debug("Applying resource timeout of {} seconds on {}", timeoutInSeconds, this);
-			getXAResource().setTransactionTimeout(timeoutInSeconds);
+			// a pooled connection keeps its timeout from one transaction to the next, it still fits if it covers the
+			// remaining time without going past the full timeout of the transaction
+			ResourceTimeoutCache resourceTimeoutCache = TriconTransactionManagerServices.getResourceTimeoutCache();
+			if (resourceTimeoutCache.isApplied(getXAResource(), timeoutInSeconds,
+					Math.max(timeoutInSeconds, transactionTimeout))) {
+				logger.debug("Resource timeout of {} seconds already applied on {}", timeoutInSeconds, this);
+			} else {
+				logger.debug("Applying resource timeout of {} seconds on {}", timeoutInSeconds, this);
+				getXAResource().setTransactionTimeout(timeoutInSeconds);
+				resourceTimeoutCache.applied(getXAResource(), timeoutInSeconds);
+			}
 			isTimeoutAlreadySet = true;
 		}
 		try {
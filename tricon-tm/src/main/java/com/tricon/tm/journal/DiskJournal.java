@@ -0,0 +1,212 @@
+package com.tricon.tm.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.SyncTransactionKey;
+
+/**
+ * Append-only journal made of two files used in turn. When the active file is full, the dangling records are
+ * copied to the other file, which then becomes the active one, so only the active file is read at startup.
+ *
+ * <pre>
+ * File header:
+ *     int    magic                      'TTLG'
+ *     int    version
+ *     long   generation                 the file with the highest generation is the active one
+ * </pre>
+ */
+public class DiskJournal extends AbstractJournal {
+	private static Logger logger = LoggerFactory.getLogger(DiskJournal.class);
+
+	protected static final int MAGIC = 0x54544c47;
+	protected static final int VERSION = 1;
+	protected static final int HEADER_LENGTH = 4 + 4 + 8;
+
+	private final File directory;
+	private final long maxFileSize;
+	private final boolean forcedWriteEnabled;
+
+	private RandomAccessFile[] files;
+	private FileChannel[] channels;
+	private int activeIndex;
+	private long generation;
+	private volatile FileChannel activeChannel;
+
+	public DiskJournal(File directory, long maxFileSize, boolean forcedWriteEnabled) {
+		this.directory = directory;
+		this.maxFileSize = maxFileSize;
+		this.forcedWriteEnabled = forcedWriteEnabled;
+	}
+
+	public synchronized void open() throws IOException {
+		if (activeChannel != null) {
+			logger.warn("Journal is already open{}", ".");
+			return;
+		}
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + directory.getAbsolutePath());
+		}
+		files = new RandomAccessFile[] {
+				new RandomAccessFile(new File(directory, "tricon-tm1.tlog"), "rw"),
+				new RandomAccessFile(new File(directory, "tricon-tm2.tlog"), "rw") };
+		channels = new FileChannel[] { files[0].getChannel(), files[1].getChannel() };
+
+		long generation1 = readGeneration(channels[0]);
+		long generation2 = readGeneration(channels[1]);
+		if (generation1 < 0 && generation2 < 0) {
+			logger.info("Initializing new journal in {}", directory.getAbsolutePath());
+			activeIndex = 0;
+			generation = 1;
+			channels[0].truncate(0);
+			channels[0].write(createHeader(generation), 0);
+			channels[0].force(true);
+		} else {
+			activeIndex = generation1 >= generation2 ? 0 : 1;
+			generation = Math.max(generation1, generation2);
+		}
+
+		FileChannel channel = channels[activeIndex];
+		long position = replay(channel);
+		if (position < channel.size()) {
+			// drop the partially written record at the tail, the file may also be larger than maxFileSize if it
+			// was lowered since, the next append then rolls over
+			logger.warn("Dropping {} byte(s) following the last valid record of journal file {}",
+					channel.size() - position, activeIndex + 1);
+			channel.truncate(position);
+		}
+		channel.position(position);
+		activeChannel = channel;
+		logger.info("Opened journal file {} (generation {}) with {} dangling record(s)",
+				new Object[] { activeIndex + 1, generation, getDanglingRecords().size() });
+	}
+
+	public void close() throws IOException {
+		FileChannel channel = activeChannel;
+		if (channel == null) {
+			return;
+		}
+		force();
+		synchronized (this) {
+			activeChannel = null;
+			for (int i = 0; i < files.length; i++) {
+				files[i].close();
+			}
+		}
+		logger.info("Closed journal in {}", directory.getAbsolutePath());
+	}
+
+	protected void append(JournalRecord record) throws IOException {
+		FileChannel channel = getActiveChannel();
+		int length = record.getEncodedLength();
+		if (channel.position() + length > maxFileSize) {
+			channel = rollover(length);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		record.encode(buffer);
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	protected void flush() throws IOException {
+		if (forcedWriteEnabled) {
+			getActiveChannel().force(false);
+		}
+	}
+
+	private FileChannel getActiveChannel() throws IOException {
+		FileChannel channel = activeChannel;
+		if (channel == null) {
+			throw new IOException("Journal is not open");
+		}
+		return channel;
+	}
+
+	private FileChannel rollover(int pendingLength) throws IOException {
+		FileChannel oldChannel = channels[activeIndex];
+		// records of the old file must be durable before it is abandoned
+		oldChannel.force(false);
+
+		int newIndex = 1 - activeIndex;
+		FileChannel newChannel = channels[newIndex];
+		newChannel.truncate(0);
+		newChannel.position(HEADER_LENGTH);
+
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = getDanglingRecords();
+		for (JournalRecord record : danglingRecords.values()) {
+			ByteBuffer buffer = ByteBuffer.allocate(record.getEncodedLength());
+			record.encode(buffer);
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				newChannel.write(buffer);
+			}
+		}
+		if (newChannel.position() + pendingLength > maxFileSize) {
+			throw new IOException("Journal file size of " + maxFileSize + " bytes is too small to hold "
+					+ danglingRecords.size() + " dangling record(s)");
+		}
+		newChannel.force(false);
+		// the header is written last, a crash during rollover leaves the old file active
+		generation++;
+		newChannel.write(createHeader(generation), 0);
+		newChannel.force(false);
+
+		activeIndex = newIndex;
+		activeChannel = newChannel;
+		logger.debug("Rolled over to journal file {} (generation {}) with {} dangling record(s)",
+				new Object[] { newIndex + 1, generation, danglingRecords.size() });
+		return newChannel;
+	}
+
+	private long replay(FileChannel channel) throws IOException {
+		resetDanglingRecords();
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Journal file of " + size + " bytes is too large to be read");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+			// read the whole file
+		}
+		buffer.flip();
+		buffer.position(HEADER_LENGTH);
+
+		JournalRecord record;
+		while ((record = JournalRecord.decode(buffer)) != null) {
+			trackDanglingRecord(record);
+		}
+		return buffer.position();
+	}
+
+	private static long readGeneration(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_LENGTH) {
+			return -1;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		channel.read(header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			return -1;
+		}
+		return header.getLong();
+	}
+
+	private static ByteBuffer createHeader(long generation) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(generation);
+		header.flip();
+		return header;
+	}
+
+}
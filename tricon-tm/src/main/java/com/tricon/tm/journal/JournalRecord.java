@@ -0,0 +1,207 @@
+package com.tricon.tm.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.tricon.tm.util.DecodingUtil;
+import com.tricon.tm.util.EncodingUtil;
+
+/**
+ * Binary journal record
+ *
+ * <pre>
+ *     int    record length              length of the bytes following this field
+ *     int    status                     javax.transaction.Status value
+ *     long   time                       time of the status transition
+ *     int    gtrid length
+ *     byte   gtrid [gtrid length]
+ *     int    branch count
+ *            for each branch:
+ *     int        bqual length           0 for the last resource, see LAST_RESOURCE_BRANCH_QUALIFIER
+ *     byte       bqual [bqual length]
+ *     int        resource name length   0 when the resource is not registered for recovery
+ *     byte       resource name [resource name length]   UTF-8 unique name of its recoverable resource
+ *     int    crc32                      checksum of status .. last resource name
+ * </pre>
+ */
+public class JournalRecord {
+	/**
+	 * Branch qualifier of the last resource of a transaction, a non-XA participant committed on the decision of the
+	 * record: it has no branch to recover, its resource name is the name of the last resource.
+	 */
+	public static final byte[] LAST_RESOURCE_BRANCH_QUALIFIER = new byte[0];
+
+	// record length + status + time + gtrid length + branch count + crc32
+	private static final int FIXED_LENGTH = 4 + 4 + 8 + 4 + 4 + 4;
+	private static final int MAX_ID_LENGTH = 64;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final int status;
+	private final long time;
+	private final byte[] globalTransactionId;
+	private final List<byte[]> branchQualifiers;
+	private final List<String> resourceNames;
+
+	/**
+	 * @param resourceNames unique name of the recoverable resource of each branch, in the order of the branch
+	 *            qualifiers; null for a resource not registered for recovery
+	 */
+	public JournalRecord(int status, long time, byte[] globalTransactionId, List<byte[]> branchQualifiers,
+			List<String> resourceNames) {
+		if (resourceNames.size() != branchQualifiers.size()) {
+			throw new IllegalArgumentException("Got " + resourceNames.size() + " resource name(s) for "
+					+ branchQualifiers.size() + " branch(es)");
+		}
+		this.status = status;
+		this.time = time;
+		this.globalTransactionId = globalTransactionId;
+		this.branchQualifiers = Collections.unmodifiableList(branchQualifiers);
+		this.resourceNames = Collections.unmodifiableList(resourceNames);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public byte[] getGlobalTransactionId() {
+		return globalTransactionId;
+	}
+
+	public List<byte[]> getBranchQualifiers() {
+		return branchQualifiers;
+	}
+
+	public List<String> getResourceNames() {
+		return resourceNames;
+	}
+
+	public static boolean isLastResourceBranch(byte[] branchQualifier) {
+		return branchQualifier.length == 0;
+	}
+
+	public int getEncodedLength() {
+		int length = FIXED_LENGTH + globalTransactionId.length;
+		for (int i = 0; i < branchQualifiers.size(); i++) {
+			length += 4 + branchQualifiers.get(i).length + 4 + encodeName(resourceNames.get(i)).length;
+		}
+		return length;
+	}
+
+	public void encode(ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.putInt(getEncodedLength() - 4);
+		buffer.putInt(status);
+		buffer.putLong(time);
+		buffer.putInt(globalTransactionId.length);
+		buffer.put(globalTransactionId);
+		buffer.putInt(branchQualifiers.size());
+		for (int i = 0; i < branchQualifiers.size(); i++) {
+			byte[] branchQualifier = branchQualifiers.get(i);
+			buffer.putInt(branchQualifier.length);
+			buffer.put(branchQualifier);
+			byte[] resourceName = encodeName(resourceNames.get(i));
+			buffer.putInt(resourceName.length);
+			buffer.put(resourceName);
+		}
+		buffer.putInt(checksum(buffer, start + 4, buffer.position()));
+	}
+
+	/**
+	 * Decodes the record at the current position of the buffer. Returns null and leaves the position untouched
+	 * when the buffer holds no complete and valid record there (end of log, preallocated space or torn write).
+	 */
+	public static JournalRecord decode(ByteBuffer buffer) {
+		int start = buffer.position();
+		if (buffer.remaining() < FIXED_LENGTH) {
+			return null;
+		}
+		int length = buffer.getInt();
+		if (length < FIXED_LENGTH - 4 || length > buffer.remaining()) {
+			buffer.position(start);
+			return null;
+		}
+		int end = start + 4 + length;
+		int expectedChecksum = buffer.getInt(end - 4);
+		if (checksum(buffer, start + 4, end - 4) != expectedChecksum) {
+			buffer.position(start);
+			return null;
+		}
+
+		int status = buffer.getInt();
+		long time = buffer.getLong();
+		byte[] globalTransactionId = readId(buffer, end);
+		if (globalTransactionId == null || buffer.position() + 4 > end - 4) {
+			buffer.position(start);
+			return null;
+		}
+		int branchCount = buffer.getInt();
+		List<byte[]> branchQualifiers = new ArrayList<byte[]>();
+		List<String> resourceNames = new ArrayList<String>();
+		for (int i = 0; i < branchCount; i++) {
+			byte[] branchQualifier = readId(buffer, end);
+			byte[] resourceName = branchQualifier == null ? null : readBytes(buffer, Integer.MAX_VALUE, end);
+			if (resourceName == null) {
+				buffer.position(start);
+				return null;
+			}
+			branchQualifiers.add(branchQualifier);
+			resourceNames.add(resourceName.length == 0 ? null : new String(resourceName, UTF_8));
+		}
+		if (buffer.position() != end - 4) {
+			buffer.position(start);
+			return null;
+		}
+		buffer.position(end);
+		return new JournalRecord(status, time, globalTransactionId, branchQualifiers, resourceNames);
+	}
+
+	private static byte[] readId(ByteBuffer buffer, int end) {
+		return readBytes(buffer, MAX_ID_LENGTH, end);
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer, int maxLength, int end) {
+		if (buffer.position() + 4 > end - 4) {
+			return null;
+		}
+		int length = buffer.getInt();
+		if (length < 0 || length > maxLength || buffer.position() + length > end - 4) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] encodeName(String resourceName) {
+		return resourceName == null ? new byte[0] : resourceName.getBytes(UTF_8);
+	}
+
+	private static int checksum(ByteBuffer buffer, int from, int to) {
+		ByteBuffer range = buffer.duplicate();
+		range.limit(to);
+		range.position(from);
+		CRC32 crc32 = new CRC32();
+		crc32.update(range);
+		return (int) crc32.getValue();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("status=").append(DecodingUtil.decodeStatus(status))
+				.append(", time=").append(time)
+				.append(", gtrid=").append(EncodingUtil.convertBytesToHex(globalTransactionId))
+				.append(", branchCount=").append(branchQualifiers.size())
+				.append(", resourceNames=").append(resourceNames)
+				.append("]").toString();
+	}
+
+}
@@ -0,0 +1,341 @@
+package com.tricon.tm.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.SyncTransactionKey;
+
+/**
+ * Journal made of a ring of preallocated, memory-mapped segment files. Records are encoded straight into the
+ * mapped region of the active segment and every record is followed by an empty length field marking the end
+ * of the log. When the active segment is full, the dangling records are copied to the next segment, which then
+ * becomes the active one. Appends never grow a file, so the commit path does not touch filesystem metadata.
+ * The segment header is the same as the one of {@link DiskJournal}. The segments stay mapped until close(),
+ * which unmaps them right away instead of leaving their address space to the garbage collector.
+ * <p>
+ * A segment holding records whose size differs from the configured one, after a change of
+ * tricon.tm.journal.maxFileSizeInMB, is mapped at its own size: only the active segment holds records still needed,
+ * the other ones are resized when the journal is opened and the active one when the log comes back to it.
+ */
+public class MappedJournal extends AbstractJournal {
+	private static Logger logger = LoggerFactory.getLogger(MappedJournal.class);
+
+	private static final int END_MARKER_LENGTH = 4;
+
+	private final File directory;
+	private final int segmentSize;
+	// flush() runs without the journal lock, close() takes this one so it never unmaps a segment being forced
+	private final Object mappingLock = new Object();
+	private final int segmentCount;
+	private final boolean forcedWriteEnabled;
+
+	private MappedByteBuffer[] segments;
+	private int activeIndex;
+	private long generation;
+	private volatile MappedByteBuffer activeSegment;
+
+	public MappedJournal(File directory, long segmentSize, int segmentCount, boolean forcedWriteEnabled) {
+		if (segmentCount < 2) {
+			throw new IllegalArgumentException("At least 2 journal segments are required, got " + segmentCount);
+		}
+		if (segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Journal segments are mapped in one piece and cannot exceed "
+					+ Integer.MAX_VALUE + " bytes, got " + segmentSize);
+		}
+		this.directory = directory;
+		this.segmentSize = (int) segmentSize;
+		this.segmentCount = segmentCount;
+		this.forcedWriteEnabled = forcedWriteEnabled;
+	}
+
+	public synchronized void open() throws IOException {
+		if (activeSegment != null) {
+			logger.warn("Journal is already open{}", ".");
+			return;
+		}
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + directory.getAbsolutePath());
+		}
+
+		segments = new MappedByteBuffer[segmentCount];
+		activeIndex = -1;
+		generation = 0;
+		try {
+			for (int i = 0; i < segmentCount; i++) {
+				segments[i] = mapSegment(i);
+				long segmentGeneration = readGeneration(segments[i]);
+				if (segmentGeneration > generation) {
+					generation = segmentGeneration;
+					activeIndex = i;
+				}
+			}
+			for (int i = 0; i < segmentCount; i++) {
+				if (i != activeIndex && segments[i].capacity() != segmentSize) {
+					resizeSegment(i);
+				}
+			}
+		} catch (IOException ex) {
+			unmap(segments);
+			segments = null;
+			throw ex;
+		}
+
+		if (activeIndex < 0) {
+			logger.info("Initializing new journal with {} segment(s) in {}", segmentCount, directory.getAbsolutePath());
+			activeIndex = 0;
+			generation = 1;
+			MappedByteBuffer segment = segments[0];
+			segment.putInt(DiskJournal.HEADER_LENGTH, 0);
+			writeHeader(segment, generation);
+			segment.position(DiskJournal.HEADER_LENGTH);
+			segment.force();
+		} else {
+			replay(segments[activeIndex]);
+		}
+		activeSegment = segments[activeIndex];
+		logger.info("Opened journal segment {} (generation {}) with {} dangling record(s)",
+				new Object[] { activeIndex + 1, generation, getDanglingRecords().size() });
+	}
+
+	public void close() throws IOException {
+		if (activeSegment == null) {
+			return;
+		}
+		force();
+		MappedByteBuffer[] closedSegments;
+		synchronized (this) {
+			closedSegments = segments;
+			activeSegment = null;
+			segments = null;
+		}
+		synchronized (mappingLock) {
+			unmap(closedSegments);
+		}
+		logger.info("Closed journal in {}", directory.getAbsolutePath());
+	}
+
+	protected void append(JournalRecord record) throws IOException {
+		MappedByteBuffer segment = getActiveSegment();
+		int length = record.getEncodedLength();
+		if (segment.remaining() < length + END_MARKER_LENGTH) {
+			segment = rollover(length);
+		}
+		write(segment, record);
+	}
+
+	protected void flush() throws IOException {
+		if (forcedWriteEnabled) {
+			synchronized (mappingLock) {
+				getActiveSegment().force();
+			}
+		}
+	}
+
+	private MappedByteBuffer getActiveSegment() throws IOException {
+		MappedByteBuffer segment = activeSegment;
+		if (segment == null) {
+			throw new IOException("Journal is not open");
+		}
+		return segment;
+	}
+
+	private MappedByteBuffer rollover(int pendingLength) throws IOException {
+		// records of the old segment must be durable before it is abandoned
+		segments[activeIndex].force();
+
+		int newIndex = (activeIndex + 1) % segmentCount;
+		if (segments[newIndex] == null || segments[newIndex].capacity() != segmentSize) {
+			// the records of that segment were carried over to the next ones long ago
+			resizeSegment(newIndex);
+		}
+		MappedByteBuffer segment = segments[newIndex];
+		// invalidate the header first, a crash during rollover leaves the old segment active
+		segment.putInt(0, 0);
+		segment.position(DiskJournal.HEADER_LENGTH);
+
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = getDanglingRecords();
+		for (JournalRecord record : danglingRecords.values()) {
+			if (segment.remaining() < record.getEncodedLength() + END_MARKER_LENGTH) {
+				throw new IOException("Journal segment size of " + segmentSize + " bytes is too small to hold "
+						+ danglingRecords.size() + " dangling record(s)");
+			}
+			write(segment, record);
+		}
+		if (segment.remaining() < pendingLength + END_MARKER_LENGTH) {
+			throw new IOException("Journal segment size of " + segmentSize + " bytes is too small to hold "
+					+ danglingRecords.size() + " dangling record(s)");
+		}
+		segment.force();
+		generation++;
+		writeHeader(segment, generation);
+		segment.force();
+
+		activeIndex = newIndex;
+		activeSegment = segment;
+		logger.debug("Rolled over to journal segment {} (generation {}) with {} dangling record(s)",
+				new Object[] { newIndex + 1, generation, danglingRecords.size() });
+		return segment;
+	}
+
+	private void replay(MappedByteBuffer segment) {
+		resetDanglingRecords();
+		segment.position(DiskJournal.HEADER_LENGTH);
+		JournalRecord record;
+		while ((record = JournalRecord.decode(segment)) != null) {
+			trackDanglingRecord(record);
+		}
+		// a stale or partially written record may follow, the next append overwrites it
+		if (segment.remaining() >= END_MARKER_LENGTH) {
+			segment.putInt(segment.position(), 0);
+		}
+	}
+
+	private static void write(MappedByteBuffer segment, JournalRecord record) {
+		record.encode(segment);
+		// marks the end of the log, it is overwritten by the next record
+		segment.putInt(segment.position(), 0);
+	}
+
+	/**
+	 * Maps a segment file, preallocating it unless it already holds a segment: its records may still be needed,
+	 * so it is then mapped at its current size.
+	 */
+	private MappedByteBuffer mapSegment(int index) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(getSegmentFile(index), "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long size = channel.size();
+			if (size != segmentSize) {
+				if (hasHeader(channel)) {
+					if (size > Integer.MAX_VALUE) {
+						throw new IOException("Journal segment " + getSegmentFile(index) + " of " + size
+								+ " bytes is too large to be mapped");
+					}
+					logger.info("Journal segment {} has {} bytes instead of {}, it is resized once its records are"
+							+ " not needed anymore", new Object[] { index + 1, size, segmentSize });
+				} else {
+					preallocate(channel);
+					size = segmentSize;
+				}
+			}
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Preallocates a segment whose records are not needed anymore again with the configured size.
+	 */
+	private void resizeSegment(int index) throws IOException {
+		logger.debug("Resizing journal segment {} to {} bytes", index + 1, segmentSize);
+		synchronized (mappingLock) {
+			if (segments[index] != null) {
+				// truncating a mapped file would fault the next access to the mapping
+				unmap(segments[index]);
+				segments[index] = null;
+			}
+		}
+		RandomAccessFile randomAccessFile = new RandomAccessFile(getSegmentFile(index), "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			preallocate(channel);
+			segments[index] = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private File getSegmentFile(int index) {
+		return new File(directory, "tricon-tm-segment" + (index + 1) + ".tlog");
+	}
+
+	private static boolean hasHeader(FileChannel channel) throws IOException {
+		if (channel.size() < DiskJournal.HEADER_LENGTH) {
+			return false;
+		}
+		ByteBuffer header = ByteBuffer.allocate(DiskJournal.HEADER_LENGTH);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			// read the whole header
+		}
+		header.flip();
+		return header.remaining() == DiskJournal.HEADER_LENGTH && header.getInt() == DiskJournal.MAGIC
+				&& header.getInt() == DiskJournal.VERSION;
+	}
+
+	private void preallocate(FileChannel channel) throws IOException {
+		logger.debug("Preallocating journal segment of {} bytes", segmentSize);
+		channel.truncate(0);
+		// write real zeros instead of extending a sparse file, so blocks are allocated up front
+		ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+		long position = 0;
+		while (position < segmentSize) {
+			zeros.clear();
+			zeros.limit((int) Math.min(zeros.capacity(), segmentSize - position));
+			position += channel.write(zeros, position);
+		}
+		channel.force(true);
+	}
+
+	private static void unmap(MappedByteBuffer[] segments) {
+		if (segments == null) {
+			return;
+		}
+		for (MappedByteBuffer segment : segments) {
+			if (segment != null) {
+				unmap(segment);
+			}
+		}
+	}
+
+	/**
+	 * Releases the mapping without waiting for the buffer to be garbage collected. The buffer must not be used
+	 * afterwards. There is no public API for it: Unsafe.invokeCleaner() on Java 9 and later, the cleaner of the
+	 * buffer on Java 8.
+	 */
+	private static void unmap(MappedByteBuffer segment) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (NoSuchMethodException ex) {
+				Method cleanerMethod = segment.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(segment);
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+				return;
+			}
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), segment);
+		} catch (Exception ex) {
+			logger.debug("Cannot unmap journal segment, it is released once garbage collected - ex: ", ex);
+		}
+	}
+
+	private static long readGeneration(MappedByteBuffer segment) {
+		if (segment.getInt(0) != DiskJournal.MAGIC || segment.getInt(4) != DiskJournal.VERSION) {
+			return -1;
+		}
+		return segment.getLong(8);
+	}
+
+	private static void writeHeader(MappedByteBuffer segment, long generation) {
+		segment.putInt(4, DiskJournal.VERSION);
+		segment.putLong(8, generation);
+		segment.putInt(0, DiskJournal.MAGIC);
+	}
+
+}
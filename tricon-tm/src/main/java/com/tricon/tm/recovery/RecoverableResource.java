@@ -0,0 +1,19 @@
+package com.tricon.tm.recovery;
+
+import javax.transaction.xa.XAResource;
+
+/**
+ * Resource manager registered for recovery under a unique name. The recoverer acquires an XAResource
+ * at the beginning of every recovery run and releases it at the end, the BranchRetryScheduler does the same
+ * around every retry. Every successful getXAResource() call is paired with one release(), and both users
+ * may hold the resource at the same time.
+ */
+public interface RecoverableResource {
+
+	String getUniqueName();
+
+	XAResource getXAResource() throws Exception;
+
+	void release();
+
+}
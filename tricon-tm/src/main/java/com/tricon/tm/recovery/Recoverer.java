@@ -0,0 +1,494 @@
+package com.tricon.tm.recovery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Status;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.ConfigurationHelper;
+import com.tricon.tm.Service;
+import com.tricon.tm.SyncTransactionKey;
+import com.tricon.tm.TriconTransactionManagerServices;
+import com.tricon.tm.XidImpl;
+import com.tricon.tm.journal.Journal;
+import com.tricon.tm.journal.JournalRecord;
+import com.tricon.tm.timer.RecoveryTask;
+import com.tricon.tm.timer.TaskHandle;
+import com.tricon.tm.util.DecodingUtil;
+import com.tricon.tm.util.XidFactory;
+
+/**
+ * Resolves the in-doubt branches left by this transaction manager on the registered resources.
+ *
+ * <pre>
+ * 1. collect the dangling (COMMITTING) records of the journal
+ * 2. scan all resources in parallel with XAResource.recover() for prepared Tricon Xids of this server
+ * 3. skip the branches of transactions which are still running
+ * 4. commit the branches having a dangling record, roll back the others (presumed abort)
+ * 5. close a dangling record once every resource named by its branches has been recovered, possibly over
+ *    several runs as resources get registered
+ * </pre>
+ */
+public class Recoverer implements Runnable, Service {
+	private static Logger logger = LoggerFactory.getLogger(Recoverer.class);
+
+	private final Map<String, RecoverableResource> resources = new ConcurrentHashMap<String, RecoverableResource>();
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	private final int parallelism;
+	private final int intervalSeconds;
+	private ExecutorService scanExecutor;
+	// Guarded by 'this', the single pending recovery task
+	private TaskHandle recoveryTaskHandle;
+
+	// Only used by the running recovery: gtrid of a dangling record -> unique names of the resources recovered since
+	private final Map<SyncTransactionKey, Set<String>> recoveredResourceNames = new HashMap<SyncTransactionKey, Set<String>>();
+
+	private volatile int committedCount;
+	private volatile int rolledbackCount;
+	private volatile long lastRunDate;
+
+	public Recoverer() {
+		ConfigurationHelper configurationHelper = TriconTransactionManagerServices.getConfigurationHelper();
+		this.parallelism = Math.max(1, configurationHelper.getRecoveryParallelism());
+		this.intervalSeconds = configurationHelper.getRecoveryInterval();
+	}
+
+	public void registerResource(RecoverableResource resource) {
+		String uniqueName = resource.getUniqueName();
+		if (uniqueName == null) {
+			throw new IllegalArgumentException("Recoverable resource must have a unique name: " + resource);
+		}
+		RecoverableResource registered = resources.put(uniqueName, resource);
+		if (registered != null && registered != resource) {
+			logger.warn("Replaced recoverable resource registered with unique name: {}", uniqueName);
+		}
+		logger.info("Registered recoverable resource: {}", uniqueName);
+		scheduleRecovery(new Date());
+	}
+
+	public void unregisterResource(String uniqueName) {
+		if (resources.remove(uniqueName) != null) {
+			logger.info("Unregistered recoverable resource: {}", uniqueName);
+		}
+	}
+
+	public RecoverableResource getResource(String uniqueName) {
+		return resources.get(uniqueName);
+	}
+
+	public Collection<RecoverableResource> getResources() {
+		return resources.values();
+	}
+
+	public int getCommittedCount() {
+		return committedCount;
+	}
+
+	public int getRolledbackCount() {
+		return rolledbackCount;
+	}
+
+	public Date getLastRunDate() {
+		return lastRunDate == 0 ? null : new Date(lastRunDate);
+	}
+
+	public synchronized void scheduleRecovery(Date executionTime) {
+		if (recoveryTaskHandle != null) {
+			recoveryTaskHandle.cancel();
+		}
+		recoveryTaskHandle = TriconTransactionManagerServices.getTaskScheduler().schedule(
+				new RecoveryTask(this, executionTime));
+	}
+
+	/**
+	 * Called by an executed recovery task, schedules the periodic recovery unless a newer task is pending.
+	 */
+	public synchronized void scheduleNextRecovery(RecoveryTask executedTask) {
+		if (intervalSeconds <= 0 || recoveryTaskHandle == null || recoveryTaskHandle.getTask() != executedTask) {
+			return;
+		}
+		recoveryTaskHandle = TriconTransactionManagerServices.getTaskScheduler().schedule(
+				new RecoveryTask(this, new Date(System.currentTimeMillis() + intervalSeconds * 1000L)));
+	}
+
+	public void startRecovery() {
+		if (running.get()) {
+			logger.debug("Recovery is already running{}", ", skipping");
+			return;
+		}
+		Thread thread = new Thread(this, "tricon-tm-recovery");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run() {
+		if (!running.compareAndSet(false, true)) {
+			logger.debug("Recovery is already running{}", ", skipping");
+			return;
+		}
+		try {
+			recover();
+		} catch (Exception ex) {
+			logger.error("Recovery failed - ex: ", ex);
+		} finally {
+			lastRunDate = System.currentTimeMillis();
+			running.set(false);
+		}
+	}
+
+	public synchronized void shutdown() {
+		logger.info("Shutting down Recoverer{}", "..");
+		if (recoveryTaskHandle != null) {
+			recoveryTaskHandle.cancel();
+			recoveryTaskHandle = null;
+		}
+		if (scanExecutor != null) {
+			scanExecutor.shutdownNow();
+			scanExecutor = null;
+		}
+		logger.info("Recoverer is shutdown{}", ".");
+	}
+
+	private void recover() throws Exception {
+		final List<RecoverableResource> resourceList = new ArrayList<RecoverableResource>(resources.values());
+		if (resourceList.isEmpty()) {
+			logger.debug("No recoverable resource registered{}", ", skipping recovery");
+			return;
+		}
+		long startTime = System.currentTimeMillis();
+		final Journal journal = TriconTransactionManagerServices.getJournal();
+		final Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		logger.info("Recovering {} resource(s) with {} dangling record(s) in the journal",
+				resourceList.size(), danglingRecords.size());
+
+		// Phase 1 - scan all resources in parallel
+		XidFactory xidFactory = TriconTransactionManagerServices.getXidFactory();
+		final byte[] gtridPrefix = xidFactory.getGtridPrefix();
+		final byte[] compactGtridPrefix = xidFactory.getCompactGtridPrefix();
+		List<Callable<ResourceScan>> scanJobs = new ArrayList<Callable<ResourceScan>>();
+		for (final RecoverableResource resource : resourceList) {
+			scanJobs.add(new Callable<ResourceScan>() {
+				public ResourceScan call() {
+					return scan(resource, gtridPrefix, compactGtridPrefix);
+				}
+			});
+		}
+		List<ResourceScan> scans = waitFor(getScanExecutor().invokeAll(scanJobs));
+
+		// In-flight transactions are taken after the scan, any Xid found before belongs to one of them or is done
+		final Set<SyncTransactionKey> activeKeys = getActiveTransactionKeys();
+
+		// Phase 2 - resolve the in-doubt branches in parallel
+		List<Callable<ResourceScan>> resolveJobs = new ArrayList<Callable<ResourceScan>>();
+		for (final ResourceScan scan : scans) {
+			resolveJobs.add(new Callable<ResourceScan>() {
+				public ResourceScan call() {
+					return resolve(scan, danglingRecords, activeKeys);
+				}
+			});
+		}
+		scans = waitFor(getScanExecutor().invokeAll(resolveJobs));
+
+		int committed = 0, rolledback = 0, failed = 0;
+		Set<String> recoveredNames = new HashSet<String>();
+		for (ResourceScan scan : scans) {
+			committed += scan.committed;
+			rolledback += scan.rolledback;
+			if (scan.failed) {
+				failed++;
+			} else {
+				recoveredNames.add(scan.resource.getUniqueName());
+			}
+		}
+		committedCount += committed;
+		rolledbackCount += rolledback;
+
+		if (failed > 0) {
+			logger.warn("{} resource(s) could not be recovered, keeping their dangling records for the next run", failed);
+		}
+		closeDanglingRecords(journal, danglingRecords, activeKeys, recoveredNames, failed == 0);
+		logger.info("Recovery committed {} and rolled back {} branch(es) on {} resource(s) in {} ms",
+				new Object[] { committed, rolledback, resourceList.size(), System.currentTimeMillis() - startTime });
+	}
+
+	private ResourceScan scan(RecoverableResource resource, byte[] gtridPrefix, byte[] compactGtridPrefix) {
+		ResourceScan scan = new ResourceScan(resource);
+		try {
+			XAResource xaResource = resource.getXAResource();
+			scan.xaResource = xaResource;
+			// gives the resource manager of this resource a readable name, also used by the 2pc bulkheads
+			TriconTransactionManagerServices.getResourceManagerIdentifier().identify(resource.getUniqueName(), xaResource);
+
+			Set<XidImpl> found = new HashSet<XidImpl>();
+			try {
+				int flag = XAResource.TMSTARTRSCAN;
+				while (true) {
+					Xid[] xids = xaResource.recover(flag);
+					flag = XAResource.TMNOFLAGS;
+					if (xids == null || xids.length == 0) {
+						break;
+					}
+					int foundCount = found.size();
+					for (Xid xid : xids) {
+						if (XidImpl.isTriconXid(xid, gtridPrefix, compactGtridPrefix)) {
+							found.add(new XidImpl(xid.getFormatId(), xid.getGlobalTransactionId(), xid.getBranchQualifier()));
+						}
+					}
+					// some drivers return the whole list on every call
+					if (found.size() == foundCount) {
+						break;
+					}
+				}
+			} finally {
+				try {
+					xaResource.recover(XAResource.TMENDRSCAN);
+				} catch (XAException ex) {
+					logger.debug("Error ending recovery scan on {}, error={}", resource.getUniqueName(),
+							DecodingUtil.decodeXAExceptionErrorCode(ex));
+				}
+			}
+			scan.xids.addAll(found);
+			logger.debug("Found {} in-doubt branch(es) on resource {}", found.size(), resource.getUniqueName());
+		} catch (XAException ex) {
+			scan.failed = true;
+			logger.error("Error scanning resource {}, error={} - ex: ", new Object[] { resource.getUniqueName(),
+					DecodingUtil.decodeXAExceptionErrorCode(ex), ex });
+		} catch (Exception ex) {
+			scan.failed = true;
+			logger.error("Error scanning resource {} - ex: ", resource.getUniqueName(), ex);
+		}
+		return scan;
+	}
+
+	private ResourceScan resolve(ResourceScan scan, Map<SyncTransactionKey, JournalRecord> danglingRecords,
+			Set<SyncTransactionKey> activeKeys) {
+		if (scan.xaResource == null) {
+			return scan;
+		}
+		try {
+			for (XidImpl xid : scan.xids) {
+				SyncTransactionKey key = new SyncTransactionKey(xid.getGlobalTransactionId());
+				if (activeKeys.contains(key)) {
+					logger.debug("Skipping branch {} of in-flight transaction", xid);
+					continue;
+				}
+				try {
+					if (danglingRecords.containsKey(key)) {
+						commit(scan, xid);
+					} else {
+						rollback(scan, xid);
+					}
+				} catch (XAException ex) {
+					scan.failed = true;
+					logger.error("Error recovering branch {} on resource {}, error={} - ex: ", new Object[] { xid,
+							scan.resource.getUniqueName(), DecodingUtil.decodeXAExceptionErrorCode(ex), ex });
+				}
+			}
+		} finally {
+			scan.resource.release();
+		}
+		return scan;
+	}
+
+	private void commit(ResourceScan scan, XidImpl xid) throws XAException {
+		logger.info("Committing in-doubt branch {} on resource {}", xid, scan.resource.getUniqueName());
+		try {
+			scan.xaResource.commit(xid, false);
+			scan.committed++;
+		} catch (XAException ex) {
+			switch (ex.errorCode) {
+				case XAException.XAER_NOTA:
+					logger.debug("Branch {} is already completed", xid);
+					return;
+				case XAException.XA_HEURCOM:
+					forget(scan, xid);
+					scan.committed++;
+					return;
+				case XAException.XA_HEURRB:
+				case XAException.XA_HEURMIX:
+				case XAException.XA_HEURHAZ:
+					logger.error("Heuristic outcome {} is incompatible with the commit decision of branch {} on resource {}",
+							new Object[] { DecodingUtil.decodeXAExceptionErrorCode(ex), xid, scan.resource.getUniqueName() });
+					throw ex;
+				default:
+					throw ex;
+			}
+		}
+	}
+
+	private void rollback(ResourceScan scan, XidImpl xid) throws XAException {
+		logger.info("Rolling back in-doubt branch {} on resource {} (presumed abort)", xid, scan.resource.getUniqueName());
+		try {
+			scan.xaResource.rollback(xid);
+			scan.rolledback++;
+		} catch (XAException ex) {
+			switch (ex.errorCode) {
+				case XAException.XAER_NOTA:
+					logger.debug("Branch {} is already completed", xid);
+					return;
+				case XAException.XA_HEURRB:
+					forget(scan, xid);
+					scan.rolledback++;
+					return;
+				case XAException.XA_HEURCOM:
+				case XAException.XA_HEURMIX:
+				case XAException.XA_HEURHAZ:
+					logger.error("Heuristic outcome {} is incompatible with the rollback decision of branch {} on resource {}",
+							new Object[] { DecodingUtil.decodeXAExceptionErrorCode(ex), xid, scan.resource.getUniqueName() });
+					throw ex;
+				default:
+					throw ex;
+			}
+		}
+	}
+
+	private void forget(ResourceScan scan, XidImpl xid) {
+		try {
+			scan.xaResource.forget(xid);
+		} catch (XAException ex) {
+			logger.error("Cannot forget branch {} on resource {}, error={}", new Object[] { xid,
+					scan.resource.getUniqueName(), DecodingUtil.decodeXAExceptionErrorCode(ex) });
+		}
+	}
+
+	/**
+	 * Credits the dangling records with the resources recovered by this run and closes the records whose resources
+	 * have all been recovered. A branch of a resource not registered for recovery has no name, its record is only
+	 * closed by a run recovering every registered resource.
+	 */
+	private void closeDanglingRecords(Journal journal, Map<SyncTransactionKey, JournalRecord> danglingRecords,
+			Set<SyncTransactionKey> activeKeys, Set<String> recoveredNames, boolean allRecovered) {
+		// forget the records closed since the previous run
+		recoveredResourceNames.keySet().retainAll(danglingRecords.keySet());
+		for (Map.Entry<SyncTransactionKey, JournalRecord> entry : danglingRecords.entrySet()) {
+			SyncTransactionKey key = entry.getKey();
+			if (activeKeys.contains(key)) {
+				continue;
+			}
+			Set<String> credited = recoveredResourceNames.get(key);
+			if (credited == null) {
+				credited = new HashSet<String>();
+				recoveredResourceNames.put(key, credited);
+			}
+			credited.addAll(recoveredNames);
+
+			JournalRecord record = entry.getValue();
+			Set<String> pendingNames = new HashSet<String>();
+			boolean unnamed = false;
+			String lastResourceName = null;
+			for (int i = 0; i < record.getResourceNames().size(); i++) {
+				String resourceName = record.getResourceNames().get(i);
+				if (JournalRecord.isLastResourceBranch(record.getBranchQualifiers().get(i))) {
+					// not an XA branch, nothing to recover
+					lastResourceName = resourceName;
+				} else if (resourceName == null) {
+					unnamed = true;
+				} else if (!credited.contains(resourceName)) {
+					pendingNames.add(resourceName);
+				}
+			}
+			if (!pendingNames.isEmpty() || (unnamed && !allRecovered)) {
+				logger.debug("Keeping dangling record {} until resource(s) {} are recovered", record, pendingNames);
+				continue;
+			}
+			if (unnamed) {
+				logger.warn("Closing dangling record {} having branch(es) of resource(s) not registered for recovery",
+						record);
+			}
+			if (lastResourceName != null) {
+				// the crash may have come before its local commit, which nobody can redo
+				logger.warn("Committed the branches of dangling record {}, check that its last resource {} committed"
+						+ " as well", record, lastResourceName);
+			}
+			try {
+				journal.log(Status.STATUS_COMMITTED, record.getGlobalTransactionId(), record.getBranchQualifiers(),
+						record.getResourceNames());
+				recoveredResourceNames.remove(key);
+			} catch (Exception ex) {
+				logger.error("Cannot close dangling record {} - ex: ", record, ex);
+			}
+		}
+	}
+
+	private static Set<SyncTransactionKey> getActiveTransactionKeys() {
+		Set<SyncTransactionKey> activeKeys = new HashSet<SyncTransactionKey>(
+				TriconTransactionManagerServices.getTransactionManager().getActiveTransactionsByGtrid().keySet());
+		// Completed for the application but still committing in the background
+		activeKeys.addAll(TriconTransactionManagerServices.getCommitPhaseExecutor().getBackgroundCommitKeys());
+		activeKeys.addAll(TriconTransactionManagerServices.getBranchRetryScheduler().getPendingKeys());
+		return activeKeys;
+	}
+
+	private synchronized ExecutorService getScanExecutor() {
+		if (scanExecutor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			scanExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "tricon-tm-recovery-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scanExecutor;
+	}
+
+	private static List<ResourceScan> waitFor(List<Future<ResourceScan>> futures) throws RecoveryException {
+		final List<ResourceScan> scans = new ArrayList<ResourceScan>(futures.size());
+		for (Future<ResourceScan> future : futures) {
+			try {
+				scans.add(future.get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RecoveryException("Interrupted while waiting for recovery jobs", ex);
+			} catch (ExecutionException ex) {
+				throw new RecoveryException("Recovery job failed", ex.getCause());
+			}
+		}
+		return scans;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("resources=").append(resources.keySet())
+				.append(", committedCount=").append(committedCount)
+				.append(", rolledbackCount=").append(rolledbackCount)
+				.append("]").toString();
+	}
+
+	private static final class ResourceScan {
+		private final RecoverableResource resource;
+		private final List<XidImpl> xids = new ArrayList<XidImpl>();
+		private XAResource xaResource;
+		private boolean failed;
+		private int committed;
+		private int rolledback;
+
+		private ResourceScan(RecoverableResource resource) {
+			this.resource = resource;
+		}
+	}
+
+}
@@ -0,0 +1,13 @@
+package com.tricon.tm.recovery;
+
+public class RecoveryException extends Exception {
+	private static final long serialVersionUID = -6770172486286761201L;
+
+	public RecoveryException(String message) {
+		super(message);
+	}
+
+	public RecoveryException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -58,8 +58,9 @@ public class DBCPDataSourceFactory implements ObjectFactory {
 		// Note:- We can create XADataSource for different database type also based on dynamic resource parameter.
 		final OracleXADataSource xaDataSource = createOracleXADataSource(resourceConfigMap);
 
-		DataSourceXAConnectionFactory connFactory =
-				new DataSourceXAConnectionFactory(transactionManager, xaDataSource);
+		// the enlisted resources are registered under the unique name of the recoverable resource below
+		DataSourceXAConnectionFactory connFactory = new DataSourceXAConnectionFactory(transactionManager,
+				new NamedXADataSource(resourceConfigMap.get("uniqueName"), xaDataSource));
 
 		GenericObjectPool pool = new GenericObjectPool();
 		pool.setMaxActive(Integer.parseInt(resourceConfigMap.get("maxActive")));
@@ -71,6 +72,9 @@ public class DBCPDataSourceFactory implements ObjectFactory {
 
 		logger.debug("Inside createPooledXADataSource() - uniqueName: {}, dataSource: {}",
 				xaDataSource.getDataSourceName(), pooledXADataSource);
+
+		TriconTransactionManagerServices.getRecoverer().registerResource(
+				new XADataSourceRecoverableResource(resourceConfigMap.get("uniqueName"), xaDataSource));
 		return pooledXADataSource;
 	}
 
@@ -0,0 +1,108 @@
+package com.tricon.tm.resource.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.ConnectionEventListener;
+import javax.sql.StatementEventListener;
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAResource;
+
+import com.tricon.tm.TriconTransactionManagerServices;
+
+/**
+ * XADataSource registering the XAResource of every connection it opens under the unique name of its recoverable
+ * resource, so the branches of those connections can be tied to that resource (see ResourceNameRegistry).
+ */
+public class NamedXADataSource implements XADataSource {
+	private final String uniqueName;
+	private final XADataSource xaDataSource;
+
+	public NamedXADataSource(String uniqueName, XADataSource xaDataSource) {
+		this.uniqueName = uniqueName;
+		this.xaDataSource = xaDataSource;
+	}
+
+	public String getUniqueName() {
+		return uniqueName;
+	}
+
+	public XAConnection getXAConnection() throws SQLException {
+		return new NamedXAConnection(xaDataSource.getXAConnection());
+	}
+
+	public XAConnection getXAConnection(String user, String password) throws SQLException {
+		return new NamedXAConnection(xaDataSource.getXAConnection(user, password));
+	}
+
+	public PrintWriter getLogWriter() throws SQLException {
+		return xaDataSource.getLogWriter();
+	}
+
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		xaDataSource.setLogWriter(out);
+	}
+
+	public void setLoginTimeout(int seconds) throws SQLException {
+		xaDataSource.setLoginTimeout(seconds);
+	}
+
+	public int getLoginTimeout() throws SQLException {
+		return xaDataSource.getLoginTimeout();
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return xaDataSource.getParentLogger();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("uniqueName=").append(uniqueName)
+				.append(", xaDataSource=").append(xaDataSource)
+				.append("]").toString();
+	}
+
+	private final class NamedXAConnection implements XAConnection {
+		private final XAConnection xaConnection;
+
+		private NamedXAConnection(XAConnection xaConnection) {
+			this.xaConnection = xaConnection;
+		}
+
+		public XAResource getXAResource() throws SQLException {
+			XAResource xaResource = xaConnection.getXAResource();
+			TriconTransactionManagerServices.getResourceNameRegistry().register(uniqueName, xaResource);
+			return xaResource;
+		}
+
+		public Connection getConnection() throws SQLException {
+			return xaConnection.getConnection();
+		}
+
+		public void close() throws SQLException {
+			xaConnection.close();
+		}
+
+		public void addConnectionEventListener(ConnectionEventListener listener) {
+			xaConnection.addConnectionEventListener(listener);
+		}
+
+		public void removeConnectionEventListener(ConnectionEventListener listener) {
+			xaConnection.removeConnectionEventListener(listener);
+		}
+
+		public void addStatementEventListener(StatementEventListener listener) {
+			xaConnection.addStatementEventListener(listener);
+		}
+
+		public void removeStatementEventListener(StatementEventListener listener) {
+			xaConnection.removeStatementEventListener(listener);
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.tricon.tm.timer;
+
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.internal.XAResourceInfo;
+import com.tricon.tm.twopc.BranchRetryScheduler;
+
+public class BranchRetryTask extends ScheduledTask {
+	private static Logger logger = LoggerFactory.getLogger(BranchRetryTask.class);
+
+	private BranchRetryScheduler branchRetryScheduler;
+	private TransactionImpl transaction;
+	private XAResourceInfo xaResourceInfo;
+	private int attempt;
+
+	public BranchRetryTask(BranchRetryScheduler branchRetryScheduler, TransactionImpl transaction,
+			XAResourceInfo xaResourceInfo, int attempt, Date executionTime) {
+		super(executionTime);
+		this.branchRetryScheduler = branchRetryScheduler;
+		this.transaction = transaction;
+		this.xaResourceInfo = xaResourceInfo;
+		this.attempt = attempt;
+	}
+
+	public Object getObject() {
+		return transaction;
+	}
+
+	public void execute() throws TaskException {
+		try {
+			branchRetryScheduler.retryDue(transaction, xaResourceInfo, attempt);
+		} catch (Exception ex) {
+			logger.error("Failed to retry branch {} of transaction: {}", xaResourceInfo, transaction);
+			throw new TaskException("Failed to retry branch " + xaResourceInfo + " of " + transaction, ex);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("transaction=").append(transaction)
+				.append(", xaResourceInfo=").append(xaResourceInfo)
+				.append(", attempt=").append(attempt)
+				.append(", executionTime=").append(getExecutionTime())
+				.append("]").toString();
+	}
+
+}
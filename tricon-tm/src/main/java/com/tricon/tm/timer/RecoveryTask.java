@@ -0,0 +1,44 @@
+package com.tricon.tm.timer;
+
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.recovery.Recoverer;
+
+public class RecoveryTask extends ScheduledTask {
+	private static Logger logger = LoggerFactory.getLogger(RecoveryTask.class);
+
+	private Recoverer recoverer;
+
+	public RecoveryTask(Recoverer recoverer, Date executionTime) {
+		super(executionTime);
+		this.recoverer = recoverer;
+	}
+
+	public Object getObject() {
+		return recoverer;
+	}
+
+	public void execute() throws TaskException {
+		try {
+			// Recovery does network round trips, keep it off the scheduler thread
+			recoverer.startRecovery();
+		} catch (Exception ex) {
+			logger.error("Failed to start recovery with recoverer: {}", recoverer);
+			throw new TaskException("Failed to start recovery with " + recoverer, ex);
+		} finally {
+			recoverer.scheduleNextRecovery(this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("recoverer=").append(recoverer)
+				.append(", executionTime=").append(getExecutionTime())
+				.append("]").toString();
+	}
+
+}
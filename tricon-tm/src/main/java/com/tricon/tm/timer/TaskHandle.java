@@ -0,0 +1,20 @@
+package com.tricon.tm.timer;
+
+/**
+ * Handle of a task scheduled on the {@link TaskScheduler}.
+ */
+public interface TaskHandle {
+	Task getTask();
+
+	/**
+	 * Cancels the task unless it has already been executed or cancelled. Cancelling never blocks,
+	 * the scheduler thread unlinks the task later on.
+	 *
+	 * @return true if the task will not be executed because of this call
+	 */
+	boolean cancel();
+
+	boolean isCancelled();
+
+	boolean isExpired();
+}
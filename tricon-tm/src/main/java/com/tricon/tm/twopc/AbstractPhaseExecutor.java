@@ -1,125 +1,254 @@
-package com.tricon.tm.twopc;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.tricon.tm.internal.exception.TriconRuntimeException;
-import com.tricon.tm.internal.XAResourceInfo;
-import com.tricon.tm.internal.XAResourceManager;
-import com.tricon.tm.util.DecodingUtil;
-
-public abstract class AbstractPhaseExecutor {
-	private static Logger logger = LoggerFactory.getLogger(AbstractPhaseExecutor.class);
-
-	private ExecutorService executorService;
-
-	public AbstractPhaseExecutor(ExecutorService executorService) {
-		this.executorService = executorService;
-	}
-
-	protected void executePhase(final XAResourceManager resourceManager) throws PhaseException {
-		JobExecutionResult report = createAndExecuteJobs(resourceManager.getAllXAResourceInfoList());
-		if (report.getResourceExceptionMap().size() > 0) {
-			throw new PhaseException(report.getResourceExceptionMap());
-		}
-	}
-
-	protected abstract Job createJob(XAResourceInfo xaResourceInfo);
-
-	protected abstract boolean isParticipating(XAResourceInfo xaResourceInfo);
-
-	@SuppressWarnings("rawtypes")
-	protected void logFailedResources(PhaseException ex) {
-		logger.debug("Logging failed resoures {}", "..");
-		Iterator itr = ex.getResourceExceptionMap().entrySet().iterator();
-		while (itr.hasNext()) {
-			Map.Entry mapEntry = (Map.Entry) itr.next();
-			XAResourceInfo xaResourceInfo = (XAResourceInfo) mapEntry.getKey();
-			Throwable throwable = (Throwable) mapEntry.getValue();
-			logger.error("Resource {} failed on transaction {} - ex: {}",
-					new Object[] { xaResourceInfo, xaResourceInfo.getXid(), throwable });
-		}
-	}
-
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private JobExecutionResult createAndExecuteJobs(final List<XAResourceInfo> resources) {
-		final List jobs = new ArrayList();
-		final Map resourceExceptionMap = new LinkedHashMap();
-
-		// add jobs for execution by starting the threads
-		for (final XAResourceInfo xaResourceInfo : resources) {
-			if (!isParticipating(xaResourceInfo)) {
-				logger.debug("Skipping non-participating resource {}", xaResourceInfo);
-				continue;
-			}
-			Job job = createJob(xaResourceInfo);
-			Future<?> future = executorService.submit(job);
-			job.setFuture(future);
-			jobs.add(job);
-		}
-
-		// wait for threads to finish all the jobs and check results
-		for (int i = 0; i < jobs.size(); i++) {
-			final Job job = (Job) jobs.get(i);
-			Future<?> future = job.getFuture();
-			while (!future.isDone()) {
-				try {
-					future.get(1000l, TimeUnit.MILLISECONDS);
-				} catch (InterruptedException ie) {
-					logger.error("InterruptedException while calling get() on Future: {} - ex: {}", future, ie);
-					throw new TriconRuntimeException("Error calling get() on Future: " + future + " - ex: ", ie);
-				} catch (ExecutionException ee) {
-					logger.error("ExecutionException while calling get() on Future: {} - ex: {}", future, ee);
-					throw new TriconRuntimeException("Error calling get() on Future: " + future + " - ex: ", ee);
-				} catch (TimeoutException te) {
-					logger.error("TimeoutException while calling get() on Future: {} - ex: {}", future, te);
-					// Ignore exception
-				}
-			}
-			populateResourceExceptionMap(job, resourceExceptionMap);
-		}
-		logger.debug("Phase executed with {} exception(s)", resourceExceptionMap.size());
-		return new JobExecutionResult(resourceExceptionMap);
-	}
-
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private void populateResourceExceptionMap(final Job job, final Map resourceExceptionMap) {
-		if (job.getXAException() != null) {
-			logger.error("Error while executing job: {}, errorCode={}",
-					job, DecodingUtil.decodeXAExceptionErrorCode(job.getXAException()));
-			resourceExceptionMap.put(job.getXAResourceInfo(), job.getXAException());
-
-		} else if (job.getRuntimeException() != null) {
-			logger.error("Error while executing job: {}", job);
-			resourceExceptionMap.put(job.getXAResourceInfo(), job.getRuntimeException());
-		}
-	}
-
-	private static final class JobExecutionResult {
-		private Map resourceExceptionMap;
-
-		private JobExecutionResult(Map resourceExceptionMap) {
-			this.resourceExceptionMap = resourceExceptionMap;
-		}
-
-		public Map getResourceExceptionMap() {
-			return resourceExceptionMap;
-		}
-
-		public void setResourceExceptionMap(Map resourceExceptionMap) {
-			this.resourceExceptionMap = resourceExceptionMap;
-		}
-	}
-
-}
+package com.tricon.tm.twopc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.XAException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.internal.exception.TriconRuntimeException;
+import com.tricon.tm.internal.exception.TriconSystemException;
+import com.tricon.tm.internal.exception.TriconXAException;
+import com.tricon.tm.internal.XAResourceInfo;
+import com.tricon.tm.util.DecodingUtil;
+
+public abstract class AbstractPhaseExecutor {
+	private static Logger logger = LoggerFactory.getLogger(AbstractPhaseExecutor.class);
+
+	private final ExecutorService executorService;
+	private final ResourceManagerBulkheads bulkheads;
+
+	/**
+	 * @param bulkheads limits the jobs running at once per resource manager, null for no limit
+	 */
+	public AbstractPhaseExecutor(ExecutorService executorService, ResourceManagerBulkheads bulkheads) {
+		this.executorService = executorService;
+		this.bulkheads = bulkheads;
+	}
+
+	protected void executePhase(final PhaseContext context) throws PhaseException {
+		JobExecutionResult report = createAndExecuteJobs(context, context.getParticipatingResources());
+		if (report.getResourceExceptionMap().size() > 0) {
+			throw new PhaseException(report.getResourceExceptionMap(), report.getAbandonedResources());
+		}
+	}
+
+	protected abstract Job createJob(PhaseContext context, XAResourceInfo xaResourceInfo);
+
+	/**
+	 * Seconds to wait for all participating resources to answer, 0 waits without deadline.
+	 */
+	protected abstract int getPhaseTimeout();
+
+	/**
+	 * When true, the first failing job ends the phase without waiting for the others, only the job run by the
+	 * calling thread is always waited for.
+	 */
+	protected boolean isFailFast() {
+		return false;
+	}
+
+	/**
+	 * Sets the final status of a transaction whose branches are all completed and logs its outcome record. That
+	 * record only lets the journal forget the commit decision, so failing to write it must not report a failure:
+	 * recovery completes the branches again and the completed ones answer XAER_NOTA.
+	 */
+	protected void logOutcome(TransactionImpl transaction, int status) {
+		try {
+			transaction.setStatusAndLogRecord(status);
+		} catch (TriconSystemException ex) {
+			logger.error("Cannot log the outcome of completed transaction {}, leaving its record to recovery - ex: ",
+					transaction, ex);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected void logFailedResources(PhaseException ex) {
+		logger.debug("Logging failed resoures {}", "..");
+		Iterator itr = ex.getResourceExceptionMap().entrySet().iterator();
+		while (itr.hasNext()) {
+			Map.Entry mapEntry = (Map.Entry) itr.next();
+			XAResourceInfo xaResourceInfo = (XAResourceInfo) mapEntry.getKey();
+			Throwable throwable = (Throwable) mapEntry.getValue();
+			logger.error("Resource {} failed on transaction {} - ex: {}",
+					new Object[] { xaResourceInfo, xaResourceInfo.getXid(), throwable });
+		}
+	}
+
+	/**
+	 * Whether the outcome of this phase is the one recovery would give the transaction should this process die,
+	 * so its branches can be left to the BranchRetryScheduler without a caller waiting for them.
+	 */
+	protected boolean isOutcomeRecoverable(TransactionImpl transaction) {
+		return false;
+	}
+
+	/**
+	 * Takes the resources which failed with a transient error (XAER_RMFAIL, XA_RETRY) out of the exception map,
+	 * so they can be handed to the BranchRetryScheduler. Resources whose job was abandoned are left in the map,
+	 * their job may still be running. Nothing is taken out unless isOutcomeRecoverable(): the failures are then
+	 * reported to the caller.
+	 */
+	@SuppressWarnings("rawtypes")
+	protected List<XAResourceInfo> removeRetryableFailures(TransactionImpl transaction, PhaseException ex) {
+		final List<XAResourceInfo> retryableResources = new ArrayList<XAResourceInfo>();
+		if (!isOutcomeRecoverable(transaction)) {
+			logger.debug("Outcome of {} is not recoverable, not retrying its failed resources", transaction);
+			return retryableResources;
+		}
+		Iterator itr = ex.getResourceExceptionMap().entrySet().iterator();
+		while (itr.hasNext()) {
+			Map.Entry mapEntry = (Map.Entry) itr.next();
+			XAResourceInfo xaResourceInfo = (XAResourceInfo) mapEntry.getKey();
+			if (mapEntry.getValue() instanceof XAException && !ex.getAbandonedResources().contains(xaResourceInfo)) {
+				int errorCode = ((XAException) mapEntry.getValue()).errorCode;
+				if (errorCode == XAException.XAER_RMFAIL || errorCode == XAException.XA_RETRY) {
+					retryableResources.add(xaResourceInfo);
+					itr.remove();
+				}
+			}
+		}
+		return retryableResources;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private JobExecutionResult createAndExecuteJobs(final PhaseContext context, final List<XAResourceInfo> resources) {
+		final List jobs = new ArrayList(resources.size());
+		final Map resourceExceptionMap = new LinkedHashMap();
+		final List<XAResourceInfo> abandonedResources = new ArrayList<XAResourceInfo>();
+		final boolean failFast = isFailFast();
+
+		for (final XAResourceInfo xaResourceInfo : resources) {
+			if (!context.isParticipating(xaResourceInfo)) {
+				logger.debug("Skipping non-participating resource {}", xaResourceInfo);
+				continue;
+			}
+			jobs.add(createJob(context, xaResourceInfo));
+		}
+
+		// every job counts down when it finishes, the last one to answer wakes up this thread
+		final CountDownLatch completionLatch = new CountDownLatch(jobs.size());
+		// this thread would only block waiting, so it runs the last job itself; with fail-fast, a job failing
+		// meanwhile releases the latch, so the jobs still running are abandoned as soon as this one returns
+		final boolean runLastJob = !jobs.isEmpty();
+		final int submittedCount = runLastJob ? jobs.size() - 1 : jobs.size();
+		for (int i = 0; i < submittedCount; i++) {
+			final Job job = (Job) jobs.get(i);
+			job.setCompletionLatch(completionLatch, failFast);
+			submit(job);
+		}
+
+		// a single job never reaches the executor unless its resource manager is already at its limit
+		if (runLastJob) {
+			final Job job = (Job) jobs.get(submittedCount);
+			job.setCompletionLatch(completionLatch, failFast);
+			if (bulkheads == null) {
+				job.run();
+			} else if (!bulkheads.tryRun(job)) {
+				bulkheads.submit(job);
+			}
+		}
+
+		boolean timedOut = !awaitCompletion(completionLatch);
+
+		for (int i = 0; i < jobs.size(); i++) {
+			final Job job = (Job) jobs.get(i);
+			if (!job.abandon()) {
+				populateResourceExceptionMap(job, resourceExceptionMap);
+			} else if (timedOut) {
+				logger.error("Job: {} did not complete within {} second(s)", job, getPhaseTimeout());
+				abandonedResources.add(job.getXAResourceInfo());
+				resourceExceptionMap.put(job.getXAResourceInfo(), new TriconXAException("Resource "
+						+ job.getXAResourceInfo() + " did not answer within " + getPhaseTimeout() + " second(s)",
+						XAException.XAER_RMFAIL));
+			} else {
+				logger.debug("Job: {} abandoned after a failure in the same phase", job);
+				abandonedResources.add(job.getXAResourceInfo());
+			}
+		}
+		logger.debug("Phase executed with {} exception(s), {} abandoned job(s)", resourceExceptionMap.size(),
+				abandonedResources.size());
+		return new JobExecutionResult(resourceExceptionMap, abandonedResources);
+	}
+
+	private void submit(final Job job) {
+		if (bulkheads != null) {
+			bulkheads.submit(job);
+			return;
+		}
+		try {
+			job.setFuture(executorService.submit(job));
+		} catch (RejectedExecutionException ex) {
+			logger.error("Could not submit job: {} - ex: {}", job, ex);
+			job.reject(ex);
+		}
+	}
+
+	/**
+	 * @return false if the phase timeout expired before all jobs completed
+	 */
+	private boolean awaitCompletion(final CountDownLatch completionLatch) {
+		int phaseTimeout = getPhaseTimeout();
+		try {
+			if (phaseTimeout <= 0) {
+				completionLatch.await();
+			} else if (!completionLatch.await(phaseTimeout, TimeUnit.SECONDS)) {
+				logger.warn("{} job(s) still running after the phase timeout of {} second(s)",
+						completionLatch.getCount(), phaseTimeout);
+				return false;
+			}
+			return true;
+		} catch (InterruptedException ie) {
+			logger.error("Interrupted while waiting for {} job(s) - ex: {}", completionLatch.getCount(), ie);
+			Thread.currentThread().interrupt();
+			throw new TriconRuntimeException("Interrupted while waiting for " + completionLatch.getCount()
+					+ " job(s) to complete", ie);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void populateResourceExceptionMap(final Job job, final Map resourceExceptionMap) {
+		if (job.getXAException() != null) {
+			logger.error("Error while executing job: {}, errorCode={}",
+					job, DecodingUtil.decodeXAExceptionErrorCode(job.getXAException()));
+			resourceExceptionMap.put(job.getXAResourceInfo(), job.getXAException());
+
+		} else if (job.getRuntimeException() != null) {
+			logger.error("Error while executing job: {}", job);
+			resourceExceptionMap.put(job.getXAResourceInfo(), job.getRuntimeException());
+		}
+	}
+
+	private static final class JobExecutionResult {
+		private Map resourceExceptionMap;
+		private List<XAResourceInfo> abandonedResources;
+
+		private JobExecutionResult(Map resourceExceptionMap, List<XAResourceInfo> abandonedResources) {
+			this.resourceExceptionMap = resourceExceptionMap;
+			this.abandonedResources = abandonedResources;
+		}
+
+		public List<XAResourceInfo> getAbandonedResources() {
+			return abandonedResources;
+		}
+
+		public Map getResourceExceptionMap() {
+			return resourceExceptionMap;
+		}
+
+		public void setResourceExceptionMap(Map resourceExceptionMap) {
+			this.resourceExceptionMap = resourceExceptionMap;
+		}
+	}
+
+}
@@ -0,0 +1,368 @@
+package com.tricon.tm.twopc;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Status;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tricon.tm.ConfigurationHelper;
+import com.tricon.tm.Service;
+import com.tricon.tm.SyncTransactionKey;
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManagerServices;
+import com.tricon.tm.internal.XAResourceInfo;
+import com.tricon.tm.internal.exception.TriconSystemException;
+import com.tricon.tm.recovery.RecoverableResource;
+import com.tricon.tm.timer.BranchRetryTask;
+import com.tricon.tm.util.DecodingUtil;
+
+/**
+ * Re-drives phase 2 on branches which failed with a transient error (XAER_RMFAIL, XA_RETRY), so a short outage of
+ * a resource manager resolves within seconds, without operator action and without blocking the caller. The
+ * XAResource enlisted in the transaction is not reused: its connection may be dead or back in its pool, serving
+ * another transaction. Like recovery, a retry goes through the RecoverableResource registered under the unique name
+ * of the branch; a branch without one is left to recovery. The phase executors only hand over branches of a
+ * transaction whose outcome recovery would pick as well, a commit needs a durable commit decision.
+ *
+ * <pre>
+ * backoff   attempt n waits between half and all of min(tricon.tm.retry.maxDelay, tricon.tm.retry.initialDelay * 2^n),
+ *           the jitter spreads the retries of the transactions which failed together
+ * cap       at most tricon.tm.retry.maxConcurrentPerResource retries run at once against one resource manager, due retries
+ *           queue up behind them
+ * outcome   the COMMITTED/ROLLEDBACK record is logged once every branch of the transaction succeeded, a branch still
+ *           failing after tricon.tm.retry.maxAttempts leaves the transaction to recovery
+ * </pre>
+ */
+public class BranchRetryScheduler implements Service {
+	private static Logger logger = LoggerFactory.getLogger(BranchRetryScheduler.class);
+
+	private final long initialDelay;
+	private final long maxDelay;
+	private final int maxAttempts;
+	private final int maxConcurrentPerResource;
+
+	// Transactions with branches still being retried
+	private final Map<SyncTransactionKey, PendingOutcome> pendingOutcomes = new ConcurrentHashMap<SyncTransactionKey, PendingOutcome>();
+	// Keyed by the unique name of the recoverable resource
+	private final ConcurrentHashMap<String, ResourceRetries> resourceRetries = new ConcurrentHashMap<String, ResourceRetries>();
+	private final AtomicBoolean active = new AtomicBoolean(true);
+
+	public BranchRetryScheduler() {
+		ConfigurationHelper configurationHelper = TriconTransactionManagerServices.getConfigurationHelper();
+		this.initialDelay = Math.max(1, configurationHelper.getRetryInitialDelay());
+		this.maxDelay = Math.max(initialDelay, configurationHelper.getRetryMaxDelay());
+		this.maxAttempts = Math.max(1, configurationHelper.getRetryMaxAttempts());
+		this.maxConcurrentPerResource = Math.max(1, configurationHelper.getRetryMaxConcurrentPerResource());
+	}
+
+	/**
+	 * Retries the commit of the given prepared branches of a transaction whose outcome is commit.
+	 *
+	 * @param unresolved true if other branches of the transaction failed for good, the outcome is then left to
+	 *        recovery even if all retries succeed
+	 */
+	public void retryCommit(TransactionImpl transaction, List<XAResourceInfo> resources, boolean unresolved) {
+		schedule(new PendingOutcome(transaction, true, resources.size(), unresolved), resources);
+	}
+
+	/**
+	 * Retries the rollback of the given branches, see retryCommit().
+	 */
+	public void retryRollback(TransactionImpl transaction, List<XAResourceInfo> resources, boolean unresolved) {
+		schedule(new PendingOutcome(transaction, false, resources.size(), unresolved), resources);
+	}
+
+	public Set<SyncTransactionKey> getPendingKeys() {
+		return Collections.unmodifiableSet(pendingOutcomes.keySet());
+	}
+
+	public int getPendingCount() {
+		return pendingOutcomes.size();
+	}
+
+	public void shutdown() {
+		logger.info("Shutting down BranchRetryScheduler{}", "..");
+		active.set(false);
+		if (!pendingOutcomes.isEmpty()) {
+			logger.warn("{} transaction(s) with branches still being retried are left to recovery", pendingOutcomes.size());
+		}
+		logger.info("BranchRetryScheduler is shutdown{}", ".");
+	}
+
+	/**
+	 * Called by the task scheduler when the backoff delay of a retry expired.
+	 */
+	public void retryDue(TransactionImpl transaction, XAResourceInfo xaResourceInfo, int attempt) {
+		PendingOutcome outcome = pendingOutcomes.get(transaction.getSyncTransactionkey());
+		if (outcome == null || !active.get()) {
+			return;
+		}
+		ResourceRetries retries = getResourceRetries(xaResourceInfo.getUniqueName());
+		retries.waiting.add(new BranchRetry(outcome, xaResourceInfo, attempt));
+		dispatch(retries);
+	}
+
+	private void schedule(PendingOutcome outcome, List<XAResourceInfo> resources) {
+		pendingOutcomes.put(outcome.transaction.getSyncTransactionkey(), outcome);
+		logger.info("Retrying {} of {} branch(es) of {} in the background",
+				new Object[] { outcome.getPhaseName(), resources.size(), outcome.transaction });
+		for (XAResourceInfo xaResourceInfo : resources) {
+			if (xaResourceInfo.getUniqueName() == null) {
+				logger.warn("Branch {} has no recoverable resource to {} it through, leaving it to recovery",
+						xaResourceInfo, outcome.getPhaseName());
+				branchResolved(outcome, false);
+				continue;
+			}
+			scheduleAttempt(outcome, xaResourceInfo, 0);
+		}
+	}
+
+	private void scheduleAttempt(PendingOutcome outcome, XAResourceInfo xaResourceInfo, int attempt) {
+		long delay = Math.min(maxDelay, initialDelay << Math.min(attempt, 30));
+		// equal jitter: never less than half the backoff, so retries keep backing off
+		long jitteredDelay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		logger.debug("Attempt {} to {} {} in {} ms",
+				new Object[] { attempt + 1, outcome.getPhaseName(), xaResourceInfo, jitteredDelay });
+		TriconTransactionManagerServices.getTaskScheduler().schedule(new BranchRetryTask(this, outcome.transaction,
+				xaResourceInfo, attempt, new Date(System.currentTimeMillis() + jitteredDelay)));
+	}
+
+	/**
+	 * Starts waiting retries of a resource as long as it has free slots. Called whenever a retry is queued or a
+	 * running one ends, so no queued retry is left behind.
+	 */
+	private void dispatch(ResourceRetries retries) {
+		while (!retries.waiting.isEmpty()) {
+			int running = retries.running.get();
+			if (running >= maxConcurrentPerResource) {
+				return;
+			}
+			if (!retries.running.compareAndSet(running, running + 1)) {
+				continue;
+			}
+			BranchRetry retry = retries.waiting.poll();
+			if (retry == null) {
+				retries.running.decrementAndGet();
+				continue;
+			}
+			submit(retries, retry);
+		}
+	}
+
+	private void submit(final ResourceRetries retries, final BranchRetry retry) {
+		try {
+			// Commit and rollback do network round trips, keep them off the scheduler thread
+			TriconTransactionManagerServices.getCompletionExecutorService().execute(new Runnable() {
+				public void run() {
+					try {
+						execute(retry);
+					} finally {
+						retries.running.decrementAndGet();
+						dispatch(retries);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			logger.error("Could not submit retry of {} - ex: {}", retry.xaResourceInfo, ex);
+			retries.running.decrementAndGet();
+			branchResolved(retry.outcome, false);
+		}
+	}
+
+	private void execute(BranchRetry retry) {
+		PendingOutcome outcome = retry.outcome;
+		XAResourceInfo xaResourceInfo = retry.xaResourceInfo;
+		RecoverableResource resource = TriconTransactionManagerServices.getRecoverer().getResource(
+				xaResourceInfo.getUniqueName());
+		if (resource == null) {
+			logger.warn("Recoverable resource {} of branch {} is not registered anymore, leaving it to recovery",
+					xaResourceInfo.getUniqueName(), xaResourceInfo);
+			branchResolved(outcome, false);
+			return;
+		}
+		XAResource xaResource;
+		try {
+			xaResource = resource.getXAResource();
+		} catch (Exception ex) {
+			// the resource manager is most likely still unreachable
+			retryOrGiveUp(retry, ex.toString());
+			return;
+		}
+		try {
+			if (outcome.commit) {
+				xaResource.commit(xaResourceInfo.getXid(), false);
+			} else {
+				xaResource.rollback(xaResourceInfo.getXid());
+			}
+			logger.info("Attempt {} to {} {} succeeded",
+					new Object[] { retry.attempt + 1, outcome.getPhaseName(), xaResourceInfo });
+			branchResolved(outcome, true);
+		} catch (XAException ex) {
+			handleXAException(retry, xaResource, ex);
+		} catch (RuntimeException ex) {
+			logger.error("Attempt {} to {} {} failed, leaving it to recovery - ex: {}",
+					new Object[] { retry.attempt + 1, outcome.getPhaseName(), xaResourceInfo, ex });
+			branchResolved(outcome, false);
+		} finally {
+			resource.release();
+		}
+	}
+
+	private void handleXAException(BranchRetry retry, XAResource xaResource, XAException xaException) {
+		PendingOutcome outcome = retry.outcome;
+		XAResourceInfo xaResourceInfo = retry.xaResourceInfo;
+		switch (xaException.errorCode) {
+			case XAException.XAER_RMFAIL:
+			case XAException.XA_RETRY:
+				retryOrGiveUp(retry, DecodingUtil.decodeXAExceptionErrorCode(xaException));
+				return;
+
+			case XAException.XAER_NOTA:
+				// an earlier attempt reached the resource manager before its answer got lost
+				logger.debug("Branch {} is already completed", xaResourceInfo);
+				branchResolved(outcome, true);
+				return;
+
+			case XAException.XA_HEURCOM:
+			case XAException.XA_HEURRB:
+				if ((xaException.errorCode == XAException.XA_HEURCOM) == outcome.commit) {
+					forget(xaResource, xaResourceInfo);
+					branchResolved(outcome, true);
+				} else {
+					leaveToRecovery(retry, xaException);
+				}
+				return;
+
+			default:
+				leaveToRecovery(retry, xaException);
+		}
+	}
+
+	private void retryOrGiveUp(BranchRetry retry, String error) {
+		PendingOutcome outcome = retry.outcome;
+		if (retry.attempt + 1 >= maxAttempts) {
+			logger.warn("Giving up to {} {} after {} attempt(s), leaving it to recovery - error: {}",
+					new Object[] { outcome.getPhaseName(), retry.xaResourceInfo, maxAttempts, error });
+			branchResolved(outcome, false);
+		} else if (active.get()) {
+			scheduleAttempt(outcome, retry.xaResourceInfo, retry.attempt + 1);
+		}
+	}
+
+	private void leaveToRecovery(BranchRetry retry, XAException xaException) {
+		logger.error("Attempt {} to {} {} failed with {}, leaving it to recovery - ex: {}",
+				new Object[] { retry.attempt + 1, retry.outcome.getPhaseName(), retry.xaResourceInfo,
+						DecodingUtil.decodeXAExceptionErrorCode(xaException), xaException });
+		branchResolved(retry.outcome, false);
+	}
+
+	private void forget(XAResource xaResource, XAResourceInfo xaResourceInfo) {
+		try {
+			xaResource.forget(xaResourceInfo.getXid());
+		} catch (XAException ex) {
+			logger.error("Cannot forget transaction {} assigned to resource {}, error={}",
+					new Object[] { xaResourceInfo.getXid(), xaResourceInfo.getUniqueName(),
+							DecodingUtil.decodeXAExceptionErrorCode(ex) });
+		}
+	}
+
+	private void branchResolved(PendingOutcome outcome, boolean succeeded) {
+		if (!succeeded) {
+			outcome.unresolved = true;
+		}
+		if (outcome.remaining.decrementAndGet() > 0) {
+			return;
+		}
+		if (outcome.unresolved) {
+			pendingOutcomes.remove(outcome.transaction.getSyncTransactionkey());
+			// The dangling COMMITTING record, if any, makes recovery finish the job
+			logger.warn("Background {} of {} did not succeed on every branch, leaving it to recovery",
+					outcome.getPhaseName(), outcome.transaction);
+			return;
+		}
+		logger.info("Background {} of {} succeeded on every branch", outcome.getPhaseName(), outcome.transaction);
+		try {
+			outcome.transaction.setStatusAndLogRecord(outcome.commit ? Status.STATUS_COMMITTED : Status.STATUS_ROLLEDBACK);
+		} catch (TriconSystemException ex) {
+			logger.error("Cannot log the outcome of {} - ex: ", outcome.transaction, ex);
+		} finally {
+			// still active for the Recoverer until the outcome record is written
+			pendingOutcomes.remove(outcome.transaction.getSyncTransactionkey());
+		}
+	}
+
+	private ResourceRetries getResourceRetries(String uniqueName) {
+		ResourceRetries retries = resourceRetries.get(uniqueName);
+		if (retries == null) {
+			ResourceRetries newRetries = new ResourceRetries();
+			retries = resourceRetries.putIfAbsent(uniqueName, newRetries);
+			if (retries == null) {
+				retries = newRetries;
+			}
+		}
+		return retries;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("pendingCount=").append(pendingOutcomes.size())
+				.append(", maxAttempts=").append(maxAttempts)
+				.append(", maxConcurrentPerResource=").append(maxConcurrentPerResource)
+				.append("]").toString();
+	}
+
+	private static final class PendingOutcome {
+		private final TransactionImpl transaction;
+		private final boolean commit;
+		private final AtomicInteger remaining;
+		private volatile boolean unresolved;
+
+		private PendingOutcome(TransactionImpl transaction, boolean commit, int branchCount, boolean unresolved) {
+			this.transaction = transaction;
+			this.commit = commit;
+			this.remaining = new AtomicInteger(branchCount);
+			this.unresolved = unresolved;
+		}
+
+		private String getPhaseName() {
+			return commit ? "commit" : "rollback";
+		}
+	}
+
+	private static final class BranchRetry {
+		private final PendingOutcome outcome;
+		private final XAResourceInfo xaResourceInfo;
+		private final int attempt;
+
+		private BranchRetry(PendingOutcome outcome, XAResourceInfo xaResourceInfo, int attempt) {
+			this.outcome = outcome;
+			this.xaResourceInfo = xaResourceInfo;
+			this.attempt = attempt;
+		}
+	}
+
+	/**
+	 * Retries of one resource: the ones running and the due ones waiting for a free slot.
+	 */
+	private static final class ResourceRetries {
+		private final AtomicInteger running = new AtomicInteger(0);
+		private final Queue<BranchRetry> waiting = new ConcurrentLinkedQueue<BranchRetry>();
+	}
+
+}
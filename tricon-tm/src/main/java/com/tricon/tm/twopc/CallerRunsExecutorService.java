@@ -0,0 +1,44 @@
+package com.tricon.tm.twopc;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every submitted job in the calling thread, so the two-phase commit jobs of a transaction are executed
+ * one after the other by the thread committing it.
+ */
+public class CallerRunsExecutorService extends AbstractExecutorService {
+	private volatile boolean shutdown;
+
+	public void execute(Runnable command) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Executor has been shut down");
+		}
+		command.run();
+	}
+
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		return Collections.emptyList();
+	}
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	public boolean isTerminated() {
+		return shutdown;
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return shutdown;
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.tricon.tm.twopc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.internal.XAResourceInfo;
+
+/**
+ * State of one phase run on behalf of a transaction, so the phase executors themselves can be shared.
+ */
+public class PhaseContext {
+	private final TransactionImpl transaction;
+	// Participating resources, null when every enlisted resource participates
+	private final List<XAResourceInfo> resources;
+	private final boolean onePhase;
+	// Resources on which the phase succeeded, filled by the jobs
+	private final List<XAResourceInfo> completedResources;
+
+	public PhaseContext(TransactionImpl transaction, List<XAResourceInfo> resources, boolean onePhase) {
+		this.transaction = transaction;
+		this.resources = resources;
+		this.onePhase = onePhase;
+		this.completedResources = Collections.synchronizedList(new ArrayList<XAResourceInfo>(
+				transaction.getXAResourceManager().resourceCount()));
+	}
+
+	public TransactionImpl getTransaction() {
+		return transaction;
+	}
+
+	public boolean isOnePhase() {
+		return onePhase;
+	}
+
+	public List<XAResourceInfo> getCompletedResources() {
+		return completedResources;
+	}
+
+	/**
+	 * Participating resources, the transaction may already have cleared its own list when phase 2 runs in the
+	 * background.
+	 */
+	public List<XAResourceInfo> getParticipatingResources() {
+		if (resources == null) {
+			return transaction.getXAResourceManager().getAllXAResourceInfoList();
+		}
+		return resources;
+	}
+
+	public boolean isParticipating(XAResourceInfo xaResourceInfo) {
+		if (resources == null) {
+			return true;
+		}
+		for (int i = 0; i < resources.size(); i++) {
+			if (resources.get(i) == xaResourceInfo) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("transaction=").append(transaction)
+				.append(", onePhase=").append(onePhase)
+				.append(", completedResourceCount=").append(completedResources.size())
+				.append("]").toString();
+	}
+
+}
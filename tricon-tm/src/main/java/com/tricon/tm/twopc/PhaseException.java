@@ -1,17 +1,32 @@
 package com.tricon.tm.twopc;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.tricon.tm.internal.XAResourceInfo;
+
 public class PhaseException extends Exception {
 	Map resourceExceptionMap = new LinkedHashMap();
+	// Resources whose jobs were still running when the phase ended, they clean up after themselves
+	List<XAResourceInfo> abandonedResources = Collections.emptyList();
 
 	public PhaseException(Map resourceExceptionMap) {
 		this.resourceExceptionMap = resourceExceptionMap;
 	}
 
+	public PhaseException(Map resourceExceptionMap, List<XAResourceInfo> abandonedResources) {
+		this.resourceExceptionMap = resourceExceptionMap;
+		this.abandonedResources = abandonedResources;
+	}
+
 	public Map getResourceExceptionMap() {
 		return resourceExceptionMap;
 	}
 
+	public List<XAResourceInfo> getAbandonedResources() {
+		return abandonedResources;
+	}
+
 }
@@ -1,7 +1,6 @@
 package com.tricon.tm.twopc;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -16,61 +15,67 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManagerServices;
 import com.tricon.tm.internal.exception.TriconHeuristicCommitException;
 import com.tricon.tm.internal.exception.TriconHeuristicMixedException;
 import com.tricon.tm.internal.exception.TriconSystemException;
 import com.tricon.tm.internal.XAResourceHelper;
 import com.tricon.tm.internal.XAResourceInfo;
-import com.tricon.tm.internal.XAResourceManager;
 import com.tricon.tm.util.DecodingUtil;
 
 public class RollbackPhaseExecutor extends AbstractPhaseExecutor {
 	private static Logger logger = LoggerFactory.getLogger(RollbackPhaseExecutor.class);
 
-	private List<XAResourceInfo> resources;
-	private final List<XAResourceInfo> rolledbackResources = Collections.synchronizedList(new ArrayList<XAResourceInfo>());
-
-	public RollbackPhaseExecutor(ExecutorService executorService) {
-		super(executorService);
+	public RollbackPhaseExecutor(ExecutorService executorService, ResourceManagerBulkheads bulkheads) {
+		super(executorService, bulkheads);
 	}
 
 	public void rollback(final TransactionImpl transaction, final List<XAResourceInfo> resources)
 			throws HeuristicMixedException, HeuristicCommitException, TriconSystemException {
-		XAResourceManager xaResourceManager = transaction.getXAResourceManager();
 		transaction.setStatus(Status.STATUS_ROLLING_BACK);
 
-		this.resources = Collections.unmodifiableList(resources);
+		PhaseContext context = new PhaseContext(transaction, resources, false);
 		try {
-			executePhase(xaResourceManager);
+			executePhase(context);
 		} catch (PhaseException ex) {
 			logFailedResources(ex);
-			transaction.setStatus(Status.STATUS_UNKNOWN);
-			throwException("Transaction failed during rollback of " + transaction, ex, resources.size());
+			List<XAResourceInfo> retryableResources = removeRetryableFailures(transaction, ex);
+			boolean failed = !ex.getResourceExceptionMap().isEmpty();
+			if (!retryableResources.isEmpty()) {
+				TriconTransactionManagerServices.getBranchRetryScheduler().retryRollback(transaction, retryableResources, failed);
+			}
+			if (failed) {
+				transaction.setStatus(Status.STATUS_UNKNOWN);
+				throwException("Transaction failed during rollback of " + transaction, ex, resources.size());
+			}
+			// The outcome is logged by the retry scheduler once the retried branches are rolled back
+			transaction.setStatus(Status.STATUS_ROLLEDBACK);
+			return;
 		}
 		logger.debug("Rollback executed on resources: {}",
-				XAResourceHelper.getXAResourceInfosString(rolledbackResources));
-		transaction.setStatus(Status.STATUS_ROLLEDBACK);
+				XAResourceHelper.getXAResourceInfosString(context.getCompletedResources()));
+		logOutcome(transaction, Status.STATUS_ROLLEDBACK);
 	}
 
-	protected boolean isParticipating(XAResourceInfo xaResourceInfo) {
-		if (resources != null && resources.size() > 0) {
-			for (final XAResourceInfo xaResourceInfoTmp : resources) {
-				if (xaResourceInfoTmp == xaResourceInfo) {
-					return true;
-				}
-			}
-		}
-		return false;
+	protected boolean isOutcomeRecoverable(TransactionImpl transaction) {
+		// Recovery presumes abort unless the journal holds a commit decision
+		return !transaction.isCommitDecisionLogged();
+	}
+
+	protected int getPhaseTimeout() {
+		return TriconTransactionManagerServices.getConfigurationHelper().getRollbackTimeout();
 	}
 
-	protected Job createJob(XAResourceInfo xaResourceInfo) {
-		return new RollbackJob(xaResourceInfo);
+	protected Job createJob(PhaseContext context, XAResourceInfo xaResourceInfo) {
+		return new RollbackJob(context, xaResourceInfo);
 	}
 
-	private class RollbackJob extends Job {
+	private static class RollbackJob extends Job {
+		private final PhaseContext context;
 
-		public RollbackJob(XAResourceInfo xaResourceInfo) {
+		public RollbackJob(PhaseContext context, XAResourceInfo xaResourceInfo) {
 			super(xaResourceInfo);
+			this.context = context;
 		}
 
 		public void execute() {
@@ -87,7 +92,7 @@ public class RollbackPhaseExecutor extends AbstractPhaseExecutor {
 			try {
 				logger.debug("Trying to rollback resource {}", xaResourceInfo);
 				xaResourceInfo.getXAResource().rollback(xaResourceInfo.getXid());
-				rolledbackResources.add(xaResourceInfo);
+				context.getCompletedResources().add(xaResourceInfo);
 				logger.debug("Rolled back resource {}", xaResourceInfo);
 			} catch (XAException ex) {
 				handleXAException(xaResourceInfo, ex);
@@ -107,6 +112,11 @@ public class RollbackPhaseExecutor extends AbstractPhaseExecutor {
 							+ failedXAResourceInfo);
 					throw xaException;
 
+				case XAException.XAER_RMFAIL:
+				case XAException.XA_RETRY:
+					// transient, the phase executor hands the branch over to the BranchRetryScheduler
+					throw xaException;
+
 				default:
 					logger.warn("During rollback, resource {} reported {} - ex: {}." +
 							" Transaction is prepared and will be rolled back through recovery.",
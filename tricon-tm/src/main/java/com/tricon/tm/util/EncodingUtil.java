@@ -40,19 +40,24 @@ public final class EncodingUtil {
 
 	public static byte[] convertLongToBytes(long aLong) {
 		byte[] array = new byte[8];
-
-		array[7] = (byte) (aLong & 0xff);
-		array[6] = (byte) ((aLong >> 8) & 0xff);
-		array[5] = (byte) ((aLong >> 16) & 0xff);
-		array[4] = (byte) ((aLong >> 24) & 0xff);
-		array[3] = (byte) ((aLong >> 32) & 0xff);
-		array[2] = (byte) ((aLong >> 40) & 0xff);
-		array[1] = (byte) ((aLong >> 48) & 0xff);
-		array[0] = (byte) ((aLong >> 56) & 0xff);
-
+		putLong(array, 0, aLong);
 		return array;
 	}
 
+	/**
+	 * Writes the 8 bytes of aLong, most significant first, in array from offset on.
+	 */
+	public static void putLong(byte[] array, int offset, long aLong) {
+		array[offset + 7] = (byte) (aLong & 0xff);
+		array[offset + 6] = (byte) ((aLong >> 8) & 0xff);
+		array[offset + 5] = (byte) ((aLong >> 16) & 0xff);
+		array[offset + 4] = (byte) ((aLong >> 24) & 0xff);
+		array[offset + 3] = (byte) ((aLong >> 32) & 0xff);
+		array[offset + 2] = (byte) ((aLong >> 40) & 0xff);
+		array[offset + 1] = (byte) ((aLong >> 48) & 0xff);
+		array[offset] = (byte) ((aLong >> 56) & 0xff);
+	}
+
 	public static byte[] convertIntToBytes(int anInt) {
 		byte[] array = new byte[4];
 
@@ -0,0 +1,106 @@
+package com.tricon.tm.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map holding its keys weakly and comparing them by identity, for state kept per XAResource: drivers may
+ * implement equals() on their resources, two connections must still get their own entries. Entries of collected
+ * keys are dropped on the next access. Not thread safe, callers synchronize.
+ */
+public class WeakIdentityHashMap<K, V> {
+	private final Map<IdentityKey, V> map;
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	public WeakIdentityHashMap() {
+		this.map = new HashMap<IdentityKey, V>();
+	}
+
+	/**
+	 * @param maxSize entries kept at most, the least recently read or written is dropped first
+	 */
+	public WeakIdentityHashMap(final int maxSize) {
+		this.map = new LinkedHashMap<IdentityKey, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<IdentityKey, V> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public V get(K key) {
+		expungeStaleEntries();
+		return map.get(new IdentityKey(key, null));
+	}
+
+	public V put(K key, V value) {
+		expungeStaleEntries();
+		return map.put(new IdentityKey(key, queue), value);
+	}
+
+	public V remove(K key) {
+		expungeStaleEntries();
+		return map.remove(new IdentityKey(key, null));
+	}
+
+	public int size() {
+		expungeStaleEntries();
+		return map.size();
+	}
+
+	/**
+	 * @return the values of the live entries, removing one through the iterator removes its entry
+	 */
+	public Collection<V> values() {
+		expungeStaleEntries();
+		return map.values();
+	}
+
+	public void clear() {
+		map.clear();
+		while (queue.poll() != null) {
+			// drop the references of the cleared entries
+		}
+	}
+
+	private void expungeStaleEntries() {
+		Reference<?> reference;
+		while ((reference = queue.poll()) != null) {
+			map.remove(reference);
+		}
+	}
+
+	private static final class IdentityKey extends WeakReference<Object> {
+		private final int hashCode;
+
+		private IdentityKey(Object key, ReferenceQueue<Object> queue) {
+			super(key, queue);
+			this.hashCode = System.identityHashCode(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof IdentityKey)) {
+				return false;
+			}
+			Object referent = get();
+			return referent != null && referent == ((IdentityKey) obj).get();
+		}
+	}
+
+}
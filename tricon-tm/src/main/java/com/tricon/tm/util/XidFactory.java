@@ -0,0 +1,110 @@
+package com.tricon.tm.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.tricon.tm.XidImpl;
+
+/**
+ * Generates the data components of Xids (global transaction ids and branch qualifiers), one array per component:
+ * 
+ * <pre>
+ * TM vendor name   6 bytes      precomputed
+ * server id        1-42 bytes   precomputed
+ * timestamp        8 bytes
+ * sequence number  8 bytes
+ * </pre>
+ * 
+ * With tricon.tm.xid.compact, the TM vendor name and server id are replaced by their 4 bytes hash, so each
+ * component takes 20 bytes on the wire and in the redo logs of the resource managers. Compact Xids carry their
+ * own format id, so the recovery still tells both layouts apart and finds the Xids generated before a switch.
+ * 
+ * With tricon.tm.xid.sequenceBlockSize above 1, each thread reserves that many sequence numbers at once instead of
+ * contending on the shared counter for every component. Sequence numbers stay unique, but are no longer in
+ * creation order across threads.
+ */
+public final class XidFactory {
+	// Shared by all factories, so a restarted transaction manager does not hand out the same numbers again
+	private static final AtomicLong sequenceNumber = new AtomicLong(0l);
+	// Next number handed out and end of the block reserved by the current thread
+	private static final ThreadLocal<long[]> sequenceBlock = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
+
+	private final byte[] gtridPrefix;
+	private final byte[] compactGtridPrefix;
+	private final boolean compact;
+	private final int sequenceBlockSize;
+
+	public XidFactory(byte[] tmVendorName, byte[] serverId, boolean compact, int sequenceBlockSize) {
+		this.gtridPrefix = new byte[tmVendorName.length + serverId.length];
+		System.arraycopy(tmVendorName, 0, gtridPrefix, 0, tmVendorName.length);
+		System.arraycopy(serverId, 0, gtridPrefix, tmVendorName.length, serverId.length);
+		CRC32 crc32 = new CRC32();
+		crc32.update(gtridPrefix);
+		this.compactGtridPrefix = EncodingUtil.convertIntToBytes((int) crc32.getValue());
+		this.compact = compact;
+		this.sequenceBlockSize = sequenceBlockSize;
+	}
+
+	/**
+	 * TM vendor name and server id, which every standard Xid generated by this transaction manager starts with.
+	 */
+	public byte[] getGtridPrefix() {
+		return gtridPrefix.clone();
+	}
+
+	/**
+	 * Hash of the TM vendor name and server id, which every compact Xid generated by this transaction manager
+	 * starts with.
+	 */
+	public byte[] getCompactGtridPrefix() {
+		return compactGtridPrefix.clone();
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	public XidImpl createXid(byte[] globalTransactionId) {
+		return new XidImpl(getFormatId(), globalTransactionId, generateUniqueXidDataComponent());
+	}
+
+	public int getFormatId() {
+		return compact ? XidImpl.TRICON_COMPACT_FORMAT_ID : XidImpl.TRICON_FORMAT_ID;
+	}
+
+	public byte[] generateUniqueXidDataComponent() {
+		byte[] prefix = compact ? compactGtridPrefix : gtridPrefix;
+		byte[] uidArray = new byte[prefix.length + 16];
+		System.arraycopy(prefix, 0, uidArray, 0, prefix.length);
+		EncodingUtil.putLong(uidArray, prefix.length, System.currentTimeMillis());
+		EncodingUtil.putLong(uidArray, prefix.length + 8, getNextSequenceNumber());
+		return uidArray;
+	}
+
+	public long getNextSequenceNumber() {
+		if (sequenceBlockSize <= 1) {
+			return sequenceNumber.incrementAndGet();
+		}
+		long[] block = sequenceBlock.get();
+		if (block[0] == block[1]) {
+			block[1] = sequenceNumber.addAndGet(sequenceBlockSize);
+			block[0] = block[1] - sequenceBlockSize;
+		}
+		return ++block[0];
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(this.getClass().getName()).append("[")
+				.append("gtridPrefix=").append(new String(gtridPrefix))
+				.append(", compact=").append(compact)
+				.append(", sequenceBlockSize=").append(sequenceBlockSize)
+				.append("]").toString();
+	}
+
+}
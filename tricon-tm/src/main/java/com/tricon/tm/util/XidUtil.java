@@ -1,12 +1,12 @@
 package com.tricon.tm.util;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 import com.tricon.tm.TriconTransactionManagerServices;
 import com.tricon.tm.XidImpl;
 
 public final class XidUtil {
-	private static AtomicLong sequenceNumber = new AtomicLong(0l);
+	// FNV-1a 64 bits offset basis and prime
+	private static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+	private static final long FINGERPRINT_PRIME = 0x100000001b3L;
 
 	private XidUtil() {
 	}
@@ -18,37 +18,45 @@ public final class XidUtil {
 	 * @return
 	 */
 	public static XidImpl createXid(byte[] globalTransactionId) {
-		return new XidImpl(globalTransactionId, generateUniqueXidDataComponent());
+		return TriconTransactionManagerServices.getXidFactory().createXid(globalTransactionId);
 	}
 
 	/**
 	 * Genenares unique Xid's 'data' component (global transaction id or branch qualifier)
 	 * 
 	 * @return
+	 * @see XidFactory
 	 */
 	public static byte[] generateUniqueXidDataComponent() {
-		// Transaction manager vendor name - fixed 6 bytes
-		byte[] tmVendorName = TriconTransactionManagerServices.getConfigurationHelper().buildTMVendorNameByteArray();
-		// Server id - fixed 42 bytes
-		byte[] serverId = TriconTransactionManagerServices.getConfigurationHelper().buildServerIdByteArray();
-		// Timestamp - fixed 8 bytes
-		byte[] timestamp = EncodingUtil.convertLongToBytes(System.currentTimeMillis());
-		// Sequence number - fixed 8 bytes
-		byte[] sequenceNo = EncodingUtil.convertLongToBytes(getNextSequenceNumber());
-
-		int uidLength = tmVendorName.length + serverId.length + timestamp.length + sequenceNo.length;
-		byte[] uidArray = new byte[uidLength];
-
-		System.arraycopy(tmVendorName, 0, uidArray, 0, tmVendorName.length);
-		System.arraycopy(serverId, 0, uidArray, tmVendorName.length, serverId.length);
-		System.arraycopy(timestamp, 0, uidArray, tmVendorName.length + serverId.length, timestamp.length);
-		System.arraycopy(sequenceNo, 0, uidArray, tmVendorName.length + serverId.length + timestamp.length, sequenceNo.length);
-
-		return uidArray;
+		return TriconTransactionManagerServices.getXidFactory().generateUniqueXidDataComponent();
 	}
 
 	public static long getNextSequenceNumber() {
-		return sequenceNumber.incrementAndGet();
+		return TriconTransactionManagerServices.getXidFactory().getNextSequenceNumber();
+	}
+
+	/**
+	 * 64 bits hash of a format id and Xid data components, computed once by the Xid and gtrid keys so their
+	 * hashCode() and most of their equals() calls do not walk the byte arrays.
+	 */
+	public static long fingerprint(int formatId, byte[]... components) {
+		long hash = FINGERPRINT_SEED;
+		hash = (hash ^ formatId) * FINGERPRINT_PRIME;
+		for (byte[] component : components) {
+			if (component == null) {
+				hash = (hash ^ -1) * FINGERPRINT_PRIME;
+				continue;
+			}
+			hash = (hash ^ component.length) * FINGERPRINT_PRIME;
+			for (int i = 0; i < component.length; i++) {
+				hash = (hash ^ (component[i] & 0xff)) * FINGERPRINT_PRIME;
+			}
+		}
+		// spreads the last bytes, which differ the most between Xids, over the whole value
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
 	}
 
 }
@@ -0,0 +1,51 @@
+package com.tricon.tm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.tricon.tm.twopc.CallerRunsExecutorService;
+
+/**
+ * The 2pc executor picked by tricon.tm.2pc.executor, or derived from tricon.tm.isAsynchronous2pc without it.
+ */
+public class ExecutorModeTest {
+
+	@After
+	public void tearDown() {
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testSynchronous2pcDefaultsToASingleThread() throws Exception {
+		TestConfiguration.start("tricon.tm.isAsynchronous2pc", "false");
+		assertEquals("single", TriconTransactionManagerServices.getConfigurationHelper().getJobExecutor());
+		assertEquals(1, getMaximumPoolSize());
+		assertNotNull(TriconTransactionManagerServices.getResourceManagerBulkheads());
+	}
+
+	@Test
+	public void testAsynchronous2pcDefaultsToBoundedThreads() throws Exception {
+		TestConfiguration.start("tricon.tm.isAsynchronous2pc", "true", "tricon.tm.2pc.executor.maxThreads", "8");
+		assertEquals("bounded", TriconTransactionManagerServices.getConfigurationHelper().getJobExecutor());
+		assertEquals(8, getMaximumPoolSize());
+	}
+
+	@Test
+	public void testCallerModeHasNoBulkheads() throws Exception {
+		TestConfiguration.start("tricon.tm.2pc.executor", "caller");
+		assertTrue(TriconTransactionManagerServices.getExecutorService() instanceof CallerRunsExecutorService);
+		assertNull(TriconTransactionManagerServices.getResourceManagerBulkheads());
+	}
+
+	private static int getMaximumPoolSize() {
+		return ((ThreadPoolExecutor) TriconTransactionManagerServices.getExecutorService()).getMaximumPoolSize();
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.tricon.tm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import com.tricon.tm.recovery.RecoverableResource;
+
+/**
+ * Connection to an in-memory resource manager, recording the calls the transaction manager makes on it. Instances
+ * created with the same name belong to the same resource manager, like connections of one pool. Failing and
+ * blocking answers are set up per method.
+ */
+public class FakeXAResource implements XAResource, RecoverableResource {
+	private final String name;
+	private volatile int vote = XA_OK;
+	// Guarded by this
+	private final List<String> calls = new ArrayList<String>();
+	private final Map<String, Thread> callThreads = new HashMap<String, Thread>();
+	private final Map<String, int[]> failures = new HashMap<String, int[]>();
+	private final Map<String, CountDownLatch> blocks = new HashMap<String, CountDownLatch>();
+	private final Set<String> blockedMethods = new HashSet<String>();
+	private final Set<Xid> prepared = new HashSet<Xid>();
+	private final List<Integer> startFlags = new ArrayList<Integer>();
+
+	public FakeXAResource(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Registers this resource under its name, as a resource adapter does, so its branches are journaled with
+	 * that name and can be retried or recovered through it.
+	 */
+	public FakeXAResource register() {
+		TriconTransactionManagerServices.getResourceNameRegistry().register(name, this);
+		TriconTransactionManagerServices.getRecoverer().registerResource(this);
+		return this;
+	}
+
+	public void unregister() {
+		TriconTransactionManagerServices.getResourceNameRegistry().unregister(this);
+		TriconTransactionManagerServices.getRecoverer().unregisterResource(name);
+	}
+
+	public void setVote(int vote) {
+		this.vote = vote;
+	}
+
+	/**
+	 * The next count calls of the method throw an XAException with the given error code.
+	 */
+	public synchronized void fail(String method, int errorCode, int count) {
+		failures.put(method, new int[] { errorCode, count });
+	}
+
+	/**
+	 * Calls of the method wait until the latch is released before answering.
+	 */
+	public synchronized void block(String method, CountDownLatch release) {
+		blocks.put(method, release);
+	}
+
+	public synchronized List<String> getCalls() {
+		return new ArrayList<String>(calls);
+	}
+
+	public synchronized int countCalls(String method) {
+		int count = 0;
+		for (String call : calls) {
+			if (call.equals(method)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the thread which made the last call of the method, null if it was not called
+	 */
+	public synchronized Thread getCallThread(String method) {
+		return callThreads.get(method);
+	}
+
+	/**
+	 * Waits until the method has been called the given number of times.
+	 */
+	public boolean awaitCalls(String method, int count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (countCalls(method) < count) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(5);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until a call of the method waits for the latch given to block().
+	 */
+	public boolean awaitBlocked(String method, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			synchronized (this) {
+				if (blockedMethods.contains(method)) {
+					return true;
+				}
+			}
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * @return the flags of every start() call, TMNOFLAGS, TMJOIN or TMRESUME
+	 */
+	public synchronized List<Integer> getStartFlags() {
+		return new ArrayList<Integer>(startFlags);
+	}
+
+	public synchronized int getPreparedCount() {
+		return prepared.size();
+	}
+
+	private void call(String method, Xid xid) throws XAException {
+		CountDownLatch release;
+		synchronized (this) {
+			release = blocks.get(method);
+		}
+		if (release != null) {
+			synchronized (this) {
+				blockedMethods.add(method);
+			}
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				synchronized (this) {
+					blockedMethods.remove(method);
+				}
+			}
+		}
+		synchronized (this) {
+			calls.add(method);
+			callThreads.put(method, Thread.currentThread());
+			int[] failure = failures.get(method);
+			if (failure != null && failure[1] > 0) {
+				failure[1]--;
+				throw new XAException(failure[0]);
+			}
+		}
+	}
+
+	public void start(Xid xid, int flags) throws XAException {
+		synchronized (this) {
+			startFlags.add(Integer.valueOf(flags));
+		}
+		call("start", xid);
+	}
+
+	public void end(Xid xid, int flags) throws XAException {
+		call("end", xid);
+	}
+
+	public int prepare(Xid xid) throws XAException {
+		call("prepare", xid);
+		if (vote == XA_OK) {
+			synchronized (this) {
+				prepared.add(xid);
+			}
+		}
+		return vote;
+	}
+
+	public void commit(Xid xid, boolean onePhase) throws XAException {
+		call("commit", xid);
+		synchronized (this) {
+			prepared.remove(xid);
+		}
+	}
+
+	public void rollback(Xid xid) throws XAException {
+		call("rollback", xid);
+		synchronized (this) {
+			prepared.remove(xid);
+		}
+	}
+
+	public void forget(Xid xid) throws XAException {
+		call("forget", xid);
+	}
+
+	public synchronized Xid[] recover(int flag) throws XAException {
+		return flag == TMSTARTRSCAN ? prepared.toArray(new Xid[prepared.size()]) : new Xid[0];
+	}
+
+	public int getTransactionTimeout() throws XAException {
+		return 0;
+	}
+
+	public boolean setTransactionTimeout(int seconds) throws XAException {
+		return true;
+	}
+
+	public boolean isSameRM(XAResource xaResource) throws XAException {
+		return xaResource instanceof FakeXAResource && name.equals(((FakeXAResource) xaResource).name);
+	}
+
+	public String getUniqueName() {
+		return name;
+	}
+
+	public XAResource getXAResource() {
+		return this;
+	}
+
+	public void release() {
+	}
+
+	@Override
+	public String toString() {
+		return "FakeXAResource[" + name + "]";
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.tricon.tm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.journal.JournalRecord;
+import com.tricon.tm.resource.LastResource;
+
+/**
+ * Commits transactions having a last resource next to XA resources, against the journal configured by
+ * tricon-tm-test.properties.
+ */
+public class LastResourceCommitTest {
+	private TriconTransactionManager transactionManager;
+	private FakeXAResource resource1;
+	private FakeXAResource resource2;
+
+	@Before
+	public void setUp() {
+		transactionManager = TriconTransactionManagerServices.getTransactionManager();
+		resource1 = new FakeXAResource("last-resource-test-1");
+		resource2 = new FakeXAResource("last-resource-test-2");
+	}
+
+	@After
+	public void tearDown() {
+		transactionManager.shutdown();
+	}
+
+	@Test
+	public void testLastResourceCommitsOnceTheDecisionIsDurable() throws Exception {
+		TransactionImpl transaction = begin();
+		RecordingLastResource lastResource = new RecordingLastResource(transaction);
+		transaction.enlistLastResource(lastResource);
+
+		transactionManager.commit();
+
+		assertTrue(lastResource.committed);
+		// the record the last resource saw names it next to the prepared branches
+		JournalRecord record = lastResource.recordAtCommit;
+		assertNotNull(record);
+		assertEquals(3, record.getBranchQualifiers().size());
+		assertTrue(JournalRecord.isLastResourceBranch(record.getBranchQualifiers().get(2)));
+		assertEquals("last-resource", record.getResourceNames().get(2));
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), resource1.getCalls());
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), resource2.getCalls());
+		assertNull(getDanglingRecord(transaction));
+		assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+	}
+
+	@Test
+	public void testSinglePreparedResourceIsJournaledWithTheLastResource() throws Exception {
+		TransactionImpl transaction = transactionManagerBegin();
+		transaction.enlistResource(resource1);
+		RecordingLastResource lastResource = new RecordingLastResource(transaction);
+		transaction.enlistLastResource(lastResource);
+
+		transactionManager.commit();
+
+		// no one-phase commit: the prepared branch must follow the outcome of the last resource
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), resource1.getCalls());
+		assertNotNull(lastResource.recordAtCommit);
+		assertEquals(2, lastResource.recordAtCommit.getBranchQualifiers().size());
+	}
+
+	@Test
+	public void testFailingLastResourceCancelsTheDecision() throws Exception {
+		TransactionImpl transaction = begin();
+		RecordingLastResource lastResource = new RecordingLastResource(transaction);
+		lastResource.failure = new IllegalStateException("connection lost");
+		transaction.enlistLastResource(lastResource);
+
+		try {
+			transactionManager.commit();
+			fail("commit must fail when the last resource fails");
+		} catch (RollbackException ex) {
+			// expected
+		}
+
+		assertNotNull(lastResource.recordAtCommit);
+		// the ROLLEDBACK record keeps recovery from committing the prepared branches
+		assertNull(getDanglingRecord(transaction));
+		assertEquals(Arrays.asList("start", "end", "prepare", "rollback"), resource1.getCalls());
+		assertEquals(Arrays.asList("start", "end", "prepare", "rollback"), resource2.getCalls());
+	}
+
+	@Test
+	public void testJournalFailureRollsBackBeforeTheLastResourceCommits() throws Exception {
+		TransactionImpl transaction = begin();
+		RecordingLastResource lastResource = new RecordingLastResource(transaction);
+		transaction.enlistLastResource(lastResource);
+		TriconTransactionManagerServices.getJournal().close();
+
+		try {
+			transactionManager.commit();
+			fail("commit must fail when the commit decision cannot be logged");
+		} catch (RollbackException ex) {
+			// expected
+		}
+
+		assertFalse(lastResource.committed);
+		assertTrue(lastResource.rolledBack);
+		assertEquals(Arrays.asList("start", "end", "prepare", "rollback"), resource1.getCalls());
+		assertEquals(Arrays.asList("start", "end", "prepare", "rollback"), resource2.getCalls());
+	}
+
+	private TransactionImpl begin() throws Exception {
+		TransactionImpl transaction = transactionManagerBegin();
+		transaction.enlistResource(resource1);
+		transaction.enlistResource(resource2);
+		return transaction;
+	}
+
+	private TransactionImpl transactionManagerBegin() throws Exception {
+		transactionManager.begin();
+		return transactionManager.getCurrentTransaction();
+	}
+
+	private static JournalRecord getDanglingRecord(TransactionImpl transaction) throws Exception {
+		return TriconTransactionManagerServices.getJournal().collectDanglingRecords().get(
+				transaction.getSyncTransactionkey());
+	}
+
+	/**
+	 * Remembers the dangling record of its transaction at the time it is asked to commit.
+	 */
+	private static class RecordingLastResource implements LastResource {
+		private final TransactionImpl transaction;
+		private volatile JournalRecord recordAtCommit;
+		private volatile RuntimeException failure;
+		private volatile boolean committed;
+		private volatile boolean rolledBack;
+
+		RecordingLastResource(TransactionImpl transaction) {
+			this.transaction = transaction;
+		}
+
+		public String getName() {
+			return "last-resource";
+		}
+
+		public void commit() throws Exception {
+			recordAtCommit = getDanglingRecord(transaction);
+			if (failure != null) {
+				throw failure;
+			}
+			committed = true;
+		}
+
+		public void rollback() throws Exception {
+			rolledBack = true;
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.tricon.tm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.util.EncodingUtil;
+
+/**
+ * Registry of the active transactions.
+ */
+public class TriconTransactionManagerTest {
+	private TriconTransactionManager transactionManager;
+
+	@Before
+	public void setUp() {
+		transactionManager = TriconTransactionManagerServices.getTransactionManager();
+	}
+
+	@After
+	public void tearDown() {
+		transactionManager.shutdown();
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testActiveTransactionIsListedUntilCompleted() throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+
+		assertSame(transaction, transactionManager.getActiveTransactionsByGtrid().get(transaction.getSyncTransactionkey()));
+		String gtridString = EncodingUtil.convertBytesToHex(transaction.getGlobalTransacationId());
+		Map<String, TransactionImpl> snapshot = transactionManager.getActiveTransactions();
+		assertSame(transaction, snapshot.get(gtridString));
+
+		// the hex keyed map is a copy
+		snapshot.clear();
+		assertEquals(1, transactionManager.getActiveTransactions().size());
+
+		transactionManager.commit();
+		assertTrue(transactionManager.getActiveTransactionsByGtrid().isEmpty());
+		assertTrue(transactionManager.getActiveTransactions().isEmpty());
+	}
+
+	@Test
+	public void testConcurrentBeginAndCompletion() throws Exception {
+		final int threadCount = 4;
+		final int transactionsPerThread = 500;
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; i++) {
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < transactionsPerThread; j++) {
+							transactionManager.begin();
+							TransactionImpl transaction = transactionManager.getCurrentTransaction();
+							if (!transactionManager.getActiveTransactionsByGtrid().containsKey(transaction.getSyncTransactionkey())) {
+								throw new AssertionError("Transaction " + transaction + " is not listed as active");
+							}
+							if (j % 2 == 0) {
+								transactionManager.commit();
+							} else {
+								transactionManager.rollback();
+							}
+						}
+					} catch (Throwable ex) {
+						errors.add(ex);
+					}
+				}
+			}));
+		}
+		// iterates the view while the registry changes, which must neither block nor fail
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					start.await();
+					while (running.get()) {
+						for (Map.Entry<SyncTransactionKey, TransactionImpl> entry : transactionManager
+								.getActiveTransactionsByGtrid().entrySet()) {
+							if (!entry.getKey().equals(entry.getValue().getSyncTransactionkey())) {
+								throw new AssertionError("Transaction " + entry.getValue() + " listed under " + entry.getKey());
+							}
+						}
+					}
+				} catch (Throwable ex) {
+					errors.add(ex);
+				}
+			}
+		});
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		reader.start();
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(30000);
+		}
+		running.set(false);
+		reader.join(5000);
+
+		assertEquals(Collections.emptyList(), errors);
+		assertTrue(transactionManager.getActiveTransactionsByGtrid().isEmpty());
+	}
+
+}
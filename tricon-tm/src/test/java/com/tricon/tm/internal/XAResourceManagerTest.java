@@ -0,0 +1,144 @@
+package com.tricon.tm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+import com.tricon.tm.util.XidUtil;
+
+/**
+ * Branches found through the identity indexes of XAResourceManager, and ended branches joined through its join
+ * candidates.
+ */
+public class XAResourceManagerTest {
+	private byte[] globalTransactionId;
+	private XAResourceManager xaResourceManager;
+
+	@Before
+	public void setUp() throws Exception {
+		TestConfiguration.start("tricon.tm.useTMJoin", "true");
+		globalTransactionId = XidUtil.generateUniqueXidDataComponent();
+		xaResourceManager = new XAResourceManager(globalTransactionId);
+	}
+
+	@After
+	public void tearDown() {
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testBranchesAreFoundByResource() throws Exception {
+		XAResourceInfo[] xaResourceInfos = new XAResourceInfo[200];
+		for (int i = 0; i < xaResourceInfos.length; i++) {
+			xaResourceInfos[i] = enlist(new FakeXAResource("index-test-" + (i % 4)));
+		}
+		assertEquals(xaResourceInfos.length, xaResourceManager.resourceCount());
+
+		for (XAResourceInfo xaResourceInfo : xaResourceInfos) {
+			assertSame(xaResourceInfo, xaResourceManager.findEnlistedXAResourceInfo(xaResourceInfo.getXAResource()));
+			assertSame(xaResourceInfo, xaResourceManager.findEnlistedXAResourceInfo(xaResourceInfo.getXAResource(),
+					globalTransactionId));
+		}
+		assertNull(xaResourceManager.findEnlistedXAResourceInfo(new FakeXAResource("index-test-0")));
+		byte[] otherGlobalTransactionId = XidUtil.generateUniqueXidDataComponent();
+		assertNull(xaResourceManager.findEnlistedXAResourceInfo(xaResourceInfos[0].getXAResource(),
+				otherGlobalTransactionId));
+		assertEquals(xaResourceInfos.length,
+				xaResourceManager.findEnlistedXAResourceInfoListByGtrid(globalTransactionId).size());
+		assertTrue(xaResourceManager.findEnlistedXAResourceInfoListByGtrid(otherGlobalTransactionId).isEmpty());
+	}
+
+	@Test
+	public void testEndedBranchIsJoined() throws Exception {
+		FakeXAResource first = new FakeXAResource("join-test");
+		FakeXAResource second = new FakeXAResource("join-test");
+		FakeXAResource third = new FakeXAResource("join-test");
+		XAResourceInfo firstInfo = enlist(first);
+		delist(firstInfo, XAResource.TMSUCCESS);
+
+		XAResourceInfo secondInfo = enlist(second);
+		assertSame(firstInfo.getXid(), secondInfo.getXid());
+		assertEquals(1, xaResourceManager.resourceCount());
+		// the joining resource takes the place of the joined one
+		assertSame(secondInfo, xaResourceManager.findEnlistedXAResourceInfo(second));
+		assertNull(xaResourceManager.findEnlistedXAResourceInfo(first));
+		assertSame(secondInfo, xaResourceManager.getAllXAResourceInfoList().get(0));
+
+		delist(secondInfo, XAResource.TMSUCCESS);
+		XAResourceInfo thirdInfo = enlist(third);
+		assertSame(firstInfo.getXid(), thirdInfo.getXid());
+		assertEquals(1, xaResourceManager.resourceCount());
+		assertEquals(Arrays.asList(XAResource.TMNOFLAGS), first.getStartFlags());
+		assertEquals(Arrays.asList(XAResource.TMJOIN), second.getStartFlags());
+		assertEquals(Arrays.asList(XAResource.TMJOIN), third.getStartFlags());
+	}
+
+	@Test
+	public void testActiveOrSuspendedBranchIsNotJoined() throws Exception {
+		XAResourceInfo active = enlist(new FakeXAResource("join-test"));
+		XAResourceInfo second = enlist(new FakeXAResource("join-test"));
+		assertNotSame(active.getXid(), second.getXid());
+
+		delist(second, XAResource.TMSUSPEND);
+		XAResourceInfo third = enlist(new FakeXAResource("join-test"));
+		assertNotSame(second.getXid(), third.getXid());
+		assertEquals(3, xaResourceManager.resourceCount());
+		assertEquals(Arrays.asList(XAResource.TMNOFLAGS), ((FakeXAResource) third.getXAResource()).getStartFlags());
+	}
+
+	@Test
+	public void testOtherResourceManagerIsNotJoined() throws Exception {
+		XAResourceInfo first = enlist(new FakeXAResource("join-test-1"));
+		delist(first, XAResource.TMSUCCESS);
+
+		XAResourceInfo second = enlist(new FakeXAResource("join-test-2"));
+		assertNotSame(first.getXid(), second.getXid());
+		assertEquals(2, xaResourceManager.resourceCount());
+
+		// the candidate of the first resource manager is still there
+		XAResourceInfo third = enlist(new FakeXAResource("join-test-1"));
+		assertSame(first.getXid(), third.getXid());
+		assertEquals(2, xaResourceManager.resourceCount());
+	}
+
+	@Test
+	public void testClearForgetsAllBranches() throws Exception {
+		FakeXAResource first = new FakeXAResource("clear-test");
+		XAResourceInfo firstInfo = enlist(first);
+		delist(firstInfo, XAResource.TMSUCCESS);
+
+		xaResourceManager.clearXAResourceInfos(XidUtil.generateUniqueXidDataComponent());
+		assertEquals(1, xaResourceManager.resourceCount());
+
+		xaResourceManager.clearXAResourceInfos(globalTransactionId);
+		assertEquals(0, xaResourceManager.resourceCount());
+		assertNull(xaResourceManager.findEnlistedXAResourceInfo(first));
+		// the join candidates went away with the branches
+		XAResourceInfo secondInfo = enlist(new FakeXAResource("clear-test"));
+		assertNotSame(firstInfo.getXid(), secondInfo.getXid());
+		assertEquals(1, xaResourceManager.resourceCount());
+	}
+
+	private XAResourceInfo enlist(XAResource xaResource) throws Exception {
+		XAResourceInfo xaResourceInfo = new XAResourceInfo(xaResource);
+		xaResourceManager.enlist(xaResourceInfo);
+		return xaResourceInfo;
+	}
+
+	private void delist(XAResourceInfo xaResourceInfo, int flag) throws Exception {
+		assertTrue(xaResourceManager.delist(xaResourceInfo, flag));
+	}
+
+}
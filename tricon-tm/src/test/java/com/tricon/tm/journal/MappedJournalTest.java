@@ -0,0 +1,193 @@
+package com.tricon.tm.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.SyncTransactionKey;
+
+
+public class MappedJournalTest {
+	private static final int SEGMENT_SIZE = 64 * 1024;
+	private static final byte[] GTRID_1 = { 1, 1, 1, 1 };
+	private static final byte[] GTRID_2 = { 2, 2, 2, 2 };
+	private static final byte[] GTRID_3 = { 3, 3, 3, 3 };
+	private static final List<byte[]> BRANCH_QUALIFIERS = Arrays.asList(new byte[] { 1 }, new byte[] { 2 });
+	private static final List<String> RESOURCE_NAMES = Arrays.asList("resource-1", "resource-2");
+
+	private File directory;
+	private MappedJournal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("tricon-tm-journal").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (journal != null) {
+			journal.close();
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testDanglingRecordsSurviveReopen() throws IOException {
+		journal = open(SEGMENT_SIZE);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.log(Status.STATUS_ROLLEDBACK, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+
+		journal = open(SEGMENT_SIZE);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(1, danglingRecords.size());
+		JournalRecord record = danglingRecords.get(new SyncTransactionKey(GTRID_2));
+		assertEquals(Status.STATUS_COMMITTING, record.getStatus());
+		assertEquals(RESOURCE_NAMES, record.getResourceNames());
+	}
+
+	@Test
+	public void testCorruptedTailIsOverwritten() throws IOException {
+		journal = open(SEGMENT_SIZE);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+		journal = null;
+
+		// a crash while the next record was being written leaves it with a wrong checksum
+		JournalRecord torn = new JournalRecord(Status.STATUS_COMMITTED, System.currentTimeMillis(), GTRID_1,
+				BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		ByteBuffer buffer = ByteBuffer.allocate(torn.getEncodedLength());
+		torn.encode(buffer);
+		buffer.put(buffer.capacity() - 1, (byte) (buffer.get(buffer.capacity() - 1) ^ 0xff));
+		RandomAccessFile randomAccessFile = new RandomAccessFile(new File(directory, "tricon-tm-segment1.tlog"), "rw");
+		try {
+			randomAccessFile.seek(DiskJournal.HEADER_LENGTH + torn.getEncodedLength());
+			randomAccessFile.write(buffer.array());
+		} finally {
+			randomAccessFile.close();
+		}
+
+		journal = open(SEGMENT_SIZE);
+		assertTrue(journal.collectDanglingRecords().containsKey(new SyncTransactionKey(GTRID_1)));
+
+		journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+		journal = open(SEGMENT_SIZE);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(2, danglingRecords.size());
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_1)));
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_2)));
+	}
+
+	@Test
+	public void testRolloverCarriesDanglingRecords() throws IOException {
+		int recordLength = new JournalRecord(Status.STATUS_COMMITTING, 0L, GTRID_1, BRANCH_QUALIFIERS,
+				RESOURCE_NAMES).getEncodedLength();
+		// room for the header and a few records only, the log goes around the segments several times
+		int segmentSize = DiskJournal.HEADER_LENGTH + 4 * recordLength + 4;
+		journal = open(segmentSize);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		for (int i = 0; i < 20; i++) {
+			journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+			journal.log(Status.STATUS_COMMITTED, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		}
+		journal.log(Status.STATUS_COMMITTING, GTRID_3, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+
+		journal = open(segmentSize);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(2, danglingRecords.size());
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_1)));
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_3)));
+	}
+
+	@Test
+	public void testSegmentSizeChangeKeepsTheRecords() throws IOException {
+		journal = open(SEGMENT_SIZE);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+
+		journal = open(2 * SEGMENT_SIZE);
+		assertTrue(journal.collectDanglingRecords().containsKey(new SyncTransactionKey(GTRID_1)));
+		// the active segment keeps its size, the other ones are resized right away
+		assertEquals(SEGMENT_SIZE, getSegmentFile(1).length());
+		assertEquals(2 * SEGMENT_SIZE, getSegmentFile(2).length());
+		assertEquals(2 * SEGMENT_SIZE, getSegmentFile(3).length());
+		journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+
+		journal = open(2 * SEGMENT_SIZE);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(2, danglingRecords.size());
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_1)));
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_2)));
+	}
+
+	@Test
+	public void testActiveSegmentIsResizedWhenReused() throws IOException {
+		journal = open(SEGMENT_SIZE);
+		journal.log(Status.STATUS_COMMITTING, GTRID_1, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		journal.close();
+
+		int recordLength = new JournalRecord(Status.STATUS_COMMITTING, 0L, GTRID_1, BRANCH_QUALIFIERS,
+				RESOURCE_NAMES).getEncodedLength();
+		int segmentSize = DiskJournal.HEADER_LENGTH + 4 * recordLength + 4;
+		journal = open(segmentSize);
+		// fills the large active segment, then goes around the small ones
+		for (int i = 0; i < SEGMENT_SIZE / recordLength + 20; i++) {
+			journal.log(Status.STATUS_COMMITTING, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+			journal.log(Status.STATUS_COMMITTED, GTRID_2, BRANCH_QUALIFIERS, RESOURCE_NAMES);
+		}
+		journal.close();
+		for (int i = 1; i <= 3; i++) {
+			assertEquals(segmentSize, getSegmentFile(i).length());
+		}
+
+		journal = open(segmentSize);
+		Map<SyncTransactionKey, JournalRecord> danglingRecords = journal.collectDanglingRecords();
+		assertEquals(1, danglingRecords.size());
+		assertTrue(danglingRecords.containsKey(new SyncTransactionKey(GTRID_1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSegmentsCannotExceedTwoGigabytes() {
+		new MappedJournal(directory, Integer.MAX_VALUE + 1L, 2, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAtLeastTwoSegments() {
+		new MappedJournal(directory, SEGMENT_SIZE, 1, false);
+	}
+
+	private File getSegmentFile(int number) {
+		return new File(directory, "tricon-tm-segment" + number + ".tlog");
+	}
+
+	private MappedJournal open(int segmentSize) throws IOException {
+		MappedJournal mappedJournal = new MappedJournal(directory, segmentSize, 3, false);
+		mappedJournal.open();
+		return mappedJournal;
+	}
+
+}
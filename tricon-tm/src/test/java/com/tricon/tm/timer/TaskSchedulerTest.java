@@ -0,0 +1,193 @@
+package com.tricon.tm.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TaskSchedulerTest {
+	private TaskScheduler taskScheduler;
+
+	@Before
+	public void setUp() {
+		taskScheduler = new TaskScheduler();
+	}
+
+	@After
+	public void tearDown() {
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	public void testTaskExpiresAtItsExecutionTime() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		CountingTask task = new CountingTask(new Date(start + 100), 1);
+		TaskHandle handle = taskScheduler.schedule(task);
+		assertEquals(1, taskScheduler.getTasksCount());
+
+		assertTrue(task.await());
+		assertTrue(task.executedAt >= start + 100);
+		assertEquals(1, task.executions.get());
+		assertTrue(handle.isExpired());
+		assertFalse(handle.isCancelled());
+		assertEquals(0, taskScheduler.getTasksCount());
+	}
+
+	@Test
+	public void testTasksRunInExecutionTimeOrder() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		final List<String> executed = new ArrayList<String>();
+		CountDownLatch latch = new CountDownLatch(3);
+		taskScheduler.schedule(new RecordingTask(new Date(start + 300), "third", executed, latch));
+		taskScheduler.schedule(new RecordingTask(new Date(start + 100), "first", executed, latch));
+		taskScheduler.schedule(new RecordingTask(new Date(start + 200), "second", executed, latch));
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		synchronized (executed) {
+			assertEquals("[first, second, third]", executed.toString());
+		}
+	}
+
+	@Test
+	public void testCancelledTaskIsNotExecuted() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		CountingTask cancelled = new CountingTask(new Date(start + 100), 1);
+		CountingTask sentinel = new CountingTask(new Date(start + 200), 1);
+		TaskHandle handle = taskScheduler.schedule(cancelled);
+		taskScheduler.schedule(sentinel);
+
+		assertTrue(handle.cancel());
+		assertFalse(handle.cancel());
+		assertTrue(handle.isCancelled());
+		assertEquals(1, taskScheduler.getTasksCount());
+
+		assertTrue(sentinel.await());
+		assertEquals(0, cancelled.executions.get());
+		assertFalse(handle.isExpired());
+		assertEquals(0, taskScheduler.getTasksCount());
+	}
+
+	@Test
+	public void testCancelAfterExpiryFails() throws InterruptedException {
+		CountingTask task = new CountingTask(new Date(), 1);
+		TaskHandle handle = taskScheduler.schedule(task);
+
+		assertTrue(task.await());
+		assertFalse(handle.cancel());
+		assertFalse(handle.isCancelled());
+		assertEquals(0, taskScheduler.getTasksCount());
+	}
+
+	@Test
+	public void testCancellingPartOfABucket() throws InterruptedException {
+		// all tasks hash into the same bucket, every other one is unlinked from the middle of its list
+		Date executionTime = new Date(System.currentTimeMillis() + 200);
+		CountingTask task = new CountingTask(executionTime, 50);
+		List<TaskHandle> handles = new ArrayList<TaskHandle>();
+		for (int i = 0; i < 100; i++) {
+			handles.add(taskScheduler.schedule(task));
+		}
+		for (int i = 0; i < handles.size(); i += 2) {
+			assertTrue(handles.get(i).cancel());
+		}
+		assertEquals(50, taskScheduler.getTasksCount());
+
+		assertTrue(task.await());
+		Thread.sleep(100);
+		assertEquals(50, task.executions.get());
+		assertEquals(0, taskScheduler.getTasksCount());
+	}
+
+	@Test
+	public void testDistantTaskWaitsAndCanBeCancelled() throws InterruptedException {
+		// one hour is many revolutions of the wheel away
+		CountingTask distant = new CountingTask(new Date(System.currentTimeMillis() + 3600 * 1000L), 1);
+		CountingTask sentinel = new CountingTask(new Date(System.currentTimeMillis() + 100), 1);
+		TaskHandle handle = taskScheduler.schedule(distant);
+		taskScheduler.schedule(sentinel);
+
+		assertTrue(sentinel.await());
+		assertEquals(0, distant.executions.get());
+		assertEquals(1, taskScheduler.getTasksCount());
+		assertTrue(handle.cancel());
+		assertEquals(0, taskScheduler.getTasksCount());
+	}
+
+	@Test
+	public void testFailingTaskDoesNotStopTheScheduler() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		taskScheduler.schedule(new ScheduledTask(new Date(start + 50)) {
+			public Object getObject() {
+				return null;
+			}
+
+			public void execute() throws TaskException {
+				throw new IllegalStateException("failing task");
+			}
+		});
+		CountingTask task = new CountingTask(new Date(start + 100), 1);
+		taskScheduler.schedule(task);
+
+		assertTrue(task.await());
+	}
+
+	private static class CountingTask extends ScheduledTask {
+		private final AtomicInteger executions = new AtomicInteger();
+		private final CountDownLatch latch;
+		private volatile long executedAt;
+
+		CountingTask(Date executionTime, int expectedExecutions) {
+			super(executionTime);
+			this.latch = new CountDownLatch(expectedExecutions);
+		}
+
+		public Object getObject() {
+			return null;
+		}
+
+		public void execute() throws TaskException {
+			executedAt = System.currentTimeMillis();
+			executions.incrementAndGet();
+			latch.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			return latch.await(5, TimeUnit.SECONDS);
+		}
+	}
+
+	private static class RecordingTask extends ScheduledTask {
+		private final String name;
+		private final List<String> executed;
+		private final CountDownLatch latch;
+
+		RecordingTask(Date executionTime, String name, List<String> executed, CountDownLatch latch) {
+			super(executionTime);
+			this.name = name;
+			this.executed = executed;
+			this.latch = latch;
+		}
+
+		public Object getObject() {
+			return name;
+		}
+
+		public void execute() throws TaskException {
+			synchronized (executed) {
+				executed.add(name);
+			}
+			latch.countDown();
+		}
+	}
+
+}
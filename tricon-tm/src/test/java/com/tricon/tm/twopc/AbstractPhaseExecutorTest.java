@@ -0,0 +1,121 @@
+package com.tricon.tm.twopc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManager;
+
+/**
+ * Phases fanning out all jobs but the last one to the 2pc executor, the committing thread running the last one.
+ */
+public class AbstractPhaseExecutorTest {
+	private TriconTransactionManager transactionManager;
+
+	@After
+	public void tearDown() {
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testLastJobRunsOnTheCallingThread() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "bounded");
+		assertLastJobRunsOnTheCallingThread();
+	}
+
+	@Test
+	public void testLastJobRunsOnTheCallingThreadWithoutBulkheads() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "bounded",
+				"tricon.tm.2pc.bulkhead.maxConcurrent", "0");
+		assertLastJobRunsOnTheCallingThread();
+	}
+
+	@Test
+	public void testSingleParticipantSkipsTheExecutor() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "bounded");
+		FakeXAResource readOnly = new FakeXAResource("fan-out-test-read-only");
+		FakeXAResource updated = new FakeXAResource("fan-out-test-updated");
+		readOnly.setVote(XAResource.XA_RDONLY);
+		begin(readOnly, updated);
+
+		transactionManager.commit();
+
+		// only the updated branch takes part in phase 2
+		assertEquals(Arrays.asList("start", "end", "prepare"), readOnly.getCalls());
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), updated.getCalls());
+		assertSame(Thread.currentThread(), updated.getCallThread("commit"));
+	}
+
+	@Test
+	public void testRollbackOfASingleResourceSkipsTheExecutor() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "bounded");
+		FakeXAResource resource = new FakeXAResource("fan-out-test-single");
+		begin(resource);
+
+		transactionManager.rollback();
+
+		assertEquals(Arrays.asList("start", "end", "rollback"), resource.getCalls());
+		assertSame(Thread.currentThread(), resource.getCallThread("rollback"));
+	}
+
+	@Test
+	public void testOnePhaseCommitSkipsTheExecutor() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "bounded");
+		FakeXAResource resource = new FakeXAResource("fan-out-test-single");
+		begin(resource);
+
+		transactionManager.commit();
+
+		assertEquals(Arrays.asList("start", "end", "commit"), resource.getCalls());
+		assertSame(Thread.currentThread(), resource.getCallThread("commit"));
+	}
+
+	private void assertLastJobRunsOnTheCallingThread() throws Exception {
+		FakeXAResource[] resources = new FakeXAResource[3];
+		for (int i = 0; i < resources.length; i++) {
+			resources[i] = new FakeXAResource("fan-out-test-" + i);
+		}
+		begin(resources);
+
+		transactionManager.commit();
+
+		for (int i = 0; i < resources.length; i++) {
+			assertEquals(Arrays.asList("start", "end", "prepare", "commit"), resources[i].getCalls());
+		}
+		// N-1 jobs are handed to the executor, the last one is run by the committing thread
+		for (int i = 0; i < resources.length - 1; i++) {
+			assertNotNull(resources[i].getCallThread("prepare"));
+			assertNotSame(Thread.currentThread(), resources[i].getCallThread("prepare"));
+		}
+		assertSame(Thread.currentThread(), resources[resources.length - 1].getCallThread("prepare"));
+		// the branches are committed in the order they were prepared in, whichever comes last is run inline
+		int inline = 0;
+		for (FakeXAResource resource : resources) {
+			if (resource.getCallThread("commit") == Thread.currentThread()) {
+				inline++;
+			}
+		}
+		assertEquals(1, inline);
+	}
+
+	private TransactionImpl begin(FakeXAResource... resources) throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+		for (FakeXAResource resource : resources) {
+			transaction.enlistResource(resource);
+		}
+		return transaction;
+	}
+
+}
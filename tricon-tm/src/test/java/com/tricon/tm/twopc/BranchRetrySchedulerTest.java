@@ -0,0 +1,137 @@
+package com.tricon.tm.twopc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.Status;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManager;
+import com.tricon.tm.TriconTransactionManagerServices;
+
+/**
+ * Branches failing transiently in phase 2, retried through their recoverable resource.
+ */
+public class BranchRetrySchedulerTest {
+	private TriconTransactionManager transactionManager;
+	private FakeXAResource resource1;
+	private FakeXAResource resource2;
+
+	@Before
+	public void setUp() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.retry.initialDelay", "20",
+				"tricon.tm.retry.maxDelay", "1000", "tricon.tm.retry.maxAttempts", "3");
+		resource1 = new FakeXAResource("retry-test-1").register();
+		resource2 = new FakeXAResource("retry-test-2").register();
+	}
+
+	@After
+	public void tearDown() {
+		resource1.unregister();
+		resource2.unregister();
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testRetriedCommitLogsTheOutcome() throws Exception {
+		resource2.fail("commit", XAException.XAER_RMFAIL, 1);
+		TransactionImpl transaction = begin();
+
+		transactionManager.commit();
+		// the decision is durable, the caller does not wait for the failed branch
+		assertEquals(Status.STATUS_COMMITTED, transaction.getStatus());
+
+		assertTrue(resource2.awaitCalls("commit", 2, 5000));
+		awaitNoPendingRetry();
+		assertEquals(1, resource1.countCalls("commit"));
+		assertEquals(0, resource2.getPreparedCount());
+		assertFalse(isDangling(transaction));
+	}
+
+	@Test
+	public void testRetriesBackOffAndGiveUp() throws Exception {
+		// fails the commit and every retry
+		resource2.fail("commit", XAException.XA_RETRY, 4);
+		TransactionImpl transaction = begin();
+
+		long start = System.currentTimeMillis();
+		transactionManager.commit();
+
+		assertTrue(resource2.awaitCalls("commit", 4, 5000));
+		// attempt n waits at least half of 20 ms * 2^n
+		assertTrue(System.currentTimeMillis() - start >= 10 + 20 + 40);
+		awaitNoPendingRetry();
+		Thread.sleep(100);
+		assertEquals(4, resource2.countCalls("commit"));
+		// left to recovery, which commits the branch on the decision still in the journal
+		assertTrue(isDangling(transaction));
+		TriconTransactionManagerServices.getRecoverer().run();
+		assertEquals(5, resource2.countCalls("commit"));
+		assertFalse(isDangling(transaction));
+	}
+
+	@Test
+	public void testCommitWithoutDecisionIsNotRetried() throws Exception {
+		// a single prepared branch, nothing is journaled and recovery would roll it back
+		resource1.setVote(XAResource.XA_RDONLY);
+		resource2.fail("commit", XAException.XAER_RMFAIL, 1);
+		TransactionImpl transaction = begin();
+
+		try {
+			transactionManager.commit();
+			fail("commit must fail when a branch cannot be committed without a durable decision");
+		} catch (HeuristicMixedException ex) {
+			// expected
+		}
+		assertEquals(Status.STATUS_UNKNOWN, transaction.getStatus());
+		assertEquals(0, TriconTransactionManagerServices.getBranchRetryScheduler().getPendingCount());
+		Thread.sleep(100);
+		assertEquals(1, resource2.countCalls("commit"));
+	}
+
+	@Test
+	public void testRolledBackBranchIsRetried() throws Exception {
+		resource2.fail("rollback", XAException.XAER_RMFAIL, 1);
+		TransactionImpl transaction = begin();
+
+		transactionManager.rollback();
+		assertEquals(Status.STATUS_ROLLEDBACK, transaction.getStatus());
+
+		assertTrue(resource2.awaitCalls("rollback", 2, 5000));
+		awaitNoPendingRetry();
+		assertEquals(1, resource1.countCalls("rollback"));
+	}
+
+	private TransactionImpl begin() throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+		transaction.enlistResource(resource1);
+		transaction.enlistResource(resource2);
+		return transaction;
+	}
+
+	private static void awaitNoPendingRetry() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (TriconTransactionManagerServices.getBranchRetryScheduler().getPendingCount() > 0) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	private static boolean isDangling(TransactionImpl transaction) throws Exception {
+		return TriconTransactionManagerServices.getJournal().collectDanglingRecords().containsKey(
+				transaction.getSyncTransactionkey());
+	}
+
+}
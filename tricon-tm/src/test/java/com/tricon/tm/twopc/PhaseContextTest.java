@@ -0,0 +1,128 @@
+package com.tricon.tm.twopc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+import com.tricon.tm.TransactionImpl;
+import com.tricon.tm.TriconTransactionManager;
+import com.tricon.tm.TriconTransactionManagerServices;
+import com.tricon.tm.internal.XAResourceInfo;
+
+/**
+ * Phase executors shared by all transactions, the state of a phase being kept in its PhaseContext.
+ */
+public class PhaseContextTest {
+	private TriconTransactionManager transactionManager;
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception {
+		transactionManager = TestConfiguration.start("tricon.tm.2pc.executor", "bounded");
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testPhaseExecutorsAreShared() throws Exception {
+		PreparePhaseExecutor preparePhaseExecutor = TriconTransactionManagerServices.getPreparePhaseExecutor();
+		CommitPhaseExecutor commitPhaseExecutor = TriconTransactionManagerServices.getCommitPhaseExecutor();
+		RollbackPhaseExecutor rollbackPhaseExecutor = TriconTransactionManagerServices.getRollbackPhaseExecutor();
+
+		for (int i = 0; i < 3; i++) {
+			begin(new FakeXAResource("shared-test-1"), new FakeXAResource("shared-test-2"));
+			transactionManager.commit();
+		}
+		assertSame(preparePhaseExecutor, TriconTransactionManagerServices.getPreparePhaseExecutor());
+		assertSame(commitPhaseExecutor, TriconTransactionManagerServices.getCommitPhaseExecutor());
+		assertSame(rollbackPhaseExecutor, TriconTransactionManagerServices.getRollbackPhaseExecutor());
+	}
+
+	@Test
+	public void testConcurrentPhasesKeepTheirOwnResources() throws Exception {
+		final FakeXAResource slow = new FakeXAResource("concurrent-test-slow");
+		final FakeXAResource other = new FakeXAResource("concurrent-test-other");
+		slow.block("prepare", release);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread committer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					begin(slow, other);
+					transactionManager.commit();
+				} catch (Exception ex) {
+					failure.set(ex);
+				}
+			}
+		});
+		committer.start();
+		assertTrue(slow.awaitBlocked("prepare", 5000));
+
+		// a second transaction goes through the same executors while the first one is preparing
+		FakeXAResource resource1 = new FakeXAResource("concurrent-test-1");
+		FakeXAResource resource2 = new FakeXAResource("concurrent-test-2");
+		begin(resource1, resource2);
+		transactionManager.rollback();
+		begin(resource1, resource2);
+		transactionManager.commit();
+
+		release.countDown();
+		committer.join(5000);
+		assertFalse(committer.isAlive());
+		assertNull(failure.get());
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), slow.getCalls());
+		assertEquals(Arrays.asList("start", "end", "prepare", "commit"), other.getCalls());
+		assertEquals(Arrays.asList("start", "end", "rollback", "start", "end", "prepare", "commit"),
+				resource1.getCalls());
+		assertEquals(Arrays.asList("start", "end", "rollback", "start", "end", "prepare", "commit"),
+				resource2.getCalls());
+	}
+
+	@Test
+	public void testParticipatingResources() throws Exception {
+		TransactionImpl transaction = begin(new FakeXAResource("context-test-1"), new FakeXAResource("context-test-2"));
+		List<XAResourceInfo> enlisted = transaction.getXAResourceManager().getAllXAResourceInfoList();
+
+		PhaseContext all = new PhaseContext(transaction, null, false);
+		assertEquals(enlisted, all.getParticipatingResources());
+		assertTrue(all.isParticipating(enlisted.get(0)));
+		assertTrue(all.isParticipating(enlisted.get(1)));
+
+		List<XAResourceInfo> selected = Collections.singletonList(enlisted.get(1));
+		PhaseContext some = new PhaseContext(transaction, selected, true);
+		assertSame(selected, some.getParticipatingResources());
+		assertFalse(some.isParticipating(enlisted.get(0)));
+		assertTrue(some.isParticipating(enlisted.get(1)));
+		assertTrue(some.isOnePhase());
+		assertTrue(some.getCompletedResources().isEmpty());
+		assertSame(transaction, some.getTransaction());
+		transactionManager.rollback();
+	}
+
+	private TransactionImpl begin(FakeXAResource... resources) throws Exception {
+		transactionManager.begin();
+		TransactionImpl transaction = transactionManager.getCurrentTransaction();
+		for (FakeXAResource resource : resources) {
+			transaction.enlistResource(resource);
+		}
+		return transaction;
+	}
+
+}
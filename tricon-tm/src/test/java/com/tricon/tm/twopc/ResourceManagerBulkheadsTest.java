@@ -0,0 +1,209 @@
+package com.tricon.tm.twopc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tricon.tm.FakeXAResource;
+import com.tricon.tm.TestConfiguration;
+import com.tricon.tm.TriconTransactionManagerServices;
+import com.tricon.tm.internal.XAResourceInfo;
+
+/**
+ * Jobs of a resource manager over its limit waiting in its queue, or rejected once the queue is full.
+ */
+public class ResourceManagerBulkheadsTest {
+	private ExecutorService executorService;
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception {
+		TestConfiguration.start("tricon.tm.resourceManager.maxCount", "1");
+		executorService = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		release.countDown();
+		executorService.shutdown();
+		executorService.awaitTermination(5, TimeUnit.SECONDS);
+		TestConfiguration.stop();
+	}
+
+	@Test
+	public void testJobsOverTheLimitWaitInTheQueue() throws Exception {
+		ResourceManagerBulkheads bulkheads = new ResourceManagerBulkheads(executorService, 1, 2);
+		FakeXAResource xaResource = new FakeXAResource("bulkhead-test");
+		BlockingJob running = new BlockingJob(xaResource, release);
+		BlockingJob waiting = new BlockingJob(xaResource, null);
+
+		bulkheads.submit(running);
+		assertTrue(running.started.await(5, TimeUnit.SECONDS));
+		bulkheads.submit(waiting);
+		assertFalse(waiting.started.await(100, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(waiting.started.await(5, TimeUnit.SECONDS));
+		assertTrue(awaitCompleted(running));
+		assertTrue(awaitCompleted(waiting));
+		assertNull(waiting.getXAException());
+	}
+
+	@Test
+	public void testJobIsRejectedOnceTheQueueIsFull() throws Exception {
+		ResourceManagerBulkheads bulkheads = new ResourceManagerBulkheads(executorService, 1, 1);
+		FakeXAResource xaResource = new FakeXAResource("bulkhead-test");
+		BlockingJob running = new BlockingJob(xaResource, release);
+		BlockingJob waiting = new BlockingJob(xaResource, null);
+		BlockingJob rejected = new BlockingJob(xaResource, null);
+
+		bulkheads.submit(running);
+		bulkheads.submit(waiting);
+		bulkheads.submit(rejected);
+
+		// rejected right away, not after the running job
+		assertTrue(rejected.isCompleted());
+		assertEquals(XAException.XAER_RMFAIL, rejected.getXAException().errorCode);
+		release.countDown();
+		assertTrue(awaitCompleted(waiting));
+		assertNull(waiting.getXAException());
+		assertEquals(1, rejected.started.getCount());
+	}
+
+	@Test
+	public void testTryRunNeedsRoomRightAway() throws Exception {
+		ResourceManagerBulkheads bulkheads = new ResourceManagerBulkheads(executorService, 1, 1);
+		FakeXAResource xaResource = new FakeXAResource("bulkhead-test");
+		BlockingJob inline = new BlockingJob(xaResource, null);
+
+		assertTrue(bulkheads.tryRun(inline));
+		assertSame(Thread.currentThread(), inline.thread);
+
+		bulkheads.submit(new BlockingJob(xaResource, release));
+		BlockingJob refused = new BlockingJob(xaResource, null);
+		assertFalse(bulkheads.tryRun(refused));
+		assertEquals(1, refused.started.getCount());
+		assertFalse(refused.isCompleted());
+	}
+
+	@Test
+	public void testSaturatedResourceManagerDoesNotHoldUpOthers() throws Exception {
+		ResourceManagerBulkheads bulkheads = new ResourceManagerBulkheads(executorService, 1, 1);
+		FakeXAResource slow = new FakeXAResource("bulkhead-test-slow");
+		register("bulkhead-test-slow", slow);
+		FakeXAResource healthy = new FakeXAResource("bulkhead-test-healthy");
+		register("bulkhead-test-healthy", healthy);
+		try {
+			bulkheads.submit(new BlockingJob(slow, release));
+			bulkheads.submit(new BlockingJob(slow, release));
+
+			BlockingJob job = new BlockingJob(healthy, null);
+			bulkheads.submit(job);
+			assertTrue(awaitCompleted(job));
+			assertNull(job.getXAException());
+			assertEquals(2, bulkheads.getBulkheadCount());
+		} finally {
+			unregister(slow);
+			unregister(healthy);
+		}
+	}
+
+	@Test
+	public void testResourcesRegisteredUnderOneNameShareABulkhead() throws Exception {
+		ResourceManagerBulkheads bulkheads = new ResourceManagerBulkheads(executorService, 1, 1);
+		// answering false to isSameRM(), the resource manager identifier keeps them apart
+		FakeXAResource first = new FakeXAResource("bulkhead-test-1");
+		FakeXAResource second = new FakeXAResource("bulkhead-test-2");
+		register("bulkhead-test", first);
+		register("bulkhead-test", second);
+		try {
+			bulkheads.submit(new BlockingJob(first, release));
+			BlockingJob job = new BlockingJob(second, null);
+			bulkheads.submit(job);
+
+			assertFalse(job.started.await(100, TimeUnit.MILLISECONDS));
+			assertEquals(1, bulkheads.getBulkheadCount());
+			release.countDown();
+			assertTrue(awaitCompleted(job));
+		} finally {
+			unregister(first);
+			unregister(second);
+		}
+	}
+
+	@Test
+	public void testBulkheadOfAnEvictedResourceManagerIsDropped() throws Exception {
+		ResourceManagerBulkheads bulkheads = new ResourceManagerBulkheads(executorService, 1, 1);
+		BlockingJob first = new BlockingJob(new FakeXAResource("bulkhead-test-1"), null);
+		assertTrue(bulkheads.tryRun(first));
+		assertEquals(1, bulkheads.getBulkheadCount());
+
+		// a single resource manager is remembered, the second one evicts the first
+		BlockingJob second = new BlockingJob(new FakeXAResource("bulkhead-test-2"), null);
+		assertNotSame(first.getXAResourceInfo().getResourceManager(), second.getXAResourceInfo().getResourceManager());
+		assertTrue(first.getXAResourceInfo().getResourceManager().isEvicted());
+		assertTrue(bulkheads.tryRun(second));
+		assertEquals(1, bulkheads.getBulkheadCount());
+	}
+
+	private static void register(String uniqueName, XAResource xaResource) {
+		TriconTransactionManagerServices.getResourceNameRegistry().register(uniqueName, xaResource);
+	}
+
+	private static void unregister(XAResource xaResource) {
+		TriconTransactionManagerServices.getResourceNameRegistry().unregister(xaResource);
+	}
+
+	private static boolean awaitCompleted(Job job) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!job.isCompleted()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(5);
+		}
+		return true;
+	}
+
+	/**
+	 * Job waiting for the given latch, if any, once started.
+	 */
+	private static class BlockingJob extends Job {
+		private final CountDownLatch release;
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile Thread thread;
+
+		BlockingJob(XAResource xaResource, CountDownLatch release) {
+			super(new XAResourceInfo(xaResource));
+			this.release = release;
+		}
+
+		protected void execute() {
+			thread = Thread.currentThread();
+			started.countDown();
+			if (release != null) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package com.tricon.tm.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tricon.tm.ConfigurationHelper;
+import com.tricon.tm.TriconTransactionManagerServices;
+import com.tricon.tm.XidImpl;
+
+/**
+ * Compares the nanoseconds per Xid of XidFactory.createXid() with the XidUtil.createXid() it replaced, which read
+ * the TM vendor name and server id from the synchronized configuration lookup and built four temporary arrays for
+ * every data component. The replaced code is kept below as the baseline. Not a unit test, run it by hand:
+ * 
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:&lt;slf4j-api and jta jars&gt; \
+ *     com.tricon.tm.util.XidGenerationBenchmark [threads] [Xids per thread] [forks] [warm-ups] [iterations]
+ * </pre>
+ * 
+ * Each thread creates Xids under a fixed global transaction id, as branch enlistment does. Every mode runs in
+ * JVMs of its own, started with the class path of this one, so the code compiled for one mode cannot slow down
+ * another: each fork runs the warm-up iterations, then the measured iterations, whose mean, standard deviation
+ * and best value over all forks are printed. The block mode is XidFactory with a sequence block size of 64, see
+ * tricon.tm.xid.sequenceBlockSize.
+ * <p>
+ * A JMH harness would do the forking and warm-up, it is not used as the build has no dependency on it.
+ */
+public class XidGenerationBenchmark {
+	private static final int SEQUENCE_BLOCK_SIZE = 64;
+	private static final String FORK_ARGUMENT = "-fork";
+	private static final String RESULT_PREFIX = "ns/op ";
+	private static final String[] MODES = { "replaced", "factory", "block" };
+
+	private static volatile Object sink;
+
+	private interface Generator {
+		XidImpl createXid(byte[] globalTransactionId);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals(FORK_ARGUMENT)) {
+			runFork(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+					Integer.parseInt(args[5]));
+			return;
+		}
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int xids = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		int forks = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int warmUps = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+		System.out.println(String.format("threads=%d  Xids per thread=%d  forks=%d  warm-ups=%d  iterations=%d",
+				threads, xids, forks, warmUps, iterations));
+		for (String mode : MODES) {
+			List<Double> results = new ArrayList<Double>();
+			for (int i = 0; i < forks; i++) {
+				results.addAll(fork(mode, threads, xids, warmUps, iterations));
+			}
+			System.out.println(summarize(mode, results));
+		}
+	}
+
+	/**
+	 * Runs a single mode in a new JVM.
+	 * 
+	 * @return the nanoseconds per Xid of each measured iteration
+	 */
+	private static List<Double> fork(String mode, int threads, int xids, int warmUps, int iterations)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		String configuration = System.getProperty("tricon.tm.configuration");
+		if (configuration != null) {
+			command.add("-Dtricon.tm.configuration=" + configuration);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(XidGenerationBenchmark.class.getName());
+		command.add(FORK_ARGUMENT);
+		command.add(mode);
+		command.add(String.valueOf(threads));
+		command.add(String.valueOf(xids));
+		command.add(String.valueOf(warmUps));
+		command.add(String.valueOf(iterations));
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		List<Double> results = new ArrayList<Double>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX)) {
+					results.add(Double.valueOf(line.substring(RESULT_PREFIX.length())));
+				} else {
+					System.out.println("  [" + mode + "] " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		int exitValue = process.waitFor();
+		if (exitValue != 0 || results.size() != iterations) {
+			throw new IllegalStateException("fork of mode " + mode + " failed with exit value " + exitValue);
+		}
+		return results;
+	}
+
+	private static String summarize(String mode, List<Double> results) {
+		double sum = 0;
+		double best = Double.MAX_VALUE;
+		for (double result : results) {
+			sum += result;
+			best = Math.min(best, result);
+		}
+		double mean = sum / results.size();
+		double squares = 0;
+		for (double result : results) {
+			squares += (result - mean) * (result - mean);
+		}
+		double deviation = results.size() > 1 ? Math.sqrt(squares / (results.size() - 1)) : 0;
+		return String.format("%-10s %8.1f ns/op  +- %6.1f  best %8.1f  (%d iterations)", mode, mean, deviation, best,
+				results.size());
+	}
+
+	private static void runFork(String mode, int threads, int xids, int warmUps, int iterations) throws Exception {
+		Generator generator = createGenerator(mode);
+		for (int i = 0; i < warmUps; i++) {
+			measure(generator, threads, xids);
+		}
+		for (int i = 0; i < iterations; i++) {
+			System.out.println(RESULT_PREFIX + measure(generator, threads, xids));
+		}
+	}
+
+	private static Generator createGenerator(String mode) {
+		if (mode.equals("replaced")) {
+			return replacedGenerator();
+		}
+		ConfigurationHelper configurationHelper = TriconTransactionManagerServices.getConfigurationHelper();
+		byte[] tmVendorName = configurationHelper.buildTMVendorNameByteArray();
+		byte[] serverId = configurationHelper.buildServerIdByteArray();
+		if (mode.equals("factory")) {
+			return factoryGenerator(new XidFactory(tmVendorName, serverId, false, 0));
+		}
+		if (mode.equals("block")) {
+			return factoryGenerator(new XidFactory(tmVendorName, serverId, false, SEQUENCE_BLOCK_SIZE));
+		}
+		throw new IllegalArgumentException("unknown mode " + mode);
+	}
+
+	private static Generator factoryGenerator(final XidFactory xidFactory) {
+		return new Generator() {
+			public XidImpl createXid(byte[] globalTransactionId) {
+				return xidFactory.createXid(globalTransactionId);
+			}
+		};
+	}
+
+	private static Generator replacedGenerator() {
+		return new Generator() {
+			public XidImpl createXid(byte[] globalTransactionId) {
+				return ReplacedXidUtil.createXid(globalTransactionId);
+			}
+		};
+	}
+
+	/**
+	 * @return the nanoseconds per Xid of a single run, all threads together
+	 */
+	private static double measure(Generator generator, int threads, int xids) throws Exception {
+		long start = System.nanoTime();
+		run(generator, threads, xids);
+		return (System.nanoTime() - start) / ((double) threads * xids);
+	}
+
+	private static void run(final Generator generator, int threads, final int xids) throws Exception {
+		final byte[] globalTransactionId = ReplacedXidUtil.generateUniqueXidDataComponent();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					XidImpl xid = null;
+					for (int j = 0; j < xids; j++) {
+						xid = generator.createXid(globalTransactionId);
+					}
+					sink = xid;
+				}
+			};
+			workers[i].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	/**
+	 * XidUtil.createXid() and generateUniqueXidDataComponent() as they were before XidFactory.
+	 */
+	private static final class ReplacedXidUtil {
+		private static AtomicLong sequenceNumber = new AtomicLong(0l);
+
+		static XidImpl createXid(byte[] globalTransactionId) {
+			return new XidImpl(globalTransactionId, generateUniqueXidDataComponent());
+		}
+
+		static byte[] generateUniqueXidDataComponent() {
+			byte[] tmVendorName = TriconTransactionManagerServices.getConfigurationHelper().buildTMVendorNameByteArray();
+			byte[] serverId = TriconTransactionManagerServices.getConfigurationHelper().buildServerIdByteArray();
+			byte[] timestamp = EncodingUtil.convertLongToBytes(System.currentTimeMillis());
+			byte[] sequenceNo = EncodingUtil.convertLongToBytes(sequenceNumber.incrementAndGet());
+
+			int uidLength = tmVendorName.length + serverId.length + timestamp.length + sequenceNo.length;
+			byte[] uidArray = new byte[uidLength];
+
+			System.arraycopy(tmVendorName, 0, uidArray, 0, tmVendorName.length);
+			System.arraycopy(serverId, 0, uidArray, tmVendorName.length, serverId.length);
+			System.arraycopy(timestamp, 0, uidArray, tmVendorName.length + serverId.length, timestamp.length);
+			System.arraycopy(sequenceNo, 0, uidArray, tmVendorName.length + serverId.length + timestamp.length,
+					sequenceNo.length);
+
+			return uidArray;
+		}
+	}
+
+}